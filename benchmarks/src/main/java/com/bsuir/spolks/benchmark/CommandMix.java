@@ -0,0 +1,47 @@
+package com.bsuir.spolks.benchmark;
+
+/**
+ * Command lines which are typical for different kinds of sessions.
+ */
+enum CommandMix {
+    INTERACTIVE(
+            "connect -ip='192.168.0.1'",
+            "echo -content='hello server'",
+            "time",
+            "echo -content='ping'",
+            "help",
+            "stats",
+            "time",
+            "disconnect"
+    ),
+    SCRIPTED(
+            "download -path='data/2017/reports' -name='report_01.csv'",
+            "download -path='data/2017/reports' -name='report_02.csv' -verify",
+            "download -path='logs' -name='server.log' -streams='4'",
+            "download -path='backup' -name='db.dump' -mmap",
+            "echo -content='keep alive'",
+            "time",
+            "download -path='logs' -name='access.log' -zerocopy",
+            "stats -reset"
+    ),
+    INVALID(
+            "echo -content=hello",
+            "connect -ip='192.168.0.1' -port='9999'",
+            "upload -path='a' -name='b'",
+            "Download -path='a'",
+            "echo -content='ok'",
+            "time -force",
+            "",
+            "connect -ip='300.1.1'"
+    );
+
+    private final String[] lines;
+
+    CommandMix(String... lines) {
+        this.lines = lines;
+    }
+
+    String[] getLines() {
+        return lines.clone();
+    }
+}
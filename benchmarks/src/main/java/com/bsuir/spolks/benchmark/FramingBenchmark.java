@@ -0,0 +1,129 @@
+package com.bsuir.spolks.benchmark;
+
+import com.bsuir.spolks.command.ICommand;
+import com.bsuir.spolks.connection.BinaryCodec;
+import com.bsuir.spolks.connection.IMessageCodec;
+import com.bsuir.spolks.connection.TextCodec;
+import com.bsuir.spolks.exception.CommandNotFoundException;
+import com.bsuir.spolks.exception.WrongCommandFormatException;
+import com.bsuir.spolks.parser.Parser;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the text (writeUTF) and the binary (varint, opcodes) framing
+ * of control messages: CPU per message and bytes on the wire.
+ * The wireBytes counter divided by the messages counter gives bytes per message.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class FramingBenchmark {
+
+    private static final String REPLY = "success 5000000";
+
+    @Param({"text", "binary"})
+    private String codecName;
+
+    @Param({"interactive", "scripted"})
+    private String mix;
+
+    private IMessageCodec codec;
+    private ICommand[] commands;
+    private int index;
+
+    private final ByteArrayOutputStream sink = new ByteArrayOutputStream(256);
+    private final DataOutputStream out = new DataOutputStream(sink);
+
+    private byte[] reply;
+
+    @Setup
+    public void setUp() throws IOException {
+        codec = "binary".equals(codecName) ? BinaryCodec.INSTANCE : TextCodec.INSTANCE;
+
+        Parser parser = new Parser();
+        List<ICommand> parsed = new ArrayList<>();
+
+        for (String line : CommandMix.valueOf(mix.toUpperCase()).getLines()) {
+            try {
+                ICommand command = parser.parse(line);
+
+                // Only commands which have an opcode on the server are sent.
+                if (!line.startsWith("stats") && !line.startsWith("help")) {
+                    parsed.add(command);
+                }
+            } catch (WrongCommandFormatException | CommandNotFoundException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        commands = parsed.toArray(new ICommand[0]);
+
+        codec.writeMessage(out, REPLY);
+        reply = sink.toByteArray();
+    }
+
+    /**
+     * Encode a command request.
+     */
+    @Benchmark
+    public int writeCommand(Wire wire) throws IOException {
+        final ICommand command = commands[index];
+        index = (index + 1) % commands.length;
+
+        sink.reset();
+        codec.writeCommand(out, command);
+
+        wire.wireBytes += sink.size();
+        wire.messages++;
+        return sink.size();
+    }
+
+    /**
+     * Decode a typical reply of the server.
+     */
+    @Benchmark
+    public String readReply(Wire wire) throws IOException {
+        wire.wireBytes += reply.length;
+        wire.messages++;
+        return codec.readMessage(new DataInputStream(new ByteArrayInputStream(reply)));
+    }
+
+    /**
+     * Bytes written or read during an iteration.
+     */
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Wire {
+        public long wireBytes;
+        public long messages;
+
+        @Setup(Level.Iteration)
+        public void clean() {
+            wireBytes = 0;
+            messages = 0;
+        }
+    }
+}
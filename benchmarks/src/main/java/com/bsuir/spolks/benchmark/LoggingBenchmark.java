@@ -0,0 +1,103 @@
+package com.bsuir.spolks.benchmark;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.core.LoggerContext;
+import org.apache.logging.log4j.core.config.Configurator;
+import org.apache.logging.log4j.util.Unbox;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the former synchronous logging setup with the asynchronous one
+ * the client ships: cost of a logged event on the calling thread and its
+ * effect on a receive loop which logs now and then. With -prof gc the
+ * gc.alloc.rate.norm column shows bytes allocated per logged event,
+ * including the appender thread.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class LoggingBenchmark {
+
+    private static final int CHUNK_SIZE = 65536;
+
+    /**
+     * A receive loop logs one event per this count of chunks.
+     */
+    private static final int LOG_INTERVAL = 16;
+
+    @Param({"sync", "async"})
+    private String setup;
+
+    private LoggerContext context;
+    private Logger logger;
+
+    private final ByteBuffer source = ByteBuffer.allocateDirect(CHUNK_SIZE);
+    private final ByteBuffer target = ByteBuffer.allocateDirect(CHUNK_SIZE);
+
+    private long count;
+
+    @Setup
+    public void setUp() {
+        context = Configurator.initialize("logging-benchmark-" + setup, "log4j2-" + setup + ".xml");
+        logger = context.getLogger(LoggingBenchmark.class.getName());
+    }
+
+    @TearDown
+    public void tearDown() {
+        Configurator.shutdown(context);
+    }
+
+    /**
+     * Log a message built by concatenation, as the commands do.
+     */
+    @Benchmark
+    public void logConcatenated() {
+        count++;
+        logger.log(Level.INFO, "Received " + count + " bytes in " + (count & 1023) + " ms.");
+    }
+
+    /**
+     * Log a parameterized message with unboxed arguments.
+     */
+    @Benchmark
+    public void logParameterized() {
+        count++;
+        logger.log(Level.INFO, "Received {} bytes in {} ms.", Unbox.box(count), Unbox.box(count & 1023));
+    }
+
+    /**
+     * Receive one chunk into the buffer and log every few chunks, as a
+     * download with warnings does. Tail percentiles show how long the
+     * loop waits for the appender.
+     */
+    @Benchmark
+    public int receiveLoop() {
+        source.clear();
+        target.clear();
+        target.put(source);
+
+        if (++count % LOG_INTERVAL == 0) {
+            logger.log(Level.WARN, "Slow chunk at " + count * CHUNK_SIZE + " bytes.");
+        }
+
+        return target.position();
+    }
+}
@@ -0,0 +1,106 @@
+package com.bsuir.spolks.benchmark;
+
+import com.bsuir.spolks.command.CommandType;
+import com.bsuir.spolks.command.ICommand;
+import com.bsuir.spolks.exception.CommandNotFoundException;
+import com.bsuir.spolks.exception.WrongCommandFormatException;
+import com.bsuir.spolks.parser.Parser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the path every typed or scripted line goes through:
+ * lexing, dispatch by command name and token validation.
+ * Run with "-prof gc" to get allocations per parsed command (gc.alloc.rate.norm).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class ParserBenchmark {
+
+    /**
+     * Command mix to parse.
+     */
+    @Param({"interactive", "scripted", "invalid"})
+    private String mix;
+
+    private Parser parser;
+
+    private String[] lines;
+    private String[] names;
+    private int index;
+
+    @Setup
+    public void setUp() {
+        parser = new Parser();
+        lines = CommandMix.valueOf(mix.toUpperCase()).getLines();
+        names = new String[lines.length];
+
+        for (int i = 0; i < lines.length; i++) {
+            final int end = lines[i].indexOf(' ');
+            names[i] = end < 0 ? lines[i] : lines[i].substring(0, end);
+        }
+    }
+
+    /**
+     * Parse a line with a reused parser as InputManager does.
+     */
+    @Benchmark
+    public Object parse() {
+        try {
+            return parser.parse(nextLine());
+        } catch (WrongCommandFormatException | CommandNotFoundException e) {
+            return e;
+        }
+    }
+
+    /**
+     * Parse a line and validate its tokens as a command does before execution.
+     */
+    @Benchmark
+    public Object parseAndValidate() {
+        try {
+            ICommand command = parser.parse(nextLine());
+            command.validateTokens();
+            return command;
+        } catch (WrongCommandFormatException | CommandNotFoundException e) {
+            return e;
+        }
+    }
+
+    /**
+     * Dispatch by command name only.
+     */
+    @Benchmark
+    public void findCommand(Blackhole blackhole) {
+        final String name = names[index];
+        index = (index + 1) % names.length;
+
+        try {
+            blackhole.consume(CommandType.findCommand(name));
+        } catch (CommandNotFoundException e) {
+            blackhole.consume(e);
+        }
+    }
+
+    private String nextLine() {
+        final String line = lines[index];
+        index = (index + 1) % lines.length;
+        return line;
+    }
+}
@@ -1,9 +1,75 @@
 package com.bsuir.spolks;
 
 import com.bsuir.spolks.controller.Controller;
+import com.bsuir.spolks.job.JobScheduler;
+import com.bsuir.spolks.progress.ProgressRenderer;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.core.config.Configurator;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.stream.Collectors;
 
 public class Client {
+
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    private static final String CONCURRENCY = "--concurrency";
+    private static final String JOBS = "--jobs";
+    private static final String QUIET = "--quiet";
+    private static final String SCRIPT = "--script";
+
+    /**
+     * Script name which reads the script from the standard input.
+     */
+    private static final String STDIN = "-";
+
     public static void main(String[] args) {
-        Controller.getInstance().work();
+        String script = null;
+
+        for (int i = 0; i < args.length; i++) {
+            if (CONCURRENCY.equals(args[i]) && i + 1 < args.length) {
+                Controller.getInstance().setConcurrency(Integer.parseInt(args[++i]));
+            } else if (JOBS.equals(args[i]) && i + 1 < args.length) {
+                JobScheduler.getInstance().setLimit(Integer.parseInt(args[++i]));
+            } else if (QUIET.equals(args[i])) {
+                Configurator.setRootLevel(Level.WARN);
+                ProgressRenderer.getInstance().setEnabled(false);
+            } else if (SCRIPT.equals(args[i]) && i + 1 < args.length) {
+                script = args[++i];
+            }
+        }
+
+        if (script == null) {
+            Controller.getInstance().work();
+            return;
+        }
+
+        ProgressRenderer.getInstance().setEnabled(false);
+
+        try {
+            final List<String> lines = readScript(script);
+            System.exit(Controller.getInstance().runScript(lines) == 0 ? 0 : 1);
+        } catch (IOException e) {
+            LOGGER.log(Level.ERROR, "Cannot read script. " + e.getMessage());
+            System.exit(2);
+        }
+    }
+
+    private static List<String> readScript(String script) throws IOException {
+        if (!STDIN.equals(script)) {
+            return Files.readAllLines(Paths.get(script), StandardCharsets.UTF_8);
+        }
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))) {
+            return reader.lines().collect(Collectors.toList());
+        }
     }
-}
\ No newline at end of file
+}
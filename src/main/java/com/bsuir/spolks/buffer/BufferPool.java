@@ -0,0 +1,204 @@
+package com.bsuir.spolks.buffer;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of I/O buffers split into power-of-two size classes.
+ * A borrowed buffer has the capacity of its class and the limit
+ * of the requested size. Every class keeps a bounded count of free
+ * buffers, extra released buffers are left to the garbage collector.
+ * Requests larger than the biggest class are allocated every time.
+ */
+public final class BufferPool {
+
+    private static final int MIN_SIZE_SHIFT = 12;
+    private static final int MAX_SIZE_SHIFT = 20;
+
+    /**
+     * Free bytes which are kept in every size class.
+     */
+    private static final int CLASS_CAPACITY = 4 * 1024 * 1024;
+
+    private static final BufferPool instance = new BufferPool();
+
+    private final SizeClass[] directClasses = createClasses(true);
+    private final SizeClass[] heapClasses = createClasses(false);
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong outstanding = new AtomicLong();
+
+    private BufferPool() {
+    }
+
+    /**
+     * Get instance of the pool.
+     *
+     * @return instance
+     */
+    public static BufferPool getInstance() {
+        return instance;
+    }
+
+    /**
+     * Borrow a direct buffer for channel I/O.
+     *
+     * @param size count of bytes the buffer should hold
+     * @return cleared buffer with the limit set to the size
+     */
+    public ByteBuffer acquire(int size) {
+        return acquire(directClasses, size, true);
+    }
+
+    /**
+     * Borrow a heap buffer for stream I/O. Its array() can be used directly.
+     *
+     * @param size count of bytes the buffer should hold
+     * @return cleared buffer with the limit set to the size
+     */
+    public ByteBuffer acquireHeap(int size) {
+        return acquire(heapClasses, size, false);
+    }
+
+    /**
+     * Return a borrowed buffer. The buffer must not be used afterwards.
+     *
+     * @param buffer buffer got from acquire() or acquireHeap()
+     */
+    public void release(ByteBuffer buffer) {
+        outstanding.decrementAndGet();
+
+        final int index = classIndex(buffer.capacity());
+        if (index < 0 || Integer.bitCount(buffer.capacity()) != 1) {
+            return;
+        }
+
+        SizeClass sizeClass = buffer.isDirect() ? directClasses[index] : heapClasses[index];
+        sizeClass.offer(buffer);
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Get count of borrowed buffers which are not released yet.
+     * A count which grows while nothing is transferred means a leak.
+     *
+     * @return outstanding buffers
+     */
+    public long getOutstanding() {
+        return outstanding.get();
+    }
+
+    /**
+     * Get bytes held by free buffers.
+     *
+     * @return pooled bytes
+     */
+    public long getPooledBytes() {
+        long bytes = 0;
+
+        for (int i = 0; i < directClasses.length; i++) {
+            bytes += directClasses[i].getPooledBytes() + heapClasses[i].getPooledBytes();
+        }
+
+        return bytes;
+    }
+
+    private ByteBuffer acquire(SizeClass[] classes, int size, boolean direct) {
+        outstanding.incrementAndGet();
+
+        final int index = classIndex(size);
+        if (index < 0) {
+            misses.incrementAndGet();
+            return allocate(size, direct);
+        }
+
+        ByteBuffer buffer = classes[index].poll();
+        if (buffer != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+            buffer = allocate(classes[index].bufferSize, direct);
+        }
+
+        buffer.clear().limit(size);
+        return buffer;
+    }
+
+    private static ByteBuffer allocate(int size, boolean direct) {
+        return direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+    }
+
+    /**
+     * Get index of the smallest class which fits the size.
+     *
+     * @param size size in bytes
+     * @return index or -1 if the size is bigger than the biggest class
+     */
+    private static int classIndex(int size) {
+        if (size > 1 << MAX_SIZE_SHIFT) {
+            return -1;
+        }
+
+        final int shift = size <= 1 << MIN_SIZE_SHIFT ? MIN_SIZE_SHIFT : Integer.SIZE - Integer.numberOfLeadingZeros(size - 1);
+        return shift - MIN_SIZE_SHIFT;
+    }
+
+    private static SizeClass[] createClasses(boolean direct) {
+        SizeClass[] classes = new SizeClass[MAX_SIZE_SHIFT - MIN_SIZE_SHIFT + 1];
+
+        for (int i = 0; i < classes.length; i++) {
+            final int bufferSize = 1 << (MIN_SIZE_SHIFT + i);
+            classes[i] = new SizeClass(bufferSize, Math.max(2, CLASS_CAPACITY / bufferSize));
+        }
+
+        return classes;
+    }
+
+    /**
+     * Free buffers of one size.
+     */
+    private static final class SizeClass {
+        private final int bufferSize;
+        private final int maxFree;
+
+        private final Queue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger freeCount = new AtomicInteger();
+
+        SizeClass(int bufferSize, int maxFree) {
+            this.bufferSize = bufferSize;
+            this.maxFree = maxFree;
+        }
+
+        ByteBuffer poll() {
+            ByteBuffer buffer = free.poll();
+
+            if (buffer != null) {
+                freeCount.decrementAndGet();
+            }
+            return buffer;
+        }
+
+        void offer(ByteBuffer buffer) {
+            if (freeCount.incrementAndGet() <= maxFree) {
+                free.add(buffer);
+            } else {
+                freeCount.decrementAndGet();
+            }
+        }
+
+        long getPooledBytes() {
+            return (long) freeCount.get() * bufferSize;
+        }
+    }
+}
@@ -10,22 +10,59 @@ import java.util.Map;
 
 abstract class AbstractCommand implements ICommand {
 
-    Map<String, String> availableTokens;
+    private static final IToken[] NO_TOKENS = new IToken[0];
+
+    /**
+     * Tokens the command accepts, by ordinal.
+     */
+    private final IToken[] availableTokens;
+
+    /**
+     * Put tokens by ordinal: text which holds the value, null if the token
+     * is absent. Values are slices of the text and become strings on demand.
+     */
+    private final String[] sources;
+
+    /**
+     * Start and end of every value in its source, -1 for a token without value.
+     */
+    private final int[] bounds;
+
+    /**
+     * First put token which the command does not accept.
+     */
+    private String unknownToken;
+
+    /**
+     * Map view of the tokens, built on demand.
+     */
     private Map<String, String> tokens;
 
     String cmd;
 
+    private volatile boolean failed;
+
     /**
      * Logger to getCommand logs.
      */
     static final Logger LOGGER = LogManager.getLogger();
 
     /**
-     * Default constructor.
+     * Constructor of a command without tokens.
      */
     AbstractCommand() {
-        tokens = new HashMap<>();
-        availableTokens = new HashMap<>();
+        this(NO_TOKENS);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param availableTokens tokens the command accepts, values() of its token enum
+     */
+    AbstractCommand(IToken[] availableTokens) {
+        this.availableTokens = availableTokens;
+        this.sources = new String[availableTokens.length];
+        this.bounds = new int[availableTokens.length * 2];
     }
 
     /**
@@ -33,14 +70,8 @@ abstract class AbstractCommand implements ICommand {
      */
     @Override
     public final void verifyTokens() throws WrongCommandFormatException {
-        if (!tokens.isEmpty()) {
-            for (Map.Entry<String, String> fl : tokens.entrySet()) {
-                final String key = fl.getKey();
-
-                if (!availableTokens.containsKey(key)) {
-                    throw new WrongCommandFormatException("The command does not contain '" + key + "' token.");
-                }
-            }
+        if (unknownToken != null) {
+            throw new WrongCommandFormatException("The command does not contain '" + unknownToken + "' token.");
         }
     }
 
@@ -50,7 +81,40 @@ abstract class AbstractCommand implements ICommand {
      * @return hash map
      */
     public final Map<String, String> getTokens() {
-        return this.tokens;
+        if (tokens == null) {
+            tokens = new HashMap<>();
+
+            for (IToken token : availableTokens) {
+                if (sources[token.ordinal()] != null) {
+                    tokens.put(token.getName(), getToken(token));
+                }
+            }
+        }
+
+        return tokens;
+    }
+
+    /**
+     * Check if the token is put.
+     *
+     * @param token token
+     * @return boolean
+     */
+    final boolean hasToken(IToken token) {
+        return sources[token.ordinal()] != null;
+    }
+
+    /**
+     * Get value of the token.
+     *
+     * @param token token
+     * @return value or null if the token is absent or has no value
+     */
+    final String getToken(IToken token) {
+        final int index = token.ordinal();
+        final int start = bounds[2 * index];
+
+        return sources[index] == null || start < 0 ? null : sources[index].substring(start, bounds[2 * index + 1]);
     }
 
     /**
@@ -61,39 +125,154 @@ abstract class AbstractCommand implements ICommand {
      */
     @Override
     public final void putToken(String name, String value) {
-        this.tokens.put(name, value);
+        final int index = find(name, 0, name.length());
+
+        if (index < 0) {
+            putUnknown(name);
+        } else if (value == null) {
+            put(index, name, -1, -1);
+        } else {
+            put(index, value, 0, value.length());
+        }
+    }
+
+    /**
+     * Put token which is a slice of the command line.
+     *
+     * @param line command line
+     * @param nameStart first char of the name
+     * @param nameEnd char after the name
+     * @param valueStart first char of the value, -1 if there is no value
+     * @param valueEnd char after the value
+     */
+    @Override
+    public final void putToken(String line, int nameStart, int nameEnd, int valueStart, int valueEnd) {
+        final int index = find(line, nameStart, nameEnd);
+
+        if (index < 0) {
+            putUnknown(line.substring(nameStart, nameEnd));
+        } else {
+            put(index, line, valueStart, valueStart < 0 ? -1 : valueEnd);
+        }
     }
 
     /**
-     * Validate tokens by regex.
+     * Validate tokens by their rules.
      *
      * @throws WrongCommandFormatException
      */
     @Override
     public final void validateTokens() throws WrongCommandFormatException {
-        for (Map.Entry<String, String> token : getTokens().entrySet()) {
-            String tokenKey = token.getKey();
-            String tokenValue = token.getValue();
+        for (IToken token : availableTokens) {
+            final int index = token.ordinal();
 
-            String regex = availableTokens.get(tokenKey);
+            if (sources[index] != null && !validateToken(token.getRule(), sources[index], bounds[2 * index],
+                    bounds[2 * index + 1])) {
+                throw new WrongCommandFormatException("Token '" + token.getName() + "' is incorrect.");
+            }
+        }
+    }
 
-            if (!validateToken(tokenValue, regex)) {
-                throw new WrongCommandFormatException("Token '" + tokenKey + "' is incorrect.");
+    /**
+     * Validate single token value by the rule. A token without rule must have no value.
+     *
+     * @param rule rule or null
+     * @param text text which holds the value
+     * @param start first char of the value, -1 if there is no value
+     * @param end char after the value
+     * @return boolean
+     */
+    private static boolean validateToken(TokenRule rule, String text, int start, int end) {
+        return start < 0 ? rule == null : rule != null && rule.matches(text, start, end);
+    }
+
+    private int find(String text, int start, int end) {
+        final int length = end - start;
+
+        for (IToken token : availableTokens) {
+            final String name = token.getName();
+
+            if (name.length() == length && text.regionMatches(start, name, 0, length)) {
+                return token.ordinal();
             }
         }
+
+        return -1;
+    }
+
+    private void put(int index, String source, int start, int end) {
+        sources[index] = source;
+        bounds[2 * index] = start;
+        bounds[2 * index + 1] = end;
+        tokens = null;
+    }
+
+    private void putUnknown(String name) {
+        if (unknownToken == null) {
+            unknownToken = name;
+        }
+    }
+
+    /**
+     * Get command name from cmd.
+     *
+     * @return command name
+     */
+    @Override
+    public final String getName() {
+        if (cmd == null) {
+            return "";
+        }
+
+        final int end = cmd.indexOf(' ');
+        return end < 0 ? cmd : cmd.substring(0, end);
     }
 
     /**
-     * Validate single token by regex.
+     * Check if the command must not run together with other commands.
      *
-     * @param tokenValue
-     * @param regex
      * @return boolean
      */
     @Override
-    public final boolean validateToken(String tokenValue, String regex) {
-        return (tokenValue == null && regex == null)
-                || (tokenValue != null && !tokenValue.isEmpty() && !regex.isEmpty() && tokenValue.matches(regex));
+    public boolean isExclusive() {
+        return false;
+    }
+
+    /**
+     * Check if the command is a single request with a single answer.
+     *
+     * @return boolean
+     */
+    @Override
+    public boolean isPipelined() {
+        return false;
+    }
+
+    /**
+     * Check if the command has failed.
+     *
+     * @return boolean
+     */
+    @Override
+    public final boolean isFailed() {
+        return failed;
+    }
+
+    /**
+     * Mark the command as failed.
+     */
+    final void fail() {
+        failed = true;
+    }
+
+    /**
+     * Get the command line as it has been typed.
+     *
+     * @return cmd
+     */
+    @Override
+    public final String getCmd() {
+        return cmd;
     }
 
     /**
@@ -0,0 +1,132 @@
+package com.bsuir.spolks.command;
+
+import com.bsuir.spolks.exception.AvailableTokenNotPresentException;
+import com.bsuir.spolks.exception.WrongCommandFormatException;
+import com.bsuir.spolks.job.Job;
+import com.bsuir.spolks.job.JobScheduler;
+import com.bsuir.spolks.util.Printer;
+import org.apache.logging.log4j.Level;
+
+import java.util.Map;
+
+class CancelCommand extends AbstractCommand {
+
+    CancelCommand() {
+        super(AvailableToken.values());
+    }
+
+    /**
+     * Execute command.
+     */
+    @Override
+    public void execute() {
+        try {
+            validateTokens();
+            checkTokenCount();
+
+            Map<String, String> toks = getTokens();
+            String firstKey = String.valueOf(toks.keySet().toArray()[0]);
+            AvailableToken currentToken = AvailableToken.find(firstKey);
+
+            switch (currentToken) {
+                case ID:
+                    executeCancel(Integer.parseInt(toks.get(AvailableToken.ID.getName())));
+                    break;
+                case ALL:
+                    executeCancelAll();
+                    break;
+                case HELP:
+                    executeHelp();
+                    break;
+            }
+        } catch (WrongCommandFormatException | AvailableTokenNotPresentException e) {
+            fail();
+            LOGGER.log(Level.ERROR, e.getMessage());
+        }
+    }
+
+    /**
+     * Build command instance.
+     *
+     * @return instance
+     */
+    @Override
+    public ICommand build() {
+        return new CancelCommand();
+    }
+
+    private void checkTokenCount() throws WrongCommandFormatException {
+        if (getTokens().size() != 1) {
+            throw new WrongCommandFormatException("This command should have one token. See -help");
+        }
+    }
+
+    private void executeCancel(int id) {
+        Job job = JobScheduler.getInstance().find(id);
+
+        if (job == null) {
+            fail();
+            LOGGER.log(Level.ERROR, "Job " + id + " is not found.");
+        } else if (JobScheduler.getInstance().cancel(job)) {
+            LOGGER.log(Level.INFO, "Job " + id + " is cancelled.");
+        } else {
+            LOGGER.log(Level.WARN, "Job " + id + " is already finished.");
+        }
+    }
+
+    private void executeCancelAll() {
+        int count = 0;
+
+        for (Job job : JobScheduler.getInstance().getActiveJobs()) {
+            if (JobScheduler.getInstance().cancel(job)) {
+                count++;
+            }
+        }
+
+        LOGGER.log(Level.INFO, count + " jobs are cancelled.");
+    }
+
+    private void executeHelp() {
+        Printer.println("Command format:");
+        Printer.println("   cancel -id='job id' | -all [-help]");
+    }
+
+    private enum AvailableToken implements IToken {
+        ID("id", TokenRule.digits(9), false),
+        ALL("all", null, false),
+        HELP("help", null, false);
+
+        private String name;
+        private TokenRule rule;
+        private boolean required;
+
+        AvailableToken(String name, TokenRule rule, boolean required) {
+            this.name = name;
+            this.rule = rule;
+            this.required = required;
+        }
+
+        public static AvailableToken find(String name) throws AvailableTokenNotPresentException {
+            for (AvailableToken t : values()) {
+                if (t.getName().equals(name)) {
+                    return t;
+                }
+            }
+
+            throw new AvailableTokenNotPresentException("Token '" + name + "' is not available.");
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public TokenRule getRule() {
+            return rule;
+        }
+
+        public boolean isRequired() {
+            return required;
+        }
+    }
+}
@@ -2,16 +2,39 @@ package com.bsuir.spolks.command;
 
 import com.bsuir.spolks.exception.CommandNotFoundException;
 
+import java.util.Arrays;
+
 public enum CommandType {
-    CONNECT("connect", "Connect to server", new ConnectCommand()),
-    DISCONNECT("disconnect", "Disconnect from server", new DisconnectCommand()),
-    DOWNLOAD("download", "Download file from server", new DownloadCommand()),
-    ECHO("echo", "Check server echo", new EchoCommand()),
-    TIME("time", "Get server time", new TimeCommand()),
-    HELP("help", "Display help information about available commands", new HelpCommand()),
-    EXIT("exit", "Terminate program", new ExitCommand());
+    CONNECT("connect", 1, "Connect to server", new ConnectCommand()),
+    DISCONNECT("disconnect", 2, "Disconnect from server", new DisconnectCommand()),
+    DOWNLOAD("download", 3, "Download file from server", new DownloadCommand()),
+    ECHO("echo", 4, "Check server echo", new EchoCommand()),
+    TIME("time", 5, "Get server time", new TimeCommand()),
+    STATS("stats", 6, "Display latency and traffic statistics", new StatsCommand()),
+    JOBS("jobs", 7, "List download jobs or set count of jobs running at once", new JobsCommand()),
+    WAIT("wait", 8, "Wait for a download job or all jobs", new WaitCommand()),
+    CANCEL("cancel", 9, "Cancel a download job", new CancelCommand()),
+    LOADGEN("loadgen", 12, "Run many client sessions and report their throughput and latency", new LoadgenCommand()),
+    MIRROR("mirror", 13, "Download directory tree from server", new MirrorCommand()),
+    HELP("help", 10, "Display help information about available commands", new HelpCommand()),
+    EXIT("exit", 11, "Terminate program", new ExitCommand());
+
+    /**
+     * Dispatch table: command types grouped by the first letter of the name.
+     */
+    private static final CommandType[][] TABLE = new CommandType['z' - 'a' + 1][];
+
+    static {
+        for (CommandType type : values()) {
+            final int index = type.commandName.charAt(0) - 'a';
+            CommandType[] bucket = TABLE[index] == null ? new CommandType[1] : Arrays.copyOf(TABLE[index], TABLE[index].length + 1);
+            bucket[bucket.length - 1] = type;
+            TABLE[index] = bucket;
+        }
+    }
 
     private String commandName;
+    private int opcode;
     private String description;
 
     private ICommand command;
@@ -20,11 +43,13 @@ public enum CommandType {
      * Constructor.
      *
      * @param commandName
+     * @param opcode code of the command in the binary protocol
      * @param description
      * @param command
      */
-    CommandType(String commandName, String description, ICommand command) {
+    CommandType(String commandName, int opcode, String description, ICommand command) {
         this.commandName = commandName;
+        this.opcode = opcode;
         this.description = description;
         this.command = command;
     }
@@ -37,10 +62,10 @@ public enum CommandType {
      * @throws CommandNotFoundException
      */
     public static ICommand findCommand(String commandName) throws CommandNotFoundException {
-        for (CommandType type : CommandType.values()) {
-            if (type.getName().equals(commandName)) {
-                return type.getCommand();
-            }
+        final CommandType type = find(commandName, 0, commandName.length());
+
+        if (type != null) {
+            return type.getCommand();
         }
 
         throw new CommandNotFoundException("Cannot find command by name[=" + commandName + "]");
@@ -53,13 +78,33 @@ public enum CommandType {
      * @return boolean
      */
     public static boolean hasCommand(String commandName) {
-        for (CommandType type : CommandType.values()) {
-            if (type.getName().equals(commandName)) {
-                return true;
+        return find(commandName, 0, commandName.length()) != null;
+    }
+
+    /**
+     * Find command type by the name which is a slice of the line.
+     *
+     * @param line text which contains the name
+     * @param start first char of the name
+     * @param end char after the name
+     * @return command type or null
+     */
+    public static CommandType find(String line, int start, int end) {
+        final int length = end - start;
+        if (length <= 0 || line.charAt(start) < 'a' || line.charAt(start) > 'z') {
+            return null;
+        }
+
+        final CommandType[] bucket = TABLE[line.charAt(start) - 'a'];
+        if (bucket != null) {
+            for (CommandType type : bucket) {
+                if (type.commandName.length() == length && line.regionMatches(start, type.commandName, 0, length)) {
+                    return type;
+                }
             }
         }
 
-        return false;
+        return null;
     }
 
     /**
@@ -71,6 +116,15 @@ public enum CommandType {
         return commandName;
     }
 
+    /**
+     * Get code of the command in the binary protocol.
+     *
+     * @return opcode
+     */
+    public int getOpcode() {
+        return opcode;
+    }
+
     /**
      * Get command description.
      *
@@ -4,17 +4,17 @@ import com.bsuir.spolks.connection.Connection;
 import com.bsuir.spolks.controller.Controller;
 import com.bsuir.spolks.exception.AvailableTokenNotPresentException;
 import com.bsuir.spolks.exception.WrongCommandFormatException;
+import com.bsuir.spolks.stats.Statistics;
 import com.bsuir.spolks.util.Printer;
 import org.apache.logging.log4j.Level;
 
 import java.io.*;
-import java.util.Arrays;
 import java.util.Map;
 import java.util.UUID;
 
 public class ConnectCommand extends AbstractCommand {
     ConnectCommand() {
-        Arrays.stream(AvailableToken.values()).forEach(t -> availableTokens.put(t.getName(), t.getRegex()));
+        super(AvailableToken.values());
     }
 
     /**
@@ -31,6 +31,8 @@ public class ConnectCommand extends AbstractCommand {
 
             switch (currentToken) {
                 case IP:
+                case MUX:
+                case BINARY:
                     executeConnect();
                     break;
                 case HELP:
@@ -38,10 +40,21 @@ public class ConnectCommand extends AbstractCommand {
                     break;
             }
         } catch (WrongCommandFormatException | AvailableTokenNotPresentException e) {
+            fail();
             LOGGER.log(Level.ERROR, e.getMessage());
         }
     }
 
+    /**
+     * The command changes the connection, so it waits for other commands.
+     *
+     * @return true
+     */
+    @Override
+    public boolean isExclusive() {
+        return true;
+    }
+
     /**
      * Build command instance.
      *
@@ -55,8 +68,8 @@ public class ConnectCommand extends AbstractCommand {
     private void validateRequired() throws WrongCommandFormatException {
         Map<String, String> tokens = getTokens();
 
-        if (tokens.size() > 1) {
-            throw new WrongCommandFormatException("This command should have only one token.");
+        if (tokens.size() > 3) {
+            throw new WrongCommandFormatException("This command should have from one to three tokens.");
         }
 
         if (tokens.containsKey(AvailableToken.HELP.getName())) {
@@ -75,29 +88,45 @@ public class ConnectCommand extends AbstractCommand {
     }
 
     private void executeConnect() {
-        String address = getTokens().get(AvailableToken.IP.getName());
+        String address = getToken(AvailableToken.IP);
         Connection connection = new Connection(address);
+        connection.setClientId(createUUID());
+        final long startTime = System.nanoTime();
+
         if (connection.connect()) {
+            Statistics.getInstance().record(Statistics.CONNECT, System.nanoTime() - startTime);
+            connection.measureRtt();
+
+            if (hasToken(AvailableToken.BINARY)) {
+                connection.enableBinaryProtocol();
+            }
+            if (hasToken(AvailableToken.MUX)) {
+                connection.enableMultiplexing();
+            }
             Controller.getInstance().setConnection(connection);
+        } else {
+            fail();
         }
     }
 
     private void executeHelp() {
         Printer.println("Command format:");
-        Printer.println("   connect -ip='192.168.0.1' [-help]");
+        Printer.println("   connect -ip='192.168.0.1' [-binary] [-mux] [-help]");
     }
 
-    public enum AvailableToken {
-        IP("ip", "^(\\d{1,3}\\.){3}\\d{1,3}$", true),
+    public enum AvailableToken implements IToken {
+        IP("ip", TokenRule.IP, true),
+        MUX("mux", null, false),
+        BINARY("binary", null, false),
         HELP("help", null, false);
 
         private String name;
-        private String regex;
+        private TokenRule rule;
         private boolean required;
 
-        AvailableToken(String name, String regex, boolean required) {
+        AvailableToken(String name, TokenRule rule, boolean required) {
             this.name = name;
-            this.regex = regex;
+            this.rule = rule;
             this.required = required;
         }
 
@@ -115,8 +144,9 @@ public class ConnectCommand extends AbstractCommand {
             return name;
         }
 
-        public String getRegex() {
-            return regex;
+        @Override
+        public TokenRule getRule() {
+            return rule;
         }
 
         public boolean isRequired() {
@@ -0,0 +1,333 @@
+package com.bsuir.spolks.command;
+
+import com.bsuir.spolks.buffer.BufferPool;
+import com.bsuir.spolks.connection.Connection;
+import com.bsuir.spolks.job.Job;
+import com.bsuir.spolks.util.StreamingDigest;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.CancellationException;
+import java.util.function.LongConsumer;
+
+/**
+ * Delta download of a file whose older copy is present. The client splits
+ * the local copy into blocks and sends the signature: the weak rolling
+ * checksum and the MD5 of every block. The server finds these blocks in
+ * the new version and sends instructions: copy blocks of the local copy
+ * or take literal bytes. The new version is built next to the local copy
+ * and replaces it after its SHA-256 matches the one sent by the server.
+ */
+class DeltaDownload {
+
+    private static final String GET_PROGRESS = "progress";
+    private static final String DELTA = "delta";
+    private static final String EXTENSION = ".delta";
+    private static final String CANCELLED = "Download is cancelled.";
+
+    private static final int MIN_BLOCK_SIZE = 2048;
+    private static final int MAX_BLOCK_SIZE = 65536;
+
+    private static final int STRONG_SIZE = 16;
+    private static final int SIGNATURE_ENTRY_SIZE = 4 + STRONG_SIZE;
+    private static final int SIGNATURE_BATCH = 1024;
+
+    /**
+     * Instruction is [byte type][int][int]: END, LITERAL length, COPY first block and count.
+     */
+    private static final int INSTRUCTION_SIZE = 9;
+    private static final byte END = 0;
+    private static final byte LITERAL = 1;
+    private static final byte COPY = 2;
+
+    private static final int BUFF_SIZE = 65536;
+    private static final int MAX_LITERAL_SIZE = 1024 * 1024;
+
+    private final Connection connection;
+    private final File file;
+    private final Job job;
+    private final LongConsumer progressListener;
+
+    private final long localSize;
+    private final int blockSize;
+    private final int blockCount;
+
+    private long literalBytes;
+    private long copiedBytes;
+    private long instructions;
+
+    /**
+     * Constructor.
+     *
+     * @param connection connection which has got the file confirmation
+     * @param file local copy of the file
+     * @param job job of the download
+     * @param progressListener gets count of bytes of every written part
+     */
+    DeltaDownload(Connection connection, File file, Job job, LongConsumer progressListener) {
+        this.connection = connection;
+        this.file = file;
+        this.job = job;
+        this.progressListener = progressListener;
+        this.localSize = file.length();
+        this.blockSize = getBlockSize(localSize);
+        this.blockCount = (int) ((localSize + blockSize - 1) / blockSize);
+    }
+
+    /**
+     * Check if the file can be the base of a delta download: it is present
+     * and is not a partial download, which is resumed instead.
+     *
+     * @param file local file
+     * @return boolean
+     */
+    static boolean canUse(File file) {
+        return file.isFile() && file.length() > 0 && !DownloadJournal.exists(file);
+    }
+
+    /**
+     * Block size about the square root of the file size, as rsync picks it:
+     * bigger blocks make the signature shorter, smaller ones match more data.
+     *
+     * @param size size of the local copy
+     * @return power of two from MIN_BLOCK_SIZE to MAX_BLOCK_SIZE
+     */
+    private static int getBlockSize(long size) {
+        final int root = (int) Math.min(Integer.MAX_VALUE, (long) Math.sqrt(size));
+        return Math.max(MIN_BLOCK_SIZE, Math.min(MAX_BLOCK_SIZE, Integer.highestOneBit(Math.max(1, root))));
+    }
+
+    /**
+     * Send the signature of the local copy and build the new version of the file.
+     *
+     * @param fileSize size of the new version
+     * @throws IOException if the exchange fails or the built file does not match
+     */
+    void execute(long fileSize) throws IOException {
+        sendSignature();
+
+        if (!GET_PROGRESS.equals(connection.receive())) {
+            throw new IOException("Server does not accept the signature.");
+        }
+
+        final File target = new File(file.getPath() + EXTENSION);
+        boolean completed = false;
+
+        try {
+            final StreamingDigest digest = build(target, fileSize);
+
+            final String expected = connection.receive();
+            if (expected == null) {
+                throw new IOException("Connection is closed before the file digest.");
+            }
+            // toHex() completes the digest, so it is called once.
+            final String actual = digest.toHex();
+            if (!actual.equalsIgnoreCase(expected)) {
+                throw new IOException("SHA-256 of the built file does not match. Expected: " + expected
+                        + ", actual: " + actual + ". The local copy is kept.");
+            }
+
+            Files.move(target.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            completed = true;
+        } finally {
+            if (!completed) {
+                Files.deleteIfExists(target.toPath());
+            }
+        }
+    }
+
+    /**
+     * Send "delta blockSize blockCount" and then [int weak][MD5] of every block.
+     *
+     * @throws IOException
+     */
+    private void sendSignature() throws IOException {
+        if (!connection.sendMessage(DELTA + " " + blockSize + " " + blockCount)) {
+            throw new IOException("Cannot send the delta request.");
+        }
+
+        final MessageDigest strong = createStrongDigest();
+        final ByteBuffer block = ByteBuffer.allocate(blockSize);
+        final ByteBuffer batch = ByteBuffer.allocate(SIGNATURE_BATCH * SIGNATURE_ENTRY_SIZE);
+
+        try (FileChannel local = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            for (int i = 0; i < blockCount; i++) {
+                block.clear().limit((int) Math.min(blockSize, localSize - (long) i * blockSize));
+                readFully(local, block, (long) i * blockSize);
+
+                batch.putInt(weakChecksum(block.array(), block.limit()));
+                strong.update(block.array(), 0, block.limit());
+                batch.put(strong.digest());
+
+                if (!batch.hasRemaining() || i == blockCount - 1) {
+                    if (!connection.send(batch.array(), batch.position())) {
+                        throw new IOException("Cannot send the signature.");
+                    }
+                    batch.clear();
+                }
+            }
+        }
+    }
+
+    /**
+     * Apply the instructions of the server: copy blocks of the local copy or write literal data.
+     *
+     * @param target file to build
+     * @param fileSize size of the new version
+     * @return digest of the built file
+     * @throws IOException
+     */
+    private StreamingDigest build(File target, long fileSize) throws IOException {
+        final StreamingDigest digest = new StreamingDigest();
+        final ByteBuffer header = ByteBuffer.allocate(INSTRUCTION_SIZE);
+        final ByteBuffer buffer = BufferPool.getInstance().acquire(BUFF_SIZE);
+
+        try (FileChannel local = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(target.toPath(), StandardOpenOption.CREATE,
+                     StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (true) {
+                if (job.isCancelled()) {
+                    DownloadSegment.abandon(connection);
+                    throw new CancellationException(CANCELLED);
+                }
+
+                header.clear();
+                DownloadSegment.receiveFully(connection, header);
+                final byte type = header.get(0);
+                final int first = header.getInt(1);
+                final int second = header.getInt(5);
+
+                if (type == END) {
+                    break;
+                }
+                instructions++;
+
+                if (type == LITERAL) {
+                    if (first <= 0 || first > MAX_LITERAL_SIZE || out.position() + first > fileSize) {
+                        throw new IOException("Wrong literal of " + first + " bytes.");
+                    }
+                    receiveLiteral(out, buffer, first, digest);
+                } else if (type == COPY) {
+                    if (first < 0 || second <= 0 || (long) first + second > blockCount) {
+                        throw new IOException("Wrong block reference " + first + "+" + second + ".");
+                    }
+                    copyBlocks(local, out, buffer, first, second, digest);
+                } else {
+                    throw new IOException("Unknown delta instruction " + type + ".");
+                }
+            }
+
+            if (out.position() != fileSize) {
+                throw new IOException("Built file has " + out.position() + " bytes instead of " + fileSize + ".");
+            }
+        } finally {
+            BufferPool.getInstance().release(buffer);
+        }
+
+        return digest;
+    }
+
+    private void receiveLiteral(FileChannel out, ByteBuffer buffer, int length, StreamingDigest digest) throws IOException {
+        int remaining = length;
+
+        while (remaining > 0) {
+            buffer.clear().limit(Math.min(BUFF_SIZE, remaining));
+            DownloadSegment.receiveFully(connection, buffer);
+            remaining -= buffer.limit();
+
+            write(out, buffer, digest);
+        }
+
+        literalBytes += length;
+    }
+
+    private void copyBlocks(FileChannel local, FileChannel out, ByteBuffer buffer, int first, int count,
+                            StreamingDigest digest) throws IOException {
+        long position = (long) first * blockSize;
+        final long end = Math.min(localSize, (long) (first + count) * blockSize);
+
+        while (position < end) {
+            buffer.clear().limit((int) Math.min(BUFF_SIZE, end - position));
+            readFully(local, buffer, position);
+            position += buffer.limit();
+
+            write(out, buffer, digest);
+            copiedBytes += buffer.limit();
+        }
+    }
+
+    private void write(FileChannel out, ByteBuffer buffer, StreamingDigest digest) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+
+        buffer.rewind();
+        digest.update(buffer);
+        progressListener.accept(buffer.limit());
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Local copy has changed during the download.");
+            }
+        }
+    }
+
+    /**
+     * Weak checksum of rsync. With unsigned bytes x[0..n) it is a + (b << 16), where
+     * a = sum of x[i] and b = sum of (n - i) * x[i], both mod 2^16. The server
+     * rolls it over its file by one byte at a time to find blocks of the signature.
+     *
+     * @param data block
+     * @param length length of the block
+     * @return checksum
+     */
+    static int weakChecksum(byte[] data, int length) {
+        int a = 0;
+        int b = 0;
+
+        for (int i = 0; i < length; i++) {
+            a += data[i] & 0xFF;
+            b += a;
+        }
+
+        return (a & 0xFFFF) | (b << 16);
+    }
+
+    private static MessageDigest createStrongDigest() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 is not supported.", e);
+        }
+    }
+
+    int getBlockSize() {
+        return blockSize;
+    }
+
+    int getBlockCount() {
+        return blockCount;
+    }
+
+    long getLiteralBytes() {
+        return literalBytes;
+    }
+
+    long getCopiedBytes() {
+        return copiedBytes;
+    }
+
+    long getInstructions() {
+        return instructions;
+    }
+}
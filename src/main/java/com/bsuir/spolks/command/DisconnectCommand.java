@@ -3,10 +3,28 @@ package com.bsuir.spolks.command;
 import com.bsuir.spolks.connection.Connection;
 import com.bsuir.spolks.controller.Controller;
 import com.bsuir.spolks.exception.WrongCommandFormatException;
+import com.bsuir.spolks.job.Job;
+import com.bsuir.spolks.job.JobScheduler;
 import org.apache.logging.log4j.Level;
 
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
 class DisconnectCommand extends AbstractCommand {
 
+    /**
+     * Time running jobs have to finish before they are cancelled. The command
+     * holds the input thread, so the user cannot cancel them meanwhile.
+     */
+    private static final long JOB_TIMEOUT = 10;
+
+    /**
+     * Time cancelled jobs have to stop. A job which waits for a stalled
+     * server is ended by closing the connection.
+     */
+    private static final long CANCEL_TIMEOUT = 2;
+
     /**
      * Execute command.
      */
@@ -18,16 +36,30 @@ class DisconnectCommand extends AbstractCommand {
             Connection connection = Controller.getInstance().getConnection();
 
             if(connection != null) {
+                final List<Job> cancelled = cancelJobs();
                 connection.close();
+                awaitStopped(cancelled);
                 LOGGER.log(Level.INFO, "You've been disconnected from server.");
             } else {
+                fail();
                 LOGGER.log(Level.WARN, "You're not connected to server.");
             }
         } catch (WrongCommandFormatException e) {
+            fail();
             LOGGER.log(Level.ERROR, e.getMessage());
         }
     }
 
+    /**
+     * The command changes the connection, so it waits for other commands.
+     *
+     * @return true
+     */
+    @Override
+    public boolean isExclusive() {
+        return true;
+    }
+
     /**
      * Build command instance.
      *
@@ -38,6 +70,76 @@ class DisconnectCommand extends AbstractCommand {
         return new DisconnectCommand();
     }
 
+    /**
+     * Wait for the running jobs, then cancel the ones which are still running.
+     *
+     * @return cancelled jobs which have not stopped yet
+     */
+    private List<Job> cancelJobs() {
+        final JobScheduler scheduler = JobScheduler.getInstance();
+        final List<Job> active = scheduler.getActiveJobs();
+
+        if (active.isEmpty()) {
+            return active;
+        }
+
+        LOGGER.log(Level.INFO, "Waiting " + JOB_TIMEOUT + " s for " + active.size() + " jobs, then they are cancelled.");
+
+        try {
+            if (awaitJobs(active, JOB_TIMEOUT)) {
+                return Collections.emptyList();
+            }
+
+            final List<Job> late = scheduler.getActiveJobs();
+            for (Job job : late) {
+                if (scheduler.cancel(job)) {
+                    LOGGER.log(Level.WARN, "Job " + job.getId() + " is cancelled.");
+                }
+            }
+
+            if (!awaitJobs(late, CANCEL_TIMEOUT)) {
+                return scheduler.getActiveJobs();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * Wait for the cancelled jobs which end with the closed connection.
+     *
+     * @param jobs jobs
+     */
+    private void awaitStopped(List<Job> jobs) {
+        try {
+            if (!awaitJobs(jobs, CANCEL_TIMEOUT)) {
+                LOGGER.log(Level.WARN, "Cancelled jobs have not stopped.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Wait for the jobs.
+     *
+     * @param jobs jobs
+     * @param timeout timeout in seconds for all of them
+     * @return false if the timeout is passed
+     * @throws InterruptedException
+     */
+    private static boolean awaitJobs(List<Job> jobs, long timeout) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeout);
+
+        for (Job job : jobs) {
+            if (!job.await(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     private void checkTokenCount() throws WrongCommandFormatException {
         if(getTokens().size() > 0) {
             throw new WrongCommandFormatException("Command hasn't any tokens. See -help");
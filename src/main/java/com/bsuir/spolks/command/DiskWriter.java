@@ -0,0 +1,323 @@
+package com.bsuir.spolks.command;
+
+import com.bsuir.spolks.buffer.BufferPool;
+import com.bsuir.spolks.util.StreamingDigest;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Write-behind stage of a download. The receive loop fills buffers taken
+ * from a fixed ring and submits them; a writer thread drains the submitted
+ * buffers which follow each other in the file with one gathering write
+ * and marks them in the journal. When all buffers of the ring are waiting
+ * for the disk, take() blocks, so the network is slowed down to the disk.
+ * Both waits are measured: the receive side waiting for a free buffer
+ * and the writer waiting for a filled one. Data which is already in the
+ * file can be queued for the digest between the buffers, so the digest
+ * gets the whole file in order.
+ */
+class DiskWriter implements Closeable {
+
+    private static final int RING_SIZE = 16;
+
+    private static final Block END = new Block(-1, null, 0);
+
+    private final DownloadJournal journal;
+    private final FileChannel fileChannel;
+    private final StreamingDigest digest;
+    private final int bufferSize;
+
+    private final BlockingQueue<ByteBuffer> free = new ArrayBlockingQueue<>(RING_SIZE);
+    /**
+     * Filled buffers, data to hash and the end. Only buffers are bounded by the ring.
+     */
+    private final BlockingQueue<Block> filled = new LinkedBlockingQueue<>();
+    private final Thread thread;
+
+    private volatile IOException failure;
+    private boolean closed;
+
+    private long receiveWaitNanos;
+    private long diskWaitNanos;
+    private long writeCount;
+    private long writtenBytes;
+
+    /**
+     * Create the ring and start the writer thread.
+     *
+     * @param journal journal of the target file
+     * @param digest digest to update with written data in order or null
+     * @param bufferSize size of every buffer of the ring
+     */
+    DiskWriter(DownloadJournal journal, StreamingDigest digest, int bufferSize) {
+        this.journal = journal;
+        this.fileChannel = journal.getChannel();
+        this.digest = digest;
+        this.bufferSize = bufferSize;
+
+        for (int i = 0; i < RING_SIZE; i++) {
+            free.add(BufferPool.getInstance().acquire(bufferSize));
+        }
+
+        thread = new Thread(this::drain, "writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Take a free buffer of the ring, waiting while all of them are queued for the disk.
+     *
+     * @return cleared buffer with the limit set to the buffer size
+     * @throws IOException if a write has failed or the thread is interrupted
+     */
+    ByteBuffer take() throws IOException {
+        checkFailure();
+        ByteBuffer buffer = free.poll();
+
+        if (buffer == null) {
+            final long start = System.nanoTime();
+            try {
+                buffer = free.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Download is interrupted.");
+            }
+            receiveWaitNanos += System.nanoTime() - start;
+            checkFailure();
+        }
+
+        buffer.clear().limit(bufferSize);
+        return buffer;
+    }
+
+    /**
+     * Queue a buffer of the ring for writing. An empty buffer is returned to the ring.
+     *
+     * @param position position of the data in the file
+     * @param buffer buffer got from take(), filled from 0 to its position
+     */
+    void submit(long position, ByteBuffer buffer) {
+        buffer.flip();
+
+        if (buffer.hasRemaining()) {
+            filled.add(new Block(position, buffer, buffer.remaining()));
+        } else {
+            free.add(buffer);
+        }
+    }
+
+    /**
+     * Copy the data into buffers of the ring and queue them for writing.
+     *
+     * @param position position of the data in the file
+     * @param data data, read to its limit
+     * @throws IOException if a write has failed or the thread is interrupted
+     */
+    void write(long position, ByteBuffer data) throws IOException {
+        while (data.hasRemaining()) {
+            ByteBuffer buffer = take();
+            final int count = Math.min(buffer.remaining(), data.remaining());
+
+            ByteBuffer part = data.duplicate();
+            part.limit(part.position() + count);
+            buffer.put(part);
+            data.position(data.position() + count);
+
+            submit(position, buffer);
+            position += count;
+        }
+    }
+
+    /**
+     * Queue hashing of data which is already in the file. It is hashed
+     * after the data queued before it, so the digest keeps the file order.
+     *
+     * @param position position of the data in the file
+     * @param length count of bytes
+     */
+    void hash(long position, long length) {
+        if (digest != null && length > 0) {
+            filled.add(new Block(position, null, length));
+        }
+    }
+
+    /**
+     * Write the queued buffers, stop the writer and return the ring to the pool.
+     *
+     * @throws IOException if a write has failed
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        filled.add(END);
+        boolean interrupted = false;
+
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        ByteBuffer buffer;
+        while ((buffer = free.poll()) != null) {
+            BufferPool.getInstance().release(buffer);
+        }
+
+        checkFailure();
+    }
+
+    /**
+     * Time the receive loop waited for a free buffer.
+     *
+     * @return nanoseconds
+     */
+    long getReceiveWaitNanos() {
+        return receiveWaitNanos;
+    }
+
+    /**
+     * Time the writer waited for received data. Valid after close().
+     *
+     * @return nanoseconds
+     */
+    long getDiskWaitNanos() {
+        return diskWaitNanos;
+    }
+
+    long getWriteCount() {
+        return writeCount;
+    }
+
+    long getWrittenBytes() {
+        return writtenBytes;
+    }
+
+    private void checkFailure() throws IOException {
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Loop of the writer thread. After a failure the buffers are
+     * returned without writing, so the receive loop is not blocked.
+     */
+    private void drain() {
+        final List<Block> batch = new ArrayList<>(RING_SIZE);
+
+        try {
+            while (true) {
+                Block block = filled.poll();
+
+                if (block == null) {
+                    final long start = System.nanoTime();
+                    block = filled.take();
+                    diskWaitNanos += System.nanoTime() - start;
+                }
+
+                if (block == END) {
+                    return;
+                }
+
+                if (block.buffer == null) {
+                    if (failure == null) {
+                        try {
+                            digest.update(fileChannel, block.position, block.length);
+                        } catch (IOException e) {
+                            failure = e;
+                        }
+                    }
+                    continue;
+                }
+
+                batch.add(block);
+                long end = block.position + block.buffer.remaining();
+
+                Block next;
+                while ((next = filled.peek()) != null && next.buffer != null && next.position == end) {
+                    batch.add(filled.poll());
+                    end += next.buffer.remaining();
+                }
+
+                if (failure == null) {
+                    try {
+                        writeBatch(batch);
+                    } catch (IOException e) {
+                        failure = e;
+                    }
+                }
+
+                for (Block written : batch) {
+                    free.add(written.buffer);
+                }
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            failure = new InterruptedIOException("Writer is interrupted.");
+        }
+    }
+
+    private void writeBatch(List<Block> batch) throws IOException {
+        final ByteBuffer[] buffers = new ByteBuffer[batch.size()];
+        long count = 0;
+
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = batch.get(i).buffer;
+            count += buffers[i].remaining();
+        }
+
+        final long position = batch.get(0).position;
+        long written = 0;
+
+        while (written < count) {
+            fileChannel.position(position + written);
+            written += fileChannel.write(buffers);
+        }
+
+        journal.received(position, count);
+        writeCount++;
+        writtenBytes += count;
+
+        if (digest != null) {
+            for (ByteBuffer buffer : buffers) {
+                buffer.rewind();
+                digest.update(buffer);
+            }
+        }
+    }
+
+    /**
+     * Filled buffer and its position in the file, or
+     * data in the file to hash when there is no buffer.
+     */
+    private static final class Block {
+        private final long position;
+        private final ByteBuffer buffer;
+        private final long length;
+
+        Block(long position, ByteBuffer buffer, long length) {
+            this.position = position;
+            this.buffer = buffer;
+            this.length = length;
+        }
+    }
+}
@@ -1,31 +1,72 @@
 package com.bsuir.spolks.command;
 
+import com.bsuir.spolks.buffer.BufferPool;
+import com.bsuir.spolks.compress.CompressionType;
+import com.bsuir.spolks.compress.IDecompressor;
 import com.bsuir.spolks.connection.Connection;
 import com.bsuir.spolks.controller.Controller;
 import com.bsuir.spolks.exception.AvailableTokenNotPresentException;
 import com.bsuir.spolks.exception.WrongCommandFormatException;
+import com.bsuir.spolks.job.Job;
+import com.bsuir.spolks.job.JobScheduler;
+import com.bsuir.spolks.progress.ProgressRenderer;
+import com.bsuir.spolks.progress.TransferProgress;
+import com.bsuir.spolks.stats.Statistics;
 import com.bsuir.spolks.util.Printer;
+import com.bsuir.spolks.util.StreamingDigest;
 import org.apache.logging.log4j.Level;
 
-import java.io.DataOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.LongConsumer;
 
 class DownloadCommand extends AbstractCommand {
-    private static long previousProgress = 0;
-
     private static final String SUCCESS = "success";
-    private static final String GET_PROGRESS = "progress";
+    private static final String CANCELLED = "Download is cancelled.";
+    private static final String DELTA = "delta";
+    private static final String REPLACEMENT = ".part";
 
     private static final int BUFF_SIZE = 65536;
+    private static final long TRANSFER_SIZE = BUFF_SIZE * 16;
+    private static final long MAP_WINDOW_SIZE = 64L * 1024 * 1024;
+    private static final int MAX_STREAMS = 16;
+    private static final int DEFAULT_PRIORITY = 5;
+
+    /**
+     * Times a download goes on over a restored connection.
+     */
+    private static final int MAX_RESUMES = 5;
+
+    private static final int CHUNK_HEADER_SIZE = 8;
+    private static final int MAX_CHUNK_SIZE = 1024 * 1024;
+
+    private Job job;
+    private TransferProgress transfer;
+
+    private CompressionType compression;
+    private long compressedBytes;
+    private long decompressedBytes;
+    private long decompressNanos;
 
     DownloadCommand() {
-        Arrays.stream(AvailableToken.values()).forEach(t -> availableTokens.put(t.getName(), t.getRegex()));
+        super(AvailableToken.values());
     }
 
     /**
@@ -47,10 +88,11 @@ class DownloadCommand extends AbstractCommand {
                     executeHelp();
                     break;
                 default:
-                    executeDownload();
+                    executeScheduled();
                     break;
             }
         } catch (WrongCommandFormatException | AvailableTokenNotPresentException e) {
+            fail();
             LOGGER.log(Level.ERROR, e.getMessage());
         }
     }
@@ -68,8 +110,32 @@ class DownloadCommand extends AbstractCommand {
     private void validateRequired() throws WrongCommandFormatException {
         Map<String, String> tokens = getTokens();
 
-        if (tokens.size() > 2) {
-            throw new WrongCommandFormatException("This command should have only one or two tokens.");
+        if (tokens.containsKey(AvailableToken.ZERO_COPY.getName()) && tokens.containsKey(AvailableToken.MAPPED.getName())) {
+            throw new WrongCommandFormatException("Tokens 'zerocopy' and 'mmap' cannot be used together.");
+        }
+
+        if (tokens.containsKey(AvailableToken.STREAMS.getName()) && tokens.containsKey(AvailableToken.MAPPED.getName())) {
+            throw new WrongCommandFormatException("Tokens 'streams' and 'mmap' cannot be used together.");
+        }
+
+        if (tokens.containsKey(AvailableToken.VERIFY.getName())
+                && (tokens.containsKey(AvailableToken.ZERO_COPY.getName()) || tokens.containsKey(AvailableToken.STREAMS.getName()))) {
+            throw new WrongCommandFormatException("Token 'verify' cannot be used with 'zerocopy' or 'streams'.");
+        }
+
+        if (tokens.containsKey(AvailableToken.COMPRESS.getName()) && (isChannelMode() || tokens.containsKey(AvailableToken.STREAMS.getName()))) {
+            throw new WrongCommandFormatException("Token 'compress' cannot be used with 'zerocopy', 'mmap' or 'streams'.");
+        }
+
+        if (tokens.containsKey(AvailableToken.DELTA.getName()) && (isChannelMode()
+                || tokens.containsKey(AvailableToken.STREAMS.getName()) || tokens.containsKey(AvailableToken.COMPRESS.getName()))) {
+            throw new WrongCommandFormatException("Token 'delta' cannot be used with 'zerocopy', 'mmap', 'streams' or 'compress'.");
+        }
+
+        String streams = tokens.get(AvailableToken.STREAMS.getName());
+        if (AvailableToken.STREAMS.getRule().matches(streams)
+                && (Integer.parseInt(streams) < 1 || Integer.parseInt(streams) > MAX_STREAMS)) {
+            throw new WrongCommandFormatException("Token 'streams' should be from 1 to " + MAX_STREAMS + ".");
         }
 
         if (tokens.containsKey(AvailableToken.HELP.getName())) {
@@ -89,89 +155,827 @@ class DownloadCommand extends AbstractCommand {
 
     private void executeHelp() {
         Printer.println("Command format:");
-        Printer.println("   download -path='path to file' -name='file name' [-help]");
+        Printer.println("   download -path='path to file' -name='file name' [-zerocopy | -mmap | -streams='N'] [-verify]");
+        Printer.println("            [-compress='deflate|snappy' | -delta] [-background] [-priority='0-9'] [-help]");
     }
 
-    private void executeDownload() {
-        Connection connection = Controller.getInstance().getConnection();
+    /**
+     * Queue the download in the job scheduler. A foreground download
+     * waits for its job, a background one returns the job id at once.
+     */
+    private void executeScheduled() {
+        final JobScheduler scheduler = JobScheduler.getInstance();
+        final Job scheduled = scheduler.submit(cmd, getPriority(), this::executeDownload);
 
-        if (connection != null) {
-            if (connection.sendMessage(cmd)) {
-                String[] confirmation = connection.receive().split(" ");
+        if (isBackground()) {
+            LOGGER.log(Level.INFO, "Job " + scheduled.getId() + " is queued.");
+            return;
+        }
+
+        try {
+            scheduled.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            scheduler.cancel(scheduled);
+        }
+
+        if (scheduled.getState() != Job.State.DONE) {
+            fail();
+        }
+    }
+
+    /**
+     * Run the download job. When the connection breaks during the download,
+     * it is restored and the download goes on from the received part of the file.
+     *
+     * @param job job of the download
+     */
+    private void executeDownload(Job job) {
+        this.job = job;
+        final Controller controller = Controller.getInstance();
+        Connection connection = controller.acquireConnection();
 
-                if (SUCCESS.equals(confirmation[0])) {
-                    final long fileSize = Long.parseLong(confirmation[1]);
-                    LOGGER.log(Level.INFO, "File size: " + fileSize + " bytes");
+        if (connection == null) {
+            job.fail();
+            LOGGER.log(Level.WARN, "You're not connected to server.");
+            return;
+        }
+
+        try {
+            int resumes = 0;
+
+            while (!executeDownload(connection)) {
+                if (job.isCancelled() || ++resumes > MAX_RESUMES) {
+                    job.fail();
+                    return;
+                }
+
+                final Connection failed = connection;
+                connection = controller.restoreConnection(failed);
+
+                if (connection == null) {
+                    connection = failed;
+                    job.fail();
+                    return;
+                }
+
+                LOGGER.log(Level.WARN, "Job " + job.getId() + ": download is resumed (" + resumes + " of " + MAX_RESUMES + ").");
+            }
+        } finally {
+            controller.releaseConnection(connection);
+        }
+    }
+
+    /**
+     * Download the file over the connection.
+     *
+     * @param connection opened connection
+     * @return false if the connection has broken and the download can be resumed over a new one
+     */
+    private boolean executeDownload(Connection connection) {
+        final long requestTime = System.nanoTime();
+
+        if (connection.sendCommand(this)) {
+            final String answer = connection.receive();
+            if (answer == null) {
+                return false;
+            }
+
+            String[] confirmation = answer.split(" ");
+
+            if (!SUCCESS.equals(confirmation[0])) {
+                job.fail();
+            } else {
+                final long fileSize = Long.parseLong(confirmation[1]);
+                LOGGER.log(Level.INFO, "File size: " + fileSize + " bytes");
+
+                final File target = new File(getToken(AvailableToken.NAME));
+                File file = target;
+
+                if (hasToken(AvailableToken.DELTA) && DeltaDownload.canUse(target)) {
+                    if (useDelta(confirmation)) {
+                        return executeDeltaDownload(connection, target, fileSize, requestTime);
+                    }
+                    file = new File(target.getPath() + REPLACEMENT);
+                }
+
+                boolean downloaded = false;
+
+                try (DownloadJournal journal = DownloadJournal.open(file, fileSize)) {
+                    compression = negotiateCompression(confirmation);
+
+                    final long progress = journal.getReceivedBytes();
+                    final long startTime = System.nanoTime();
+                    final int streams = getStreams();
+
+                    StreamingDigest digest = null;
+                    if (connection.getChannel() == null && (streams > 1 || isChannelMode())) {
+                        LOGGER.log(Level.WARN, "Multiplexed connection supports only the stream mode.");
+                    }
+
+                    transfer = ProgressRenderer.getInstance().start("#" + job.getId() + " " + target.getName(), fileSize, progress);
+                    job.setTransfer(transfer);
 
                     try {
-                        File file = new File(getTokens().get(AvailableToken.NAME.getName()));
-                        DataOutputStream dataOutputStream = new DataOutputStream(new FileOutputStream(file, true));
-
-                        int progress = (int) file.length();
-                        connection.sendMessage(String.valueOf(progress));
-
-                        List<Object> buffer = new ArrayList<>();
-                        if(connection.receive().equals(GET_PROGRESS)) {
-
-                            long receivedBytes = progress;
-                            byte[] buff = new byte[BUFF_SIZE];
-
-                            int count;
-                            while ((count = connection.receive(buff)) != -1) {
-                                receivedBytes += count;
-                                dataOutputStream.write(buff, 0, count);
-//                                buffer.add(Arrays.copyOfRange(buff, 0, count));
-                                getCurrentProgress(receivedBytes, fileSize);
-
-                                if (receivedBytes == fileSize) {
-                                    break;
-                                }
-                            }
-//
-//                            byte[] item;
-//                            for(int i = 0; i < buffer.size(); i++) {
-//                                item = (byte[]) buffer.get(i);
-//                                dataOutputStream.write(item, 0, item.length);
-//                            }
-                            dataOutputStream.close();
-
-                            System.out.println();
-                            LOGGER.log(Level.INFO, "File is downloaded. Total size: " + receivedBytes + " bytes.");
+                        if (streams > 1 && connection.getChannel() != null && !journal.isCompleted()) {
+                            executeSegmentedDownload(connection, journal, streams);
                         } else {
-                            LOGGER.log(Level.ERROR, "Cannot receive flag to start download");
+                            digest = executeSingleDownload(connection, journal);
                         }
-                    } catch (IOException e) {
-                        LOGGER.log(Level.ERROR, e.getMessage());
+                    } finally {
+                        ProgressRenderer.getInstance().finish(transfer);
+                    }
+
+                    final long endTime = System.nanoTime();
+                    Statistics.getInstance().record(Statistics.DOWNLOAD_TOTAL, endTime - requestTime);
+                    Statistics.getInstance().recordTransfer(journal.getReceivedBytes() - progress, endTime - startTime);
+                    if (journal.getFirstByteTime() != 0) {
+                        Statistics.getInstance().record(Statistics.DOWNLOAD_FIRST_BYTE, journal.getFirstByteTime() - requestTime);
                     }
+
+                    LOGGER.log(Level.INFO, "File is downloaded. Total size: " + journal.getReceivedBytes() + " bytes.");
+                    logSpeed(journal.getReceivedBytes() - progress, endTime - startTime);
+
+                    if (compression != null) {
+                        logCompression(endTime - startTime);
+                    }
+
+                    final boolean verified = digest == null || verifyDigest(connection, digest);
+                    if (!verified) {
+                        job.fail();
+                    }
+                    downloaded = verified && journal.isCompleted();
+                } catch (CancellationException e) {
+                    LOGGER.log(Level.WARN, "Job " + job.getId() + ": " + e.getMessage());
+                } catch (IOException e) {
+                    LOGGER.log(Level.ERROR, e.getMessage());
+
+                    if (connection.isBroken()) {
+                        return false;
+                    }
+                    job.fail();
+                }
+
+                if (downloaded && file != target) {
+                    replace(file, target);
                 }
             }
+        } else if (connection.isBroken()) {
+            return false;
         } else {
-            LOGGER.log(Level.WARN, "You're not connected to server.");
+            job.fail();
+        }
+
+        return true;
+    }
+
+    /**
+     * Download missing ranges of the file one by one over the connection.
+     * Every range after the first one is requested with a new handshake.
+     *
+     * @param connection opened connection which has got the file confirmation
+     * @param journal journal of the target file
+     * @return digest of the file or null if it is not verified
+     * @throws IOException
+     */
+    private StreamingDigest executeSingleDownload(Connection connection, DownloadJournal journal) throws IOException {
+        final long fileSize = journal.getFileSize();
+        List<DownloadJournal.Range> ranges = journal.getMissingRanges();
+
+        if (ranges.isEmpty()) {
+            ranges.add(new DownloadJournal.Range(fileSize, 0));
+        }
+
+        final boolean verify = hasToken(AvailableToken.VERIFY);
+        final StreamingDigest digest = verify ? new StreamingDigest() : null;
+
+        final boolean mapped = hasToken(AvailableToken.MAPPED);
+        final boolean zeroCopy = hasToken(AvailableToken.ZERO_COPY);
+        final boolean writeBehind = compression != null || connection.getChannel() == null || !(mapped || zeroCopy);
+
+        DiskWriter writer = null;
+        if (writeBehind) {
+            writer = new DiskWriter(journal, digest, connection.getTuner().getReadSize());
+        }
+
+        // Ranges come in file order, so the digest takes the chunks which are already
+        // in the file between them and none of the received data is read again.
+        long hashedEnd = 0;
+        long rereadBytes = 0;
+
+        try {
+            ICommand request = null;
+            for (DownloadJournal.Range range : ranges) {
+                if (job.isCancelled()) {
+                    throw new CancellationException(CANCELLED);
+                }
+
+                if (verify) {
+                    rereadBytes += hashPresent(journal, writer, digest, hashedEnd, range.getOffset());
+                    hashedEnd = range.getEnd();
+                }
+
+                DownloadSegment.request(connection, request, range, fileSize);
+                request = this;
+
+                if (compression != null) {
+                    receiveCompressed(connection, writer, range);
+                } else if (writeBehind) {
+                    receiveByStream(connection, writer, range);
+                } else if (mapped) {
+                    receiveByMapping(connection, journal, range, digest);
+                } else {
+                    receiveByChannel(connection, journal, range);
+                }
+
+                if (verify && range != ranges.get(ranges.size() - 1)) {
+                    connection.receive();
+                }
+            }
+
+            if (verify) {
+                rereadBytes += hashPresent(journal, writer, digest, hashedEnd, fileSize);
+            }
+        } finally {
+            if (writer != null) {
+                writer.close();
+                logWriteBehind(writer);
+            }
+        }
+
+        if (rereadBytes > 0) {
+            LOGGER.log(Level.INFO, "Digest: " + rereadBytes + " bytes present before the download are read again.");
+        }
+
+        return digest;
+    }
+
+    /**
+     * Hash data which is already in the file before the next received range.
+     * With write-behind the writer hashes it after the data queued before it.
+     *
+     * @param journal journal of the target file
+     * @param writer writer or null if data is written by the receive loop
+     * @param digest digest of the file
+     * @param start first byte to hash
+     * @param end byte after the data
+     * @return count of bytes to hash
+     * @throws IOException
+     */
+    private static long hashPresent(DownloadJournal journal, DiskWriter writer, StreamingDigest digest, long start, long end)
+            throws IOException {
+        if (end <= start) {
+            return 0;
+        }
+
+        if (writer != null) {
+            writer.hash(start, end - start);
+        } else {
+            digest.update(journal.getChannel(), start, end - start);
+        }
+
+        return end - start;
+    }
+
+    /**
+     * Split missing ranges of the file between several connections
+     * and download them in parallel. Every connection takes its
+     * next range when the previous one is done.
+     *
+     * @param connection opened connection which has got the file confirmation
+     * @param journal journal of the target file
+     * @param streams count of connections
+     * @throws IOException
+     */
+    private void executeSegmentedDownload(Connection connection, DownloadJournal journal, int streams) throws IOException {
+        final long fileSize = journal.getFileSize();
+        final Queue<DownloadJournal.Range> ranges = new ConcurrentLinkedQueue<>(journal.getMissingRanges(streams));
+        final LongConsumer progressListener = transfer::add;
+
+        List<Connection> connections = new ArrayList<>();
+        List<Callable<Long>> workers = new ArrayList<>();
+
+        try {
+            // All connections are opened before the first range is requested, so a connection
+            // which cannot be opened only lowers the count of streams.
+            while (connections.size() + 1 < Math.min(streams, ranges.size())) {
+                try {
+                    connections.add(openSegmentConnection(connection));
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARN, "Only " + (connections.size() + 1) + " streams are opened. " + e.getMessage());
+                    break;
+                }
+            }
+            connections.add(0, connection);
+
+            for (Connection workerConnection : connections) {
+                final DownloadJournal.Range first = ranges.poll();
+
+                workers.add(() -> {
+                    long receivedBytes = new DownloadSegment(workerConnection, null, first, journal, job, progressListener).call();
+
+                    DownloadJournal.Range range;
+                    while (!job.isCancelled() && (range = ranges.poll()) != null) {
+                        receivedBytes += new DownloadSegment(workerConnection, this, range, journal, job, progressListener).call();
+                    }
+
+                    return receivedBytes;
+                });
+            }
+
+            ExecutorService executor = Executors.newFixedThreadPool(workers.size());
+
+            try {
+                for (Future<Long> future : executor.invokeAll(workers)) {
+                    future.get();
+                }
+                if (job.isCancelled()) {
+                    throw new CancellationException(CANCELLED);
+                }
+                LOGGER.log(Level.INFO, "Used " + workers.size() + " streams.");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Download is interrupted.");
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof CancellationException) {
+                    throw (CancellationException) e.getCause();
+                }
+                // Segments are requested again over new connections when the download is resumed.
+                if (connections.stream().anyMatch(c -> c != connection && c.isBroken())) {
+                    connection.markBroken();
+                }
+                throw new IOException("Segment download failed. " + e.getCause().getMessage());
+            } finally {
+                executor.shutdown();
+            }
+        } finally {
+            for (Connection c : connections) {
+                if (c != connection) {
+                    c.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * Open one more connection to the server and request the same file.
+     *
+     * @param connection main connection, its protocol is used for the new one
+     * @return connection which has got the file confirmation
+     * @throws IOException
+     */
+    private Connection openSegmentConnection(Connection connection) throws IOException {
+        Connection segmentConnection = new Connection(connection.getServerIP());
+        segmentConnection.setClientId(connection.getClientId());
+
+        if (!segmentConnection.connect()) {
+            throw new IOException("Cannot open connection for a segment.");
+        }
+
+        if (connection.isBinary() && !segmentConnection.enableBinaryProtocol()) {
+            segmentConnection.release();
+            throw new IOException("Cannot enable the binary protocol for a segment.");
         }
+
+        final String confirmation = segmentConnection.sendCommand(this) ? segmentConnection.receive() : null;
+        if (confirmation == null || !confirmation.startsWith(SUCCESS)) {
+            segmentConnection.release();
+            throw new IOException("Server does not confirm the segment request.");
+        }
+
+        return segmentConnection;
     }
 
+    /**
+     * Stop the transfer if the job is cancelled. The rest of the range is
+     * not read, the shared connection is dropped instead.
+     *
+     * @param connection connection which receives the range
+     */
+    private void checkCancelled(Connection connection) {
+        if (job.isCancelled()) {
+            DownloadSegment.abandon(connection);
+            throw new CancellationException(CANCELLED);
+        }
+    }
+
+    /**
+     * Get the codec the server has chosen for the requested compression.
+     * The server names it after the file size. A server which cannot
+     * compress answers without it and sends the file as is.
+     *
+     * @param confirmation words of the server confirmation
+     * @return codec or null if the file is not compressed
+     * @throws IOException if the server has chosen an unknown codec
+     */
+    private CompressionType negotiateCompression(String[] confirmation) throws IOException {
+        final String requested = getToken(AvailableToken.COMPRESS);
+
+        if (requested == null) {
+            return null;
+        }
 
-    private void getCurrentProgress(long length, long size) {
-        long currentProgress = (length * 100 / size);
-        if (currentProgress % 1 == 0 && currentProgress != previousProgress) {
-            System.out.print('\r');
-            System.out.print("Progress: " + currentProgress + "%");
-            previousProgress = currentProgress;
+        if (confirmation.length < 3) {
+            LOGGER.log(Level.WARN, "Server does not support '" + requested + "' compression, the file is sent as is.");
+            return null;
         }
+
+        CompressionType type = CompressionType.find(confirmation[2]);
+        if (type == null) {
+            throw new IOException("Server has chosen unknown compression '" + confirmation[2] + "'.");
+        }
+
+        LOGGER.log(Level.INFO, "Compression: " + type.getName());
+        return type;
+    }
+
+    /**
+     * Check if the file is downloaded as a delta. The server names "delta"
+     * after the file size when it can send one. When it cannot, the whole
+     * file is downloaded next to the local copy and replaces it when it is complete.
+     *
+     * @param confirmation words of the server confirmation
+     * @return boolean
+     */
+    private boolean useDelta(String[] confirmation) {
+        if (confirmation.length > 2 && DELTA.equals(confirmation[2])) {
+            return true;
+        }
+
+        LOGGER.log(Level.WARN, "Server does not support delta downloads, the whole file is downloaded.");
+        return false;
+    }
+
+    /**
+     * Move the downloaded file over the local copy.
+     *
+     * @param file downloaded file
+     * @param target local copy
+     */
+    private void replace(File file, File target) {
+        try {
+            Files.move(file.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOGGER.log(Level.ERROR, "Cannot replace " + target.getPath() + ": " + e.getMessage()
+                    + ". The new version is kept in " + file.getPath());
+            job.fail();
+        }
+    }
+
+    /**
+     * Download the changes of the file against its local copy.
+     *
+     * @param connection connection which has got the file confirmation
+     * @param file local copy
+     * @param fileSize size of the new version
+     * @param requestTime time of the request
+     * @return false if the connection has broken and the download can be resumed over a new one
+     */
+    private boolean executeDeltaDownload(Connection connection, File file, long fileSize, long requestTime) {
+        transfer = ProgressRenderer.getInstance().start("#" + job.getId() + " " + file.getName(), fileSize, 0);
+        job.setTransfer(transfer);
+
+        final long bytesIn = connection.getBytesIn();
+        final long bytesOut = connection.getBytesOut();
+        final DeltaDownload delta = new DeltaDownload(connection, file, job, transfer::add);
+
+        try {
+            delta.execute(fileSize);
+        } catch (CancellationException e) {
+            LOGGER.log(Level.WARN, "Job " + job.getId() + ": " + e.getMessage());
+            return true;
+        } catch (IOException e) {
+            LOGGER.log(Level.ERROR, e.getMessage());
+
+            if (connection.isBroken()) {
+                return false;
+            }
+            job.fail();
+            return true;
+        } finally {
+            ProgressRenderer.getInstance().finish(transfer);
+        }
+
+        final long nanos = System.nanoTime() - requestTime;
+        final long received = connection.getBytesIn() - bytesIn;
+        Statistics.getInstance().record(Statistics.DOWNLOAD_TOTAL, nanos);
+        Statistics.getInstance().recordTransfer(received, nanos);
+
+        LOGGER.log(Level.INFO, "File is downloaded. Total size: " + fileSize + " bytes.");
+        LOGGER.log(Level.INFO, String.format("Delta: %d bytes copied from the local copy, %d literal bytes in %d instructions, "
+                        + "signature of %d blocks of %d bytes.", delta.getCopiedBytes(), delta.getLiteralBytes(),
+                delta.getInstructions(), delta.getBlockCount(), delta.getBlockSize()));
+        LOGGER.log(Level.INFO, String.format("Delta: %d bytes received and %d bytes sent for %d bytes, %.1f%% of the full transfer.",
+                received, connection.getBytesOut() - bytesOut, fileSize,
+                fileSize > 0 ? 100.0 * received / fileSize : 0));
+        return true;
+    }
+
+    private boolean isBackground() {
+        return hasToken(AvailableToken.BACKGROUND);
+    }
+
+    private int getPriority() {
+        String value = getToken(AvailableToken.PRIORITY);
+        return value == null ? DEFAULT_PRIORITY : Integer.parseInt(value);
+    }
+
+    private boolean isChannelMode() {
+        return hasToken(AvailableToken.MAPPED) || hasToken(AvailableToken.ZERO_COPY);
+    }
+
+    private int getStreams() {
+        String value = getToken(AvailableToken.STREAMS);
+        return value == null ? 1 : Integer.parseInt(value);
+    }
+
+    /**
+     * Receive the range into buffers of the writer ring. A buffer is
+     * handed to the writer when it is full or the range is over, so the
+     * disk gets large writes while the next buffer is being received.
+     *
+     * @param connection opened connection
+     * @param writer write-behind stage of the target file
+     * @param range range of the file
+     * @throws IOException
+     */
+    private void receiveByStream(Connection connection, DiskWriter writer, DownloadJournal.Range range) throws IOException {
+        long position = range.getOffset();
+
+        while (position < range.getEnd()) {
+            ByteBuffer buffer = writer.take();
+            if (buffer.remaining() > range.getEnd() - position) {
+                buffer.limit((int) (range.getEnd() - position));
+            }
+
+            try {
+                while (buffer.hasRemaining()) {
+                    checkCancelled(connection);
+                    int count = connection.receive(buffer);
+
+                    if (count <= 0) {
+                        throw new IOException("Connection is closed before the end of file.");
+                    }
+                    transfer.add(count);
+                }
+            } finally {
+                final int count = buffer.position();
+                writer.submit(position, buffer);
+                position += count;
+            }
+        }
+    }
+
+    /**
+     * Receive the range as compressed chunks and write the raw data to the file.
+     * Every chunk is [int compressed length][int raw length][compressed bytes].
+     * A cancelled range is read to its end without decompression.
+     *
+     * @param connection opened connection
+     * @param writer write-behind stage of the target file
+     * @param range range of the file
+     * @throws IOException
+     */
+    private void receiveCompressed(Connection connection, DiskWriter writer, DownloadJournal.Range range) throws IOException {
+        final BufferPool pool = BufferPool.getInstance();
+        final IDecompressor decompressor = compression.createDecompressor();
+
+        final ByteBuffer header = pool.acquireHeap(CHUNK_HEADER_SIZE);
+        ByteBuffer chunk = pool.acquireHeap(BUFF_SIZE);
+        ByteBuffer raw = pool.acquireHeap(BUFF_SIZE);
+
+        try {
+            long position = range.getOffset();
+
+            while (position < range.getEnd()) {
+                checkCancelled(connection);
+
+                header.clear().limit(CHUNK_HEADER_SIZE);
+                DownloadSegment.receiveFully(connection, header);
+
+                final int compressedLength = header.getInt(0);
+                final int rawLength = header.getInt(4);
+
+                if (compressedLength <= 0 || compressedLength > 2 * MAX_CHUNK_SIZE
+                        || rawLength <= 0 || rawLength > MAX_CHUNK_SIZE || rawLength > range.getEnd() - position) {
+                    throw new IOException("Wrong compressed chunk: " + compressedLength + " bytes for " + rawLength + " bytes.");
+                }
+
+                chunk = ensureCapacity(chunk, compressedLength);
+                DownloadSegment.receiveFully(connection, chunk);
+                compressedBytes += CHUNK_HEADER_SIZE + compressedLength;
+
+                raw = ensureCapacity(raw, rawLength);
+                chunk.flip();
+
+                final long start = System.nanoTime();
+                decompressor.decompress(chunk, raw);
+                decompressNanos += System.nanoTime() - start;
+
+                if (raw.hasRemaining()) {
+                    throw new IOException("Compressed chunk is shorter than its raw length " + rawLength + ".");
+                }
+
+                raw.flip();
+                writer.write(position, raw);
+                decompressedBytes += rawLength;
+                transfer.add(rawLength);
+
+                position += rawLength;
+            }
+        } finally {
+            decompressor.close();
+            pool.release(header);
+            pool.release(chunk);
+            pool.release(raw);
+        }
+    }
+
+    /**
+     * Get a pooled buffer which holds the size, the given one is released if it is too small.
+     *
+     * @param buffer pooled heap buffer
+     * @param size count of bytes
+     * @return buffer with the limit set to the size
+     */
+    private static ByteBuffer ensureCapacity(ByteBuffer buffer, int size) {
+        if (buffer.capacity() >= size) {
+            buffer.clear().limit(size);
+            return buffer;
+        }
+
+        BufferPool.getInstance().release(buffer);
+        return BufferPool.getInstance().acquireHeap(size);
+    }
+
+    /**
+     * Receive the range straight from the socket channel
+     * into the file channel without the heap buffer.
+     *
+     * @param connection opened connection
+     * @param journal journal of the target file
+     * @param range range of the file
+     * @throws IOException
+     */
+    private void receiveByChannel(Connection connection, DownloadJournal journal, DownloadJournal.Range range) throws IOException {
+        final FileChannel fileChannel = journal.getChannel();
+        final SocketChannel socketChannel = connection.getChannel();
+
+        long position = range.getOffset();
+        while (position < range.getEnd()) {
+            checkCancelled(connection);
+            long count;
+
+            try {
+                count = fileChannel.transferFrom(socketChannel, position, Math.min(TRANSFER_SIZE, range.getEnd() - position));
+            } catch (IOException e) {
+                connection.markBroken();
+                throw e;
+            }
+
+            if (count <= 0) {
+                connection.markBroken();
+                throw new IOException("Connection is closed before the end of file.");
+            }
+
+            connection.addBytesIn(count);
+            journal.received(position, count);
+            position += count;
+            transfer.add(count);
+        }
+    }
+
+    /**
+     * Receive the range into a memory-mapped window
+     * which slides across the preallocated file.
+     *
+     * @param connection opened connection
+     * @param journal journal of the target file
+     * @param range range of the file
+     * @param digest digest to update with received data or null
+     * @throws IOException
+     */
+    private void receiveByMapping(Connection connection, DownloadJournal journal, DownloadJournal.Range range,
+                                  StreamingDigest digest) throws IOException {
+        final FileChannel fileChannel = journal.getChannel();
+        final SocketChannel socketChannel = connection.getChannel();
+
+        long position = range.getOffset();
+        while (position < range.getEnd()) {
+            MappedByteBuffer window = fileChannel.map(FileChannel.MapMode.READ_WRITE, position,
+                    Math.min(MAP_WINDOW_SIZE, range.getEnd() - position));
+
+            while (window.hasRemaining()) {
+                checkCancelled(connection);
+                int count;
+
+                try {
+                    count = socketChannel.read(window);
+                } catch (IOException e) {
+                    connection.markBroken();
+                    throw e;
+                }
+
+                if (count == -1) {
+                    connection.markBroken();
+                    throw new IOException("Connection is closed before the end of file.");
+                }
+
+                connection.addBytesIn(count);
+                journal.received(position, count);
+                position += count;
+                transfer.add(count);
+            }
+
+            if (digest != null) {
+                window.flip();
+                digest.update(window);
+            }
+        }
+    }
+
+    /**
+     * Compare the digest of the received file with the one the server sends after the data.
+     *
+     * @param connection opened connection
+     * @param digest digest of the whole file
+     * @return true if the digests match
+     */
+    private boolean verifyDigest(Connection connection, StreamingDigest digest) {
+        final String expected = connection.receive();
+        final String actual = digest.toHex();
+        final boolean verified = actual.equalsIgnoreCase(expected);
+
+        if (verified) {
+            LOGGER.log(Level.INFO, "SHA-256 is verified: " + actual);
+        } else {
+            LOGGER.log(Level.ERROR, "SHA-256 mismatch. Expected: " + expected + ", actual: " + actual);
+        }
+
+        final long nanos = digest.getHashingNanos();
+        final long speed = nanos > 0 ? (long) (digest.getHashedBytes() * 1e9 / nanos) : digest.getHashedBytes();
+        LOGGER.log(Level.INFO, "Hashed " + digest.getHashedBytes() + " bytes in " + (nanos / 1000000) + " ms. Speed: " + speed + " bytes/s");
+        return verified;
+    }
+
+    /**
+     * Log and record how the write-behind stage has overlapped network and disk.
+     *
+     * @param writer closed writer
+     */
+    private static void logWriteBehind(DiskWriter writer) {
+        Statistics.getInstance().recordWriteBehind(writer.getWrittenBytes(), writer.getWriteCount(),
+                writer.getReceiveWaitNanos(), writer.getDiskWaitNanos());
+
+        final long average = writer.getWriteCount() > 0 ? writer.getWrittenBytes() / writer.getWriteCount() : 0;
+        LOGGER.log(Level.INFO, String.format("Write-behind: %d writes, %d bytes on average. Receive waited %d ms for the disk, "
+                        + "disk waited %d ms for the network.", writer.getWriteCount(), average,
+                writer.getReceiveWaitNanos() / 1000000, writer.getDiskWaitNanos() / 1000000));
+    }
+
+    private void logSpeed(long bytes, long nanos) {
+        final long speed = nanos > 0 ? (long) (bytes * 1e9 / nanos) : bytes;
+        LOGGER.log(Level.INFO, "Received " + bytes + " bytes in " + (nanos / 1000000) + " ms. Speed: " + speed + " bytes/s");
+    }
+
+    /**
+     * Log compressed and raw bytes of the download. On a link which limits
+     * the transfer the file comes faster by the compression ratio.
+     *
+     * @param nanos duration of the transfer
+     */
+    private void logCompression(long nanos) {
+        Statistics.getInstance().recordCompression(compressedBytes, decompressedBytes);
+
+        final double ratio = compressedBytes > 0 ? (double) decompressedBytes / compressedBytes : 1;
+        final long wireSpeed = nanos > 0 ? (long) (compressedBytes * 1e9 / nanos) : compressedBytes;
+        final long speed = nanos > 0 ? (long) (decompressedBytes * 1e9 / nanos) : decompressedBytes;
+
+        LOGGER.log(Level.INFO, String.format("Compressed %d bytes to %d bytes with %s, ratio %.2f. Decompressed in %d ms.",
+                decompressedBytes, compressedBytes, compression.getName(), ratio, decompressNanos / 1000000));
+        LOGGER.log(Level.INFO, "Wire speed: " + wireSpeed + " bytes/s, effective speed: " + speed + " bytes/s.");
     }
 
-    private enum AvailableToken {
-        PATH("path", "^[\\w .-:\\\\]+$", true),
-        NAME("name", "^[\\w .-:\\\\]+$", true),
+    private enum AvailableToken implements IToken {
+        PATH("path", TokenRule.TEXT, true),
+        NAME("name", TokenRule.TEXT, true),
+        ZERO_COPY("zerocopy", null, false),
+        MAPPED("mmap", null, false),
+        STREAMS("streams", TokenRule.digits(2), false),
+        VERIFY("verify", null, false),
+        BACKGROUND("background", null, false),
+        PRIORITY("priority", TokenRule.digits(1), false),
+        COMPRESS("compress", TokenRule.oneOf("deflate", "snappy"), false),
+        DELTA("delta", null, false),
         HELP("help", null, false);
 
         private String name;
-        private String regex;
+        private TokenRule rule;
         private boolean required;
 
-        AvailableToken(String name, String regex, boolean required) {
+        AvailableToken(String name, TokenRule rule, boolean required) {
             this.name = name;
-            this.regex = regex;
+            this.rule = rule;
             this.required = required;
         }
 
@@ -189,8 +993,9 @@ class DownloadCommand extends AbstractCommand {
             return name;
         }
 
-        public String getRegex() {
-            return regex;
+        @Override
+        public TokenRule getRule() {
+            return rule;
         }
 
         public boolean isRequired() {
@@ -0,0 +1,308 @@
+package com.bsuir.spolks.command;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Sidecar journal of a download. The target file is split into
+ * fixed-size chunks and the journal keeps a bitmap of completed ones.
+ * A chunk gets into the journal only after the target file has been
+ * synced, so after a crash only missing or unsynced chunks are requested again.
+ */
+class DownloadJournal implements Closeable {
+
+    private static final String EXTENSION = ".journal";
+
+    private static final int MAGIC = 0x444A524E;
+    private static final int HEADER_SIZE = 4 + 8 + 4;
+
+    private static final int CHUNK_SIZE = 1024 * 1024;
+    private static final long SYNC_INTERVAL = 1000000000L;
+
+    private final File journalFile;
+    private final RandomAccessFile target;
+    private final RandomAccessFile journal;
+
+    private final long fileSize;
+    private final int chunkCount;
+
+    private final BitSet completed;
+    private final int[] chunkBytes;
+
+    private long receivedBytes;
+    private long lastSync;
+    private long firstByteTime;
+
+    private DownloadJournal(File file, long fileSize) throws IOException {
+        this.journalFile = new File(file.getPath() + EXTENSION);
+        this.fileSize = fileSize;
+        this.chunkCount = (int) ((fileSize + CHUNK_SIZE - 1) / CHUNK_SIZE);
+        this.completed = new BitSet(chunkCount);
+        this.chunkBytes = new int[chunkCount];
+
+        final boolean journaled = journalFile.exists();
+        final long presentBytes = Math.min(file.length(), fileSize);
+
+        this.target = new RandomAccessFile(file, "rw");
+        this.journal = new RandomAccessFile(journalFile, "rw");
+
+        if (journaled && file.length() == fileSize && readBitmap()) {
+            for (int i = completed.nextSetBit(0); i >= 0; i = completed.nextSetBit(i + 1)) {
+                receivedBytes += getChunkLength(i);
+            }
+        } else {
+            completed.clear();
+
+            // A file without a journal is trusted up to its last whole chunk. A journal which
+            // cannot be read or is written for another size means nothing of the preallocated file is known.
+            if (!journaled) {
+                for (int i = 0; i < presentBytes / CHUNK_SIZE; i++) {
+                    completed.set(i);
+                    receivedBytes += CHUNK_SIZE;
+                }
+                if (presentBytes == fileSize && chunkCount > 0) {
+                    completed.set(chunkCount - 1);
+                    receivedBytes = fileSize;
+                }
+            }
+
+            target.setLength(fileSize);
+            writeBitmap();
+        }
+
+        lastSync = System.nanoTime();
+    }
+
+    /**
+     * Open the journal of the file or create a new one.
+     *
+     * @param file target file
+     * @param fileSize size announced by the server
+     * @return journal
+     * @throws IOException
+     */
+    static DownloadJournal open(File file, long fileSize) throws IOException {
+        return new DownloadJournal(file, fileSize);
+    }
+
+    /**
+     * Check if the file has a journal, i.e. its download is not completed.
+     *
+     * @param file target file
+     * @return boolean
+     */
+    static boolean exists(File file) {
+        return new File(file.getPath() + EXTENSION).exists();
+    }
+
+    /**
+     * Get channel of the target file to write received data to.
+     *
+     * @return file channel
+     */
+    FileChannel getChannel() {
+        return target.getChannel();
+    }
+
+    /**
+     * Get runs of chunks which are not completed yet.
+     *
+     * @return ranges ordered by offset
+     */
+    List<Range> getMissingRanges() {
+        return getMissingRanges(1);
+    }
+
+    /**
+     * Get runs of chunks which are not completed yet, split
+     * into about the given count of chunk-aligned parts.
+     *
+     * @param parts count of parts
+     * @return ranges ordered by offset
+     */
+    synchronized List<Range> getMissingRanges(int parts) {
+        long missingBytes = fileSize - receivedBytes;
+        long partSize = (missingBytes + parts - 1) / parts;
+        partSize = Math.max(CHUNK_SIZE, (partSize + CHUNK_SIZE - 1) / CHUNK_SIZE * CHUNK_SIZE);
+
+        List<Range> ranges = new ArrayList<>();
+
+        int start = completed.nextClearBit(0);
+        while (start < chunkCount) {
+            int end = completed.nextSetBit(start);
+            if (end < 0) {
+                end = chunkCount;
+            }
+
+            final long rangeEnd = Math.min((long) end * CHUNK_SIZE, fileSize);
+            for (long offset = (long) start * CHUNK_SIZE; offset < rangeEnd; offset += partSize) {
+                ranges.add(new Range(offset, Math.min(partSize, rangeEnd - offset)));
+            }
+            start = completed.nextClearBit(end);
+        }
+
+        return ranges;
+    }
+
+    /**
+     * Account bytes which are written to the target file.
+     * The journal is synced when the sync interval is passed.
+     *
+     * @param position offset of the first written byte
+     * @param count count of written bytes
+     * @throws IOException
+     */
+    synchronized void received(long position, long count) throws IOException {
+        if (firstByteTime == 0) {
+            firstByteTime = System.nanoTime();
+        }
+        receivedBytes += count;
+
+        while (count > 0) {
+            final int chunk = (int) (position / CHUNK_SIZE);
+            final int part = (int) Math.min(count, (long) (chunk + 1) * CHUNK_SIZE - position);
+
+            chunkBytes[chunk] += part;
+            if (chunkBytes[chunk] == getChunkLength(chunk)) {
+                completed.set(chunk);
+            }
+
+            position += part;
+            count -= part;
+        }
+
+        if (System.nanoTime() - lastSync > SYNC_INTERVAL) {
+            sync();
+        }
+    }
+
+    /**
+     * Sync the target file and then store the completed chunks.
+     *
+     * @throws IOException
+     */
+    synchronized void sync() throws IOException {
+        target.getChannel().force(false);
+        writeBitmap();
+        journal.getChannel().force(false);
+        lastSync = System.nanoTime();
+    }
+
+    /**
+     * Check if all chunks are completed.
+     *
+     * @return boolean
+     */
+    synchronized boolean isCompleted() {
+        return completed.cardinality() == chunkCount;
+    }
+
+    /**
+     * Get count of bytes which are present in the target file.
+     *
+     * @return received bytes
+     */
+    synchronized long getReceivedBytes() {
+        return receivedBytes;
+    }
+
+    /**
+     * Get time when the first data has been received.
+     *
+     * @return value of System.nanoTime() or 0 if nothing is received
+     */
+    synchronized long getFirstByteTime() {
+        return firstByteTime;
+    }
+
+    long getFileSize() {
+        return fileSize;
+    }
+
+    /**
+     * Close the files. The journal is removed when the download is completed.
+     *
+     * @throws IOException
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            sync();
+        } finally {
+            journal.close();
+            target.close();
+        }
+
+        if (isCompleted() && !journalFile.delete()) {
+            throw new IOException("Cannot delete journal " + journalFile.getPath());
+        }
+    }
+
+    private boolean readBitmap() throws IOException {
+        if (journal.length() != HEADER_SIZE + getBitmapSize()) {
+            return false;
+        }
+
+        journal.seek(0);
+        if (journal.readInt() != MAGIC || journal.readLong() != fileSize || journal.readInt() != CHUNK_SIZE) {
+            return false;
+        }
+
+        byte[] bitmap = new byte[getBitmapSize()];
+        journal.readFully(bitmap);
+        completed.or(BitSet.valueOf(bitmap));
+        return true;
+    }
+
+    private void writeBitmap() throws IOException {
+        byte[] bitmap = new byte[getBitmapSize()];
+        byte[] bits = completed.toByteArray();
+        System.arraycopy(bits, 0, bitmap, 0, bits.length);
+
+        journal.seek(0);
+        journal.writeInt(MAGIC);
+        journal.writeLong(fileSize);
+        journal.writeInt(CHUNK_SIZE);
+        journal.write(bitmap);
+        journal.setLength(HEADER_SIZE + bitmap.length);
+    }
+
+    private int getBitmapSize() {
+        return (chunkCount + 7) / 8;
+    }
+
+    private long getChunkLength(int chunk) {
+        return Math.min(CHUNK_SIZE, fileSize - (long) chunk * CHUNK_SIZE);
+    }
+
+    /**
+     * Byte range of the target file.
+     */
+    static class Range {
+        private final long offset;
+        private final long length;
+
+        Range(long offset, long length) {
+            this.offset = offset;
+            this.length = length;
+        }
+
+        long getOffset() {
+            return offset;
+        }
+
+        long getLength() {
+            return length;
+        }
+
+        long getEnd() {
+            return offset + length;
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.bsuir.spolks.command;
+
+import com.bsuir.spolks.buffer.BufferPool;
+import com.bsuir.spolks.connection.Connection;
+import com.bsuir.spolks.controller.Controller;
+import com.bsuir.spolks.job.Job;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.function.LongConsumer;
+
+/**
+ * Downloads one byte range of a file over a connection
+ * and writes it into the target file at its offset.
+ */
+class DownloadSegment implements Callable<Long> {
+
+    private static final String SUCCESS = "success";
+    private static final String GET_PROGRESS = "progress";
+
+    private static final long TRANSFER_SIZE = 1024 * 1024;
+    private static final int SKIP_BUFF_SIZE = 65536;
+
+    private final Connection connection;
+    private final ICommand command;
+    private final DownloadJournal.Range range;
+    private final DownloadJournal journal;
+    private final Job job;
+    private final LongConsumer progressListener;
+
+    /**
+     * Constructor.
+     *
+     * @param connection opened connection
+     * @param command download command to send first or null if the file is already confirmed
+     * @param range range of the file
+     * @param journal journal of the target file
+     * @param job job of the download, the segment stops when it is cancelled
+     * @param progressListener gets count of bytes of every received part
+     */
+    DownloadSegment(Connection connection, ICommand command, DownloadJournal.Range range, DownloadJournal journal,
+                    Job job, LongConsumer progressListener) {
+        this.connection = connection;
+        this.command = command;
+        this.range = range;
+        this.journal = journal;
+        this.job = job;
+        this.progressListener = progressListener;
+    }
+
+    /**
+     * Request the range and receive it.
+     *
+     * @return count of received bytes
+     * @throws IOException
+     */
+    @Override
+    public Long call() throws IOException {
+        request(connection, command, range, journal.getFileSize());
+
+        final FileChannel fileChannel = journal.getChannel();
+        long receivedBytes = 0;
+
+        while (receivedBytes < range.getLength()) {
+            if (job.isCancelled()) {
+                abandon(connection);
+                throw new CancellationException("Download is cancelled.");
+            }
+
+            final long position = range.getOffset() + receivedBytes;
+            long count;
+
+            try {
+                count = fileChannel.transferFrom(connection.getChannel(), position,
+                        Math.min(TRANSFER_SIZE, range.getLength() - receivedBytes));
+            } catch (IOException e) {
+                connection.markBroken();
+                throw e;
+            }
+
+            if (count <= 0) {
+                connection.markBroken();
+                throw new IOException("Connection is closed before the end of range " + range.getOffset() + "+" + range.getLength());
+            }
+
+            receivedBytes += count;
+            connection.addBytesIn(count);
+            journal.received(position, count);
+            progressListener.accept(count);
+        }
+
+        return receivedBytes;
+    }
+
+    /**
+     * Make the download handshake for the range. A range which lasts
+     * to the end of file is requested by its offset only, as before.
+     *
+     * @param connection opened connection
+     * @param command download command to send first or null if the file is already confirmed
+     * @param range range of the file
+     * @param fileSize full size of the file
+     * @throws IOException
+     */
+    static void request(Connection connection, ICommand command, DownloadJournal.Range range, long fileSize) throws IOException {
+        if (command != null) {
+            String confirmation = connection.sendCommand(command) ? connection.receive() : null;
+
+            if (confirmation == null || !confirmation.startsWith(SUCCESS)) {
+                throw new IOException("Server does not confirm the download request.");
+            }
+        }
+
+        final String message = range.getEnd() == fileSize
+                ? String.valueOf(range.getOffset())
+                : range.getOffset() + " " + range.getLength();
+
+        if (!connection.sendMessage(message) || !GET_PROGRESS.equals(connection.receive())) {
+            throw new IOException("Cannot receive flag to start download of range " + range.getOffset() + "+" + range.getLength());
+        }
+    }
+
+    /**
+     * Check if the connection is the main connection of the controller,
+     * which is used by next commands after the download.
+     *
+     * @param connection connection
+     * @return boolean
+     */
+    static boolean isShared(Connection connection) {
+        return !connection.isMultiplexed() && connection == Controller.getInstance().getConnection();
+    }
+
+    /**
+     * Drop the shared connection in the middle of a cancelled transfer. The rest
+     * of the data is not read: the connection is marked broken and closed, and
+     * the controller opens a new one for the next command. Other connections
+     * are released by their owners.
+     *
+     * @param connection connection which receives the cancelled data
+     */
+    static void abandon(Connection connection) {
+        if (isShared(connection)) {
+            connection.markBroken();
+            connection.release();
+        }
+    }
+
+    /**
+     * Read and drop bytes of the data which is not needed anymore.
+     *
+     * @param connection opened connection
+     * @param count count of bytes
+     * @throws IOException
+     */
+    static void skip(Connection connection, long count) throws IOException {
+        final ByteBuffer buffer = BufferPool.getInstance().acquire(SKIP_BUFF_SIZE);
+
+        try {
+            while (count > 0) {
+                buffer.clear().limit((int) Math.min(SKIP_BUFF_SIZE, count));
+                int received = connection.receive(buffer);
+
+                if (received <= 0) {
+                    throw new IOException("Connection is closed before the end of skipped data.");
+                }
+                count -= received;
+            }
+        } finally {
+            BufferPool.getInstance().release(buffer);
+        }
+    }
+
+    /**
+     * Receive bytes until the buffer is full.
+     *
+     * @param connection opened connection
+     * @param buffer buffer to fill from position to limit
+     * @throws IOException
+     */
+    static void receiveFully(Connection connection, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (connection.receive(buffer) <= 0) {
+                throw new IOException("Connection is closed before the end of data.");
+            }
+        }
+    }
+}
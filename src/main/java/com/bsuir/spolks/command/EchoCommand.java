@@ -4,16 +4,25 @@ import com.bsuir.spolks.connection.Connection;
 import com.bsuir.spolks.controller.Controller;
 import com.bsuir.spolks.exception.AvailableTokenNotPresentException;
 import com.bsuir.spolks.exception.WrongCommandFormatException;
+import com.bsuir.spolks.stats.LatencyHistogram;
+import com.bsuir.spolks.stats.Statistics;
 import com.bsuir.spolks.util.Printer;
 import org.apache.logging.log4j.Level;
 
 import java.util.Arrays;
 import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 class EchoCommand extends AbstractCommand {
 
+    private static final int DEFAULT_SIZE = 16;
+    private static final int MAX_SIZE = 16384;
+    private static final int MAX_PIPELINE = 256;
+
     EchoCommand() {
-        Arrays.stream(AvailableToken.values()).forEach(t -> availableTokens.put(t.getName(), t.getRegex()));
+        super(AvailableToken.values());
     }
 
     /**
@@ -31,18 +40,39 @@ class EchoCommand extends AbstractCommand {
             AvailableToken currentToken = AvailableToken.find(firstKey);
 
             switch (currentToken) {
-                case CONTENT:
-                    executeEcho();
-                    break;
                 case HELP:
                     executeHelp();
                     break;
+                default:
+                    if (toks.containsKey(AvailableToken.COUNT.getName())) {
+                        executeBenchmark();
+                    } else {
+                        executeEcho();
+                    }
+                    break;
             }
         } catch (WrongCommandFormatException | AvailableTokenNotPresentException e) {
+            fail();
             LOGGER.log(Level.ERROR, e.getMessage());
         }
     }
 
+    /**
+     * A plain echo of the content is one request and one answer.
+     *
+     * @return boolean
+     */
+    @Override
+    public boolean isPipelined() {
+        try {
+            validateTokens();
+        } catch (WrongCommandFormatException e) {
+            return false;
+        }
+
+        return getTokens().size() == 1 && hasToken(AvailableToken.CONTENT);
+    }
+
     /**
      * Build command instance.
      *
@@ -56,53 +86,196 @@ class EchoCommand extends AbstractCommand {
     private void validateRequired() throws WrongCommandFormatException {
         Map<String, String> tokens = getTokens();
 
-        if (tokens.size() > 1) {
-            throw new WrongCommandFormatException("This command should have only one token.");
+        if (tokens.containsKey(AvailableToken.HELP.getName())) {
+            if (tokens.size() > 1) {
+                throw new WrongCommandFormatException("Token 'help' should be used alone.");
+            }
+            return;
         }
 
-        if (tokens.containsKey(AvailableToken.HELP.getName())) {
+        if (tokens.containsKey(AvailableToken.COUNT.getName())) {
+            if (tokens.containsKey(AvailableToken.CONTENT.getName())) {
+                throw new WrongCommandFormatException("Tokens 'content' and 'count' cannot be used together.");
+            }
+
+            checkRange(tokens, AvailableToken.COUNT, Integer.MAX_VALUE);
+            checkRange(tokens, AvailableToken.SIZE, MAX_SIZE);
+            checkRange(tokens, AvailableToken.PIPELINE, MAX_PIPELINE);
             return;
         }
 
-        for (AvailableToken t : AvailableToken.values()) {
-            if (t.isRequired()) {
-                String value = tokens.get(t.getName());
+        if (tokens.containsKey(AvailableToken.SIZE.getName()) || tokens.containsKey(AvailableToken.PIPELINE.getName())) {
+            throw new WrongCommandFormatException("Tokens 'size' and 'pipeline' should be used with 'count'.");
+        }
 
-                if (value == null || value.isEmpty()) {
-                    throw new WrongCommandFormatException("'" + t.getName() + "' token required. Check -help.");
-                }
-            }
+        String value = tokens.get(AvailableToken.CONTENT.getName());
+        if (value == null || value.isEmpty()) {
+            throw new WrongCommandFormatException("'" + AvailableToken.CONTENT.getName() + "' or '"
+                    + AvailableToken.COUNT.getName() + "' token required. Check -help.");
+        }
+    }
+
+    private static void checkRange(Map<String, String> tokens, AvailableToken token, int max) throws WrongCommandFormatException {
+        String value = tokens.get(token.getName());
+
+        if (token.getRule().matches(value)
+                && (Long.parseLong(value) < 1 || Long.parseLong(value) > max)) {
+            throw new WrongCommandFormatException("Token '" + token.getName() + "' should be from 1 to " + max + ".");
         }
     }
 
     private void executeEcho() {
-        Connection connection = Controller.getInstance().getConnection();
+        Connection connection = Controller.getInstance().acquireConnection();
 
         if (connection != null) {
-            if (connection.sendMessage(cmd)) {
-                LOGGER.log(Level.INFO, "Server: " + connection.receive());
+            try {
+                final long startTime = System.nanoTime();
+
+                if (connection.sendCommand(this)) {
+                    String reply = connection.receive();
+                    if (reply == null) {
+                        fail();
+                        return;
+                    }
+
+                    final long rtt = System.nanoTime() - startTime;
+                    Statistics.getInstance().record(Statistics.ECHO_RTT, rtt);
+                    connection.getTuner().addRttSample(rtt);
+                    LOGGER.log(Level.INFO, "Server: " + reply);
+                }
+            } finally {
+                Controller.getInstance().releaseConnection(connection);
             }
         } else {
+            fail();
+            LOGGER.log(Level.WARN, "You're not connected to server.");
+        }
+    }
+
+    /**
+     * Send count echoes of the given size with up to pipeline of them
+     * in flight and report the round-trip time distribution. A sender
+     * thread sends the next echo when a reply frees its slot, replies
+     * are read in order on this thread.
+     */
+    private void executeBenchmark() {
+        final int count = getIntToken(AvailableToken.COUNT, 1);
+        final int size = getIntToken(AvailableToken.SIZE, DEFAULT_SIZE);
+        final int pipeline = Math.min(count, getIntToken(AvailableToken.PIPELINE, 1));
+
+        Connection connection = Controller.getInstance().acquireConnection();
+
+        if (connection == null) {
+            fail();
             LOGGER.log(Level.WARN, "You're not connected to server.");
+            return;
         }
+
+        try {
+            final EchoCommand probe = createProbe(size);
+            final AtomicLongArray sendTimes = new AtomicLongArray(pipeline);
+            final Semaphore slots = new Semaphore(pipeline);
+            final AtomicBoolean failed = new AtomicBoolean();
+
+            Thread sender = new Thread(() -> {
+                for (int i = 0; i < count && !failed.get(); i++) {
+                    slots.acquireUninterruptibly();
+                    sendTimes.set(i % pipeline, System.nanoTime());
+
+                    if (failed.get() || !connection.sendCommand(probe)) {
+                        failed.set(true);
+                        return;
+                    }
+                }
+            }, "echo-sender");
+            sender.setDaemon(true);
+
+            final LatencyHistogram histogram = new LatencyHistogram();
+            long min = Long.MAX_VALUE;
+            int received = 0;
+
+            final long startTime = System.nanoTime();
+            sender.start();
+
+            while (received < count) {
+                if (connection.receive() == null) {
+                    failed.set(true);
+                    slots.release(pipeline);
+                    break;
+                }
+
+                final long rtt = System.nanoTime() - sendTimes.get(received % pipeline);
+                received++;
+                slots.release();
+
+                histogram.record(rtt);
+                min = Math.min(min, rtt);
+                Statistics.getInstance().record(Statistics.ECHO_RTT, rtt);
+            }
+
+            final long nanos = System.nanoTime() - startTime;
+
+            if (failed.get()) {
+                fail();
+                LOGGER.log(Level.ERROR, "Echo is stopped after " + received + " of " + count + " replies.");
+            }
+            if (received == 0) {
+                return;
+            }
+
+            connection.getTuner().addRttSample(min);
+
+            Printer.println("Echo: " + received + " messages of " + size + " bytes, pipeline " + pipeline);
+            Printer.println(String.format("RTT, ms: min %.3f, mean %.3f, p50 %.3f, p99 %.3f, max %.3f",
+                    min / 1e6, histogram.getMean() / 1e6, histogram.getPercentile(0.5) / 1e6,
+                    histogram.getPercentile(0.99) / 1e6, histogram.getMax() / 1e6));
+            Printer.println(String.format("Throughput: %.0f messages/s", received * 1e9 / nanos));
+        } finally {
+            Controller.getInstance().releaseConnection(connection);
+        }
+    }
+
+    /**
+     * Create the echo request which is sent by the benchmark.
+     *
+     * @param size size of the content
+     * @return command
+     */
+    private static EchoCommand createProbe(int size) {
+        char[] content = new char[size];
+        Arrays.fill(content, 'x');
+
+        EchoCommand probe = new EchoCommand();
+        probe.putToken(AvailableToken.CONTENT.getName(), new String(content));
+        probe.setCmd(CommandType.ECHO.getName() + " -" + AvailableToken.CONTENT.getName() + "='" + new String(content) + "'");
+        return probe;
+    }
+
+    private int getIntToken(AvailableToken token, int defaultValue) {
+        String value = getToken(token);
+        return value == null ? defaultValue : Integer.parseInt(value);
     }
 
     private void executeHelp() {
         Printer.println("Command format:");
         Printer.println("   echo -content='Your some text' [-help]");
+        Printer.println("   echo -count='N' [-size='bytes'] [-pipeline='in flight']");
     }
 
-    private enum AvailableToken {
-        CONTENT("content", "^[\\w .-]+$", true),
+    private enum AvailableToken implements IToken {
+        CONTENT("content", TokenRule.CONTENT, false),
+        COUNT("count", TokenRule.digits(10), false),
+        SIZE("size", TokenRule.digits(5), false),
+        PIPELINE("pipeline", TokenRule.digits(3), false),
         HELP("help", null, false);
 
         private String name;
-        private String regex;
+        private TokenRule rule;
         private boolean required;
 
-        AvailableToken(String name, String regex, boolean required) {
+        AvailableToken(String name, TokenRule rule, boolean required) {
             this.name = name;
-            this.regex = regex;
+            this.rule = rule;
             this.required = required;
         }
 
@@ -120,8 +293,9 @@ class EchoCommand extends AbstractCommand {
             return name;
         }
 
-        public String getRegex() {
-            return regex;
+        @Override
+        public TokenRule getRule() {
+            return rule;
         }
 
         public boolean isRequired() {
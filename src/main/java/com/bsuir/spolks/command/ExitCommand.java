@@ -4,16 +4,17 @@ import com.bsuir.spolks.connection.Connection;
 import com.bsuir.spolks.controller.Controller;
 import com.bsuir.spolks.exception.AvailableTokenNotPresentException;
 import com.bsuir.spolks.exception.WrongCommandFormatException;
+import com.bsuir.spolks.job.Job;
+import com.bsuir.spolks.job.JobScheduler;
 import com.bsuir.spolks.util.Printer;
 import org.apache.logging.log4j.Level;
 
-import java.util.Arrays;
 import java.util.Map;
 
 public class ExitCommand extends AbstractCommand {
 
     ExitCommand() {
-        Arrays.stream(AvailableToken.values()).forEach(t -> availableTokens.put(t.getName(), t.getRegex()));
+        super(AvailableToken.values());
     }
 
     /**
@@ -44,14 +45,26 @@ public class ExitCommand extends AbstractCommand {
                 if (connection == null) {
                     Controller.getInstance().getKeyboard().wantExit(true);
                 } else {
+                    fail();
                     LOGGER.log(Level.WARN, "Connection is opened. Please, close connection to terminate program.");
                 }
             }
         } catch (WrongCommandFormatException | AvailableTokenNotPresentException e) {
+            fail();
             LOGGER.log(Level.ERROR, e.getMessage());
         }
     }
 
+    /**
+     * The command changes the connection, so it waits for other commands.
+     *
+     * @return true
+     */
+    @Override
+    public boolean isExclusive() {
+        return true;
+    }
+
     /**
      * Build command instance.
      *
@@ -69,6 +82,10 @@ public class ExitCommand extends AbstractCommand {
     }
 
     private void executeForceExit() {
+        for (Job job : JobScheduler.getInstance().getActiveJobs()) {
+            JobScheduler.getInstance().cancel(job);
+        }
+
         Connection connection = Controller.getInstance().getConnection();
 
         if (connection != null) {
@@ -83,17 +100,17 @@ public class ExitCommand extends AbstractCommand {
         Printer.println("   exit [-force] [-help]");
     }
 
-    private enum AvailableToken {
+    private enum AvailableToken implements IToken {
         FORCE("force", null, false),
         HELP("help", null, false);
 
         private String name;
-        private String regex;
+        private TokenRule rule;
         private boolean required;
 
-        AvailableToken(String name, String regex, boolean required) {
+        AvailableToken(String name, TokenRule rule, boolean required) {
             this.name = name;
-            this.regex = regex;
+            this.rule = rule;
             this.required = required;
         }
 
@@ -111,8 +128,9 @@ public class ExitCommand extends AbstractCommand {
             return name;
         }
 
-        public String getRegex() {
-            return regex;
+        @Override
+        public TokenRule getRule() {
+            return rule;
         }
 
         public boolean isRequired() {
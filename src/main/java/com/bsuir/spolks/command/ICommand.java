@@ -19,6 +19,17 @@ public interface ICommand {
      */
     void putToken(String name, String value);
 
+    /**
+     * Put token which is a slice of the command line.
+     *
+     * @param line command line
+     * @param nameStart first char of the name
+     * @param nameEnd char after the name
+     * @param valueStart first char of the value, -1 if there is no value
+     * @param valueEnd char after the value
+     */
+    void putToken(String line, int nameStart, int nameEnd, int valueStart, int valueEnd);
+
     /**
      * Get all command tokens.
      *
@@ -39,20 +50,48 @@ public interface ICommand {
     ICommand build();
 
     /**
-     * Validate tokens by regex.
+     * Validate tokens by their rules.
      *
      * @throws WrongCommandFormatException
      */
     void validateTokens() throws WrongCommandFormatException;
 
     /**
-     * Validate single token by regex.
+     * Get command name from cmd.
+     *
+     * @return command name
+     */
+    String getName();
+
+    /**
+     * Check if the command must not run together with other commands.
+     *
+     * @return boolean
+     */
+    boolean isExclusive();
+
+    /**
+     * Check if the command is a single request with a single answer,
+     * so a script can send it before previous answers are received.
      *
-     * @param tokenValue
-     * @param regex
      * @return boolean
      */
-    boolean validateToken(String tokenValue, String regex);
+    boolean isPipelined();
+
+    /**
+     * Check if the command has failed: its tokens are wrong, it is not
+     * connected or its request has not succeeded.
+     *
+     * @return boolean
+     */
+    boolean isFailed();
+
+    /**
+     * Get the command line as it has been typed.
+     *
+     * @return cmd
+     */
+    String getCmd();
 
     /**
      * Set cmd.
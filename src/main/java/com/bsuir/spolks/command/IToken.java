@@ -0,0 +1,29 @@
+package com.bsuir.spolks.command;
+
+/**
+ * Token a command accepts. Tokens are enum constants, so
+ * a command keeps their values in an array by ordinal.
+ */
+interface IToken {
+
+    /**
+     * Get token name as it is typed after '-'.
+     *
+     * @return name
+     */
+    String getName();
+
+    /**
+     * Get format of the value.
+     *
+     * @return rule or null if the token has no value
+     */
+    TokenRule getRule();
+
+    /**
+     * Get index of the token among the tokens of its command.
+     *
+     * @return index
+     */
+    int ordinal();
+}
@@ -0,0 +1,141 @@
+package com.bsuir.spolks.command;
+
+import com.bsuir.spolks.exception.AvailableTokenNotPresentException;
+import com.bsuir.spolks.exception.WrongCommandFormatException;
+import com.bsuir.spolks.job.Job;
+import com.bsuir.spolks.job.JobScheduler;
+import com.bsuir.spolks.util.Printer;
+import org.apache.logging.log4j.Level;
+
+import java.util.Collection;
+import java.util.Map;
+
+class JobsCommand extends AbstractCommand {
+
+    JobsCommand() {
+        super(AvailableToken.values());
+    }
+
+    /**
+     * Execute command.
+     */
+    @Override
+    public void execute() {
+        try {
+            validateTokens();
+            checkTokenCount();
+
+            Map<String, String> toks = getTokens();
+
+            if (toks.size() > 0) {
+                String firstKey = String.valueOf(toks.keySet().toArray()[0]);
+                AvailableToken currentToken = AvailableToken.find(firstKey);
+
+                switch (currentToken) {
+                    case LIMIT:
+                        executeLimit();
+                        break;
+                    case HELP:
+                        executeHelp();
+                        break;
+                }
+            } else {
+                executeList();
+            }
+        } catch (WrongCommandFormatException | AvailableTokenNotPresentException e) {
+            fail();
+            LOGGER.log(Level.ERROR, e.getMessage());
+        }
+    }
+
+    /**
+     * Build command instance.
+     *
+     * @return instance
+     */
+    @Override
+    public ICommand build() {
+        return new JobsCommand();
+    }
+
+    private void checkTokenCount() throws WrongCommandFormatException {
+        if (getTokens().size() > 1) {
+            throw new WrongCommandFormatException("This command should have only one token.");
+        }
+    }
+
+    private void executeList() {
+        Collection<Job> jobs = JobScheduler.getInstance().getJobs();
+
+        if (jobs.isEmpty()) {
+            Printer.println("No jobs.");
+            return;
+        }
+
+        Printer.println(String.format("  %4s %-9s %8s %8s  %s", "id", "state", "priority", "progress", "command"));
+
+        for (Job job : jobs) {
+            final String progress = job.getTotalBytes() > 0 ? (job.getDoneBytes() * 100 / job.getTotalBytes()) + "%" : "-";
+            Printer.println(String.format("  %4d %-9s %8d %8s  %s", job.getId(), job.getState(), job.getPriority(),
+                    progress, job.getDescription()));
+        }
+
+        Printer.println("Running at most " + JobScheduler.getInstance().getLimit() + " jobs at once.");
+    }
+
+    private void executeLimit() {
+        final int limit = Integer.parseInt(getToken(AvailableToken.LIMIT));
+
+        if (limit < 1) {
+            fail();
+            LOGGER.log(Level.ERROR, "Job limit should be positive.");
+            return;
+        }
+
+        JobScheduler.getInstance().setLimit(limit);
+        LOGGER.log(Level.INFO, "Running at most " + limit + " jobs at once.");
+    }
+
+    private void executeHelp() {
+        Printer.println("Command format:");
+        Printer.println("   jobs [-limit='N'] [-help]");
+    }
+
+    private enum AvailableToken implements IToken {
+        LIMIT("limit", TokenRule.digits(3), false),
+        HELP("help", null, false);
+
+        private String name;
+        private TokenRule rule;
+        private boolean required;
+
+        AvailableToken(String name, TokenRule rule, boolean required) {
+            this.name = name;
+            this.rule = rule;
+            this.required = required;
+        }
+
+        public static AvailableToken find(String name) throws AvailableTokenNotPresentException {
+            for (AvailableToken t : values()) {
+                if (t.getName().equals(name)) {
+                    return t;
+                }
+            }
+
+            throw new AvailableTokenNotPresentException("Token '" + name + "' is not available.");
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public TokenRule getRule() {
+            return rule;
+        }
+
+        public boolean isRequired() {
+            return required;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.bsuir.spolks.command;
+
+import com.bsuir.spolks.stats.LatencyHistogram;
+import com.bsuir.spolks.util.Printer;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Shared results of load sessions: latency of every operation,
+ * error counts, connects and downloaded bytes. It also keeps the
+ * schedule of the run, which starts once all sessions are connected.
+ */
+class LoadReport {
+
+    private static final double NANOS_IN_MILLI = 1e6;
+
+    private final LatencyHistogram[] latencies = new LatencyHistogram[LoadSession.Operation.values().length];
+    private final AtomicLongArray errors = new AtomicLongArray(LoadSession.Operation.values().length);
+    private final LatencyHistogram total = new LatencyHistogram();
+
+    private final LatencyHistogram connects = new LatencyHistogram();
+    private final AtomicLong connectErrors = new AtomicLong();
+    private final AtomicLong missed = new AtomicLong();
+    private final AtomicLong downloadedBytes = new AtomicLong();
+
+    private volatile long startTime;
+    private volatile long endTime;
+
+    LoadReport() {
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * Set the schedule of the run.
+     *
+     * @param startTime start by System.nanoTime()
+     * @param duration duration in nanoseconds
+     */
+    void schedule(long startTime, long duration) {
+        this.startTime = startTime;
+        this.endTime = startTime + duration;
+    }
+
+    long getStartTime() {
+        return startTime;
+    }
+
+    long getEndTime() {
+        return endTime;
+    }
+
+    /**
+     * Record a completed operation.
+     *
+     * @param operation operation
+     * @param nanos time from the scheduled start to the answer
+     */
+    void record(LoadSession.Operation operation, long nanos) {
+        latencies[operation.ordinal()].record(nanos);
+        total.record(nanos);
+    }
+
+    void error(LoadSession.Operation operation) {
+        errors.incrementAndGet(operation.ordinal());
+    }
+
+    void connected(long nanos) {
+        connects.record(nanos);
+    }
+
+    void connectFailed() {
+        connectErrors.incrementAndGet();
+    }
+
+    /**
+     * Count requests which were not sent because the session fell behind the schedule.
+     *
+     * @param count count of requests
+     */
+    void missed(long count) {
+        missed.addAndGet(count);
+    }
+
+    void downloaded(long bytes) {
+        downloadedBytes.addAndGet(bytes);
+    }
+
+    /**
+     * Get count of completed operations.
+     *
+     * @param operation operation or null for all of them
+     * @return count
+     */
+    long getCount(LoadSession.Operation operation) {
+        return operation == null ? total.getCount() : latencies[operation.ordinal()].getCount();
+    }
+
+    long getErrors(LoadSession.Operation operation) {
+        return errors.get(operation.ordinal());
+    }
+
+    long getConnectErrors() {
+        return connectErrors.get();
+    }
+
+    /**
+     * Print the results.
+     *
+     * @param nanos time the sessions were running
+     */
+    void print(long nanos) {
+        final double seconds = Math.max(1, nanos) / 1e9;
+
+        Printer.println(String.format("Connect, ms: p50 %.3f, p99 %.3f, max %.3f, %d failed",
+                connects.getPercentile(0.5) / NANOS_IN_MILLI, connects.getPercentile(0.99) / NANOS_IN_MILLI,
+                connects.getMax() / NANOS_IN_MILLI, connectErrors.get()));
+        Printer.println("Latency, ms:");
+        Printer.println(String.format("  %-10s %8s %8s %10s %10s %10s %10s %10s",
+                "operation", "count", "errors", "ops/s", "p50", "p90", "p99", "max"));
+
+        long errorCount = 0;
+        for (LoadSession.Operation operation : LoadSession.Operation.values()) {
+            final long operationErrors = errors.get(operation.ordinal());
+            errorCount += operationErrors;
+
+            if (latencies[operation.ordinal()].getCount() > 0 || operationErrors > 0) {
+                printRow(operation.getName(), latencies[operation.ordinal()], operationErrors, seconds);
+            }
+        }
+        printRow("total", total, errorCount, seconds);
+
+        Printer.println(String.format("Throughput: %.1f ops/s, %.1f KB/s downloaded",
+                total.getCount() / seconds, downloadedBytes.get() / 1024.0 / seconds));
+
+        if (missed.get() > 0) {
+            Printer.println(missed.get() + " requests were not sent, the sessions fell behind the rate.");
+        }
+    }
+
+    private static void printRow(String name, LatencyHistogram histogram, long errors, double seconds) {
+        Printer.println(String.format("  %-10s %8d %8d %10.1f %10.3f %10.3f %10.3f %10.3f",
+                name, histogram.getCount(), errors, histogram.getCount() / seconds,
+                histogram.getPercentile(0.5) / NANOS_IN_MILLI, histogram.getPercentile(0.9) / NANOS_IN_MILLI,
+                histogram.getPercentile(0.99) / NANOS_IN_MILLI, histogram.getMax() / NANOS_IN_MILLI));
+    }
+}
@@ -0,0 +1,253 @@
+package com.bsuir.spolks.command;
+
+import com.bsuir.spolks.connection.Connection;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * One simulated client of the load generator. The session has its own
+ * connection and uuid and sends requests of the mix one by one. With
+ * a rate every request has a scheduled start and its latency is counted
+ * from it, so a slow answer also delays the requests queued behind it.
+ * Without a rate the session sends the next request right after the answer.
+ */
+class LoadSession implements Runnable {
+
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    private static final String SUCCESS = "success";
+    private static final String GET_PROGRESS = "progress";
+
+    /**
+     * Pause before a failed session connects again.
+     */
+    private static final long RECONNECT_DELAY = 100000000L;
+
+    private final UUID uuid = UUID.randomUUID();
+
+    private final String serverIP;
+    private final boolean binary;
+    private final ICommand[] probes;
+    private final int[] weights;
+    private final long interval;
+    private final long phase;
+    private final LoadReport report;
+    private final CountDownLatch ready;
+    private final CountDownLatch started;
+
+    private Connection connection;
+
+    /**
+     * Constructor.
+     *
+     * @param serverIP server ip
+     * @param binary use the binary protocol
+     * @param probes request of every operation by its ordinal, null for operations out of the mix
+     * @param weights sum of weights of the operations up to every ordinal
+     * @param interval time between requests in nanoseconds or 0 to send them back to back
+     * @param phase delay of the first request
+     * @param report shared results
+     * @param ready counted down when the session has connected or failed to
+     * @param started released when the schedule is set
+     */
+    LoadSession(String serverIP, boolean binary, ICommand[] probes, int[] weights, long interval, long phase,
+                LoadReport report, CountDownLatch ready, CountDownLatch started) {
+        this.serverIP = serverIP;
+        this.binary = binary;
+        this.probes = probes;
+        this.weights = weights;
+        this.interval = interval;
+        this.phase = phase;
+        this.report = report;
+        this.ready = ready;
+        this.started = started;
+    }
+
+    /**
+     * Connect, wait for the start and send requests until the end of the run.
+     */
+    @Override
+    public void run() {
+        boolean counted = false;
+
+        try {
+            connect();
+            ready.countDown();
+            counted = true;
+            started.await();
+
+            final long endTime = report.getEndTime();
+            long next = report.getStartTime() + phase;
+
+            while (next < endTime && System.nanoTime() < endTime) {
+                final long scheduled;
+
+                if (interval > 0) {
+                    waitUntil(next);
+                    scheduled = next;
+                    next += interval;
+                } else {
+                    scheduled = System.nanoTime();
+                    next = scheduled;
+                }
+
+                final Operation operation = pick(weights, ThreadLocalRandom.current().nextInt(weights[weights.length - 1]));
+
+                if (connection == null && !connect()) {
+                    report.error(operation);
+                    waitUntil(System.nanoTime() + RECONNECT_DELAY);
+                    continue;
+                }
+
+                if (execute(operation)) {
+                    report.record(operation, System.nanoTime() - scheduled);
+                } else {
+                    report.error(operation);
+                    LOGGER.log(Level.DEBUG, "Session " + uuid + ": " + operation.getName() + " failed.");
+                    close();
+                }
+            }
+
+            if (interval > 0 && next < endTime) {
+                report.missed((endTime - next + interval - 1) / interval);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (!counted) {
+                ready.countDown();
+            }
+            close();
+        }
+    }
+
+    /**
+     * Send one request and receive its answer.
+     *
+     * @param operation operation
+     * @return true if the answer is received
+     */
+    private boolean execute(Operation operation) {
+        final ICommand probe = probes[operation.ordinal()];
+
+        if (!connection.sendCommand(probe)) {
+            return false;
+        }
+
+        if (operation != Operation.DOWNLOAD) {
+            return connection.receive() != null;
+        }
+
+        try {
+            final String confirmation = connection.receive();
+            if (confirmation == null || !confirmation.startsWith(SUCCESS)) {
+                return false;
+            }
+
+            final long fileSize = Long.parseLong(confirmation.split(" ")[1]);
+
+            if (!connection.sendMessage("0") || !GET_PROGRESS.equals(connection.receive())) {
+                return false;
+            }
+
+            DownloadSegment.skip(connection, fileSize);
+            report.downloaded(fileSize);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.DEBUG, "Session " + uuid + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    private boolean connect() {
+        Connection newConnection = new Connection(serverIP);
+        newConnection.setStandalone(true);
+        newConnection.setClientId(uuid.toString());
+
+        final long startTime = System.nanoTime();
+        if (!newConnection.connect()) {
+            report.connectFailed();
+            return false;
+        }
+        report.connected(System.nanoTime() - startTime);
+
+        if (binary && !newConnection.enableBinaryProtocol()) {
+            newConnection.release();
+            report.connectFailed();
+            return false;
+        }
+
+        connection = newConnection;
+        LOGGER.log(Level.DEBUG, "Session " + uuid + " is connected.");
+        return true;
+    }
+
+    private void close() {
+        if (connection != null) {
+            connection.release();
+            connection = null;
+        }
+    }
+
+    /**
+     * Pick an operation of the mix by its weight.
+     *
+     * @param weights sum of weights of the operations up to every ordinal
+     * @param value random value below the sum of all weights
+     * @return operation
+     */
+    static Operation pick(int[] weights, int value) {
+        for (Operation operation : Operation.values()) {
+            if (value < weights[operation.ordinal()]) {
+                return operation;
+            }
+        }
+        return Operation.ECHO;
+    }
+
+    private static void waitUntil(long time) throws InterruptedException {
+        long delay;
+        while ((delay = time - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(delay);
+
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+    }
+
+    /**
+     * Request kinds of the mix.
+     */
+    enum Operation {
+        ECHO("echo"),
+        TIME("time"),
+        DOWNLOAD("download");
+
+        private String name;
+
+        Operation(String name) {
+            this.name = name;
+        }
+
+        public static Operation find(String name) {
+            for (Operation operation : values()) {
+                if (operation.getName().equals(name)) {
+                    return operation;
+                }
+            }
+            return null;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+}
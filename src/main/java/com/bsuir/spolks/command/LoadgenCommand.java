@@ -0,0 +1,294 @@
+package com.bsuir.spolks.command;
+
+import com.bsuir.spolks.controller.Controller;
+import com.bsuir.spolks.exception.AvailableTokenNotPresentException;
+import com.bsuir.spolks.exception.WrongCommandFormatException;
+import com.bsuir.spolks.util.Printer;
+import org.apache.logging.log4j.Level;
+
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load generator: runs many client sessions inside the client, every one
+ * with its own connection, and reports the throughput, errors and latency
+ * percentiles of their requests. It does not use the connection of the client.
+ */
+class LoadgenCommand extends AbstractCommand {
+
+    private static final int DEFAULT_SESSIONS = 10;
+    private static final int MAX_SESSIONS = 1000;
+    private static final int DEFAULT_DURATION = 10;
+    private static final int MAX_DURATION = 3600;
+    private static final int MAX_RATE = 1000000;
+    private static final String DEFAULT_MIX = "echo:8 time:2";
+
+    private static final long NANOS_IN_SECOND = 1000000000L;
+
+    /**
+     * Time the sessions have to connect before the run starts without the late ones.
+     */
+    private static final long CONNECT_TIMEOUT = 30;
+
+    private LoadReport report;
+
+    LoadgenCommand() {
+        super(AvailableToken.values());
+    }
+
+    /**
+     * Execute command.
+     */
+    @Override
+    public void execute() {
+        try {
+            validateRequired();
+            validateTokens();
+
+            if (hasToken(AvailableToken.HELP)) {
+                executeHelp();
+            } else {
+                executeLoad();
+            }
+        } catch (WrongCommandFormatException | AvailableTokenNotPresentException e) {
+            fail();
+            LOGGER.log(Level.ERROR, e.getMessage());
+        }
+    }
+
+    /**
+     * Get the results of the last run.
+     *
+     * @return report or null if the load has not run
+     */
+    LoadReport getReport() {
+        return report;
+    }
+
+    /**
+     * Build command instance.
+     *
+     * @return instance
+     */
+    @Override
+    public ICommand build() {
+        return new LoadgenCommand();
+    }
+
+    private void validateRequired() throws WrongCommandFormatException {
+        Map<String, String> tokens = getTokens();
+
+        if (tokens.containsKey(AvailableToken.HELP.getName())) {
+            return;
+        }
+
+        for (AvailableToken t : AvailableToken.values()) {
+            if (t.isRequired()) {
+                String value = tokens.get(t.getName());
+
+                if (value == null || value.isEmpty()) {
+                    throw new WrongCommandFormatException("'" + t.getName() + "' token required. Check -help.");
+                }
+            }
+        }
+
+        checkRange(tokens, AvailableToken.SESSIONS, MAX_SESSIONS);
+        checkRange(tokens, AvailableToken.DURATION, MAX_DURATION);
+        checkRange(tokens, AvailableToken.RATE, MAX_RATE);
+    }
+
+    private static void checkRange(Map<String, String> tokens, AvailableToken token, int max) throws WrongCommandFormatException {
+        String value = tokens.get(token.getName());
+
+        if (token.getRule().matches(value)
+                && (Long.parseLong(value) < 1 || Long.parseLong(value) > max)) {
+            throw new WrongCommandFormatException("Token '" + token.getName() + "' should be from 1 to " + max + ".");
+        }
+    }
+
+    /**
+     * Start the sessions, wait until they are connected, run them
+     * for the duration and print the report.
+     *
+     * @throws AvailableTokenNotPresentException if the mix has an unknown operation
+     * @throws WrongCommandFormatException if the mix is empty or a download has no path
+     */
+    private void executeLoad() throws AvailableTokenNotPresentException, WrongCommandFormatException {
+        final String address = getToken(AvailableToken.IP);
+        final int sessions = getIntToken(AvailableToken.SESSIONS, DEFAULT_SESSIONS);
+        final int duration = getIntToken(AvailableToken.DURATION, DEFAULT_DURATION);
+        final int rate = getIntToken(AvailableToken.RATE, 0);
+        final String mix = getTokens().getOrDefault(AvailableToken.MIX.getName(), DEFAULT_MIX);
+        final boolean binary = hasToken(AvailableToken.BINARY);
+
+        final int[] weights = parseMix(mix);
+        final ICommand[] probes = createProbes(weights);
+        final long interval = rate == 0 ? 0 : sessions * NANOS_IN_SECOND / rate;
+
+        Printer.println("Load: " + sessions + " sessions, " + duration + " s, "
+                + (rate == 0 ? "no rate limit" : "target " + rate + " ops/s") + ", mix " + mix);
+
+        report = new LoadReport();
+        final CountDownLatch ready = new CountDownLatch(sessions);
+        final CountDownLatch started = new CountDownLatch(1);
+        final ExecutorService executor = Controller.createExecutor("load");
+
+        try {
+            for (int i = 0; i < sessions; i++) {
+                executor.execute(new LoadSession(address, binary, probes, weights, interval,
+                        interval * i / sessions, report, ready, started));
+            }
+
+            if (!ready.await(CONNECT_TIMEOUT, TimeUnit.SECONDS)) {
+                LOGGER.log(Level.WARN, "Not all sessions are connected in " + CONNECT_TIMEOUT + " s.");
+            }
+
+            final long startTime = System.nanoTime();
+            report.schedule(startTime, duration * NANOS_IN_SECOND);
+            started.countDown();
+
+            executor.shutdown();
+            while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+                LOGGER.log(Level.DEBUG, "Waiting for load sessions.");
+            }
+
+            report.print(System.nanoTime() - startTime);
+
+            if (report.getCount(null) == 0) {
+                LOGGER.log(Level.ERROR, "No operation has completed.");
+                fail();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+            fail();
+        }
+    }
+
+    /**
+     * Parse the mix into sums of weights up to every operation.
+     *
+     * @param mix pairs of operation name and weight, e.g. "echo:8 time:2"
+     * @return weights by operation ordinal
+     * @throws AvailableTokenNotPresentException if the operation is unknown
+     * @throws WrongCommandFormatException if the sum of weights is 0
+     */
+    private static int[] parseMix(String mix) throws AvailableTokenNotPresentException, WrongCommandFormatException {
+        int[] weights = new int[LoadSession.Operation.values().length];
+
+        for (String part : mix.split(" ")) {
+            final int colon = part.indexOf(':');
+            LoadSession.Operation operation = LoadSession.Operation.find(part.substring(0, colon));
+
+            if (operation == null) {
+                throw new AvailableTokenNotPresentException("Operation '" + part.substring(0, colon) + "' is not available.");
+            }
+            weights[operation.ordinal()] = Integer.parseInt(part.substring(colon + 1));
+        }
+
+        for (int i = 1; i < weights.length; i++) {
+            weights[i] += weights[i - 1];
+        }
+
+        if (weights[weights.length - 1] == 0) {
+            throw new WrongCommandFormatException("Token 'mix' should have a positive weight.");
+        }
+        return weights;
+    }
+
+    /**
+     * Create the request of every operation of the mix.
+     *
+     * @param weights sums of weights
+     * @return requests by operation ordinal
+     * @throws WrongCommandFormatException if a download has no path
+     */
+    private ICommand[] createProbes(int[] weights) throws WrongCommandFormatException {
+        ICommand[] probes = new ICommand[weights.length];
+
+        EchoCommand echo = new EchoCommand();
+        echo.putToken("content", "load");
+        echo.setCmd(CommandType.ECHO.getName() + " -content='load'");
+        probes[LoadSession.Operation.ECHO.ordinal()] = echo;
+
+        TimeCommand time = new TimeCommand();
+        time.setCmd(CommandType.TIME.getName());
+        probes[LoadSession.Operation.TIME.ordinal()] = time;
+
+        final int download = LoadSession.Operation.DOWNLOAD.ordinal();
+        if (weights[download] > weights[download - 1]) {
+            final String path = getToken(AvailableToken.PATH);
+
+            if (path == null) {
+                throw new WrongCommandFormatException("Token 'path' is required for downloads.");
+            }
+
+            DownloadCommand command = new DownloadCommand();
+            command.putToken("path", path);
+            command.putToken("name", path);
+            command.setCmd(CommandType.DOWNLOAD.getName() + " -path='" + path + "' -name='" + path + "'");
+            probes[download] = command;
+        }
+
+        return probes;
+    }
+
+    private int getIntToken(AvailableToken token, int defaultValue) {
+        String value = getToken(token);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+    private void executeHelp() {
+        Printer.println("Command format:");
+        Printer.println("   loadgen -ip='192.168.0.1' [-sessions='N'] [-duration='seconds'] [-rate='ops/s']");
+        Printer.println("           [-mix='echo:8 time:2 download:1'] [-path='file on server'] [-binary] [-help]");
+    }
+
+    private enum AvailableToken implements IToken {
+        IP("ip", TokenRule.IP, true),
+        SESSIONS("sessions", TokenRule.digits(4), false),
+        DURATION("duration", TokenRule.digits(4), false),
+        RATE("rate", TokenRule.digits(7), false),
+        MIX("mix", TokenRule.list(
+                TokenRule.pair(TokenRule.oneOf("echo", "time", "download"), ':', TokenRule.digits(3)), ' ', 1,
+                Integer.MAX_VALUE), false),
+        PATH("path", TokenRule.TEXT, false),
+        BINARY("binary", null, false),
+        HELP("help", null, false);
+
+        private String name;
+        private TokenRule rule;
+        private boolean required;
+
+        AvailableToken(String name, TokenRule rule, boolean required) {
+            this.name = name;
+            this.rule = rule;
+            this.required = required;
+        }
+
+        public static AvailableToken find(String name) throws AvailableTokenNotPresentException {
+            for (AvailableToken t : values()) {
+                if (t.getName().equals(name)) {
+                    return t;
+                }
+            }
+
+            throw new AvailableTokenNotPresentException("Token '" + name + "' is not available.");
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public TokenRule getRule() {
+            return rule;
+        }
+
+        public boolean isRequired() {
+            return required;
+        }
+    }
+}
@@ -0,0 +1,485 @@
+package com.bsuir.spolks.command;
+
+import com.bsuir.spolks.connection.Connection;
+import com.bsuir.spolks.controller.Controller;
+import com.bsuir.spolks.exception.AvailableTokenNotPresentException;
+import com.bsuir.spolks.exception.WrongCommandFormatException;
+import com.bsuir.spolks.job.Job;
+import com.bsuir.spolks.job.JobScheduler;
+import com.bsuir.spolks.progress.ProgressRenderer;
+import com.bsuir.spolks.progress.TransferProgress;
+import com.bsuir.spolks.stats.Statistics;
+import com.bsuir.spolks.util.Printer;
+import org.apache.logging.log4j.Level;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Downloads a directory tree. The server sends the manifest of the tree
+ * with sizes and modification times, files which are already present with
+ * the same size and time are skipped, and the rest is fetched by several
+ * workers, every one over its own connection. Small files are requested
+ * in bundles which come back as one stream, large files one by one
+ * with the usual handshake and journal.
+ */
+class MirrorCommand extends AbstractCommand {
+
+    private static final String SUCCESS = "success";
+    private static final String BUNDLE = "bundle";
+    private static final String CANCELLED = "Mirror is cancelled.";
+
+    private static final int DEFAULT_WORKERS = 4;
+    private static final int MAX_WORKERS = 16;
+    private static final int DEFAULT_PRIORITY = 5;
+
+    /**
+     * Files up to this size are bundled.
+     */
+    private static final long SMALL_FILE_SIZE = 256 * 1024;
+    private static final long BUNDLE_BYTES = 4 * 1024 * 1024;
+    private static final int BUNDLE_FILES = 256;
+
+    private boolean supportsBundles;
+
+    MirrorCommand() {
+        super(AvailableToken.values());
+    }
+
+    /**
+     * Execute command.
+     */
+    @Override
+    public void execute() {
+        try {
+            validateRequired();
+            validateTokens();
+
+            if (hasToken(AvailableToken.HELP)) {
+                executeHelp();
+            } else {
+                executeScheduled();
+            }
+        } catch (WrongCommandFormatException e) {
+            fail();
+            LOGGER.log(Level.ERROR, e.getMessage());
+        }
+    }
+
+    /**
+     * Build command instance.
+     *
+     * @return instance
+     */
+    @Override
+    public ICommand build() {
+        return new MirrorCommand();
+    }
+
+    private void validateRequired() throws WrongCommandFormatException {
+        Map<String, String> tokens = getTokens();
+
+        if (tokens.containsKey(AvailableToken.HELP.getName())) {
+            return;
+        }
+
+        for (AvailableToken t : AvailableToken.values()) {
+            if (t.isRequired()) {
+                String value = tokens.get(t.getName());
+
+                if (value == null || value.isEmpty()) {
+                    throw new WrongCommandFormatException("'" + t.getName() + "' token required. Check -help.");
+                }
+            }
+        }
+
+        String workers = tokens.get(AvailableToken.WORKERS.getName());
+        if (AvailableToken.WORKERS.getRule().matches(workers)
+                && (Integer.parseInt(workers) < 1 || Integer.parseInt(workers) > MAX_WORKERS)) {
+            throw new WrongCommandFormatException("Token 'workers' should be from 1 to " + MAX_WORKERS + ".");
+        }
+    }
+
+    private void executeHelp() {
+        Printer.println("Command format:");
+        Printer.println("   mirror -path='directory on server' -name='local directory' [-workers='N']");
+        Printer.println("          [-background] [-priority='0-9'] [-help]");
+    }
+
+    /**
+     * Queue the mirror in the job scheduler. A foreground mirror
+     * waits for its job, a background one returns the job id at once.
+     */
+    private void executeScheduled() {
+        final JobScheduler scheduler = JobScheduler.getInstance();
+        final Job scheduled = scheduler.submit(cmd, getPriority(), this::executeMirror);
+
+        if (hasToken(AvailableToken.BACKGROUND)) {
+            LOGGER.log(Level.INFO, "Job " + scheduled.getId() + " is queued.");
+            return;
+        }
+
+        try {
+            scheduled.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            scheduler.cancel(scheduled);
+        }
+
+        if (scheduled.getState() != Job.State.DONE) {
+            fail();
+        }
+    }
+
+    /**
+     * Run the mirror job: get the manifest over the connection
+     * of the client, then fetch the files over worker connections.
+     *
+     * @param job job of the mirror
+     */
+    private void executeMirror(Job job) {
+        final Controller controller = Controller.getInstance();
+        Connection connection = controller.acquireConnection();
+
+        if (connection == null) {
+            job.fail();
+            LOGGER.log(Level.WARN, "You're not connected to server.");
+            return;
+        }
+
+        final List<Entry> manifest;
+        try {
+            manifest = receiveManifest(connection);
+        } finally {
+            controller.releaseConnection(connection);
+        }
+
+        if (manifest == null) {
+            job.fail();
+            return;
+        }
+
+        final File root = new File(getToken(AvailableToken.NAME));
+        final List<Task> plan = plan(root, manifest, supportsBundles);
+        final int fileCount = plan.stream().mapToInt(t -> t.entries.size()).sum();
+        final long totalBytes = plan.stream().mapToLong(Task::getBytes).sum();
+
+        LOGGER.log(Level.INFO, "Manifest: " + manifest.size() + " files, " + (manifest.size() - fileCount)
+                + " are up to date, " + fileCount + " files (" + totalBytes + " bytes) to fetch in " + plan.size() + " requests.");
+
+        if (plan.isEmpty()) {
+            return;
+        }
+
+        TransferProgress transfer = ProgressRenderer.getInstance().start("#" + job.getId() + " " + root.getName(), totalBytes, 0);
+        job.setTransfer(transfer);
+
+        final long startTime = System.nanoTime();
+        List<MirrorWorker> workers = new ArrayList<>();
+
+        try {
+            final Queue<Task> tasks = new ConcurrentLinkedQueue<>(plan);
+            final String serverRoot = getToken(AvailableToken.PATH);
+            final int count = Math.min(getWorkers(), plan.size());
+
+            for (int i = 0; i < count; i++) {
+                workers.add(new MirrorWorker(connection, serverRoot, root, tasks, job, transfer::add));
+            }
+
+            runWorkers(workers);
+
+            // Tasks are left in the queue when every worker has lost its connection.
+            long failed = tasks.stream().mapToLong(t -> t.entries.size() - t.done).sum();
+            for (MirrorWorker worker : workers) {
+                failed += worker.getFailedFiles();
+            }
+
+            logSummary(workers, failed, System.nanoTime() - startTime);
+
+            if (failed > 0) {
+                job.fail();
+            }
+        } catch (CancellationException e) {
+            LOGGER.log(Level.WARN, "Job " + job.getId() + ": " + e.getMessage());
+        } finally {
+            ProgressRenderer.getInstance().finish(transfer);
+        }
+    }
+
+    /**
+     * Request the manifest of the directory. The server answers
+     * "success count", followed by "bundle" if it can send bundles,
+     * and then sends one "size mtime path" message for every file;
+     * the path is relative to the directory.
+     *
+     * @param connection opened connection
+     * @return entries of the manifest or null if it is not received
+     */
+    private List<Entry> receiveManifest(Connection connection) {
+        final String answer = connection.sendCommand(this) ? connection.receive() : null;
+
+        if (answer == null) {
+            LOGGER.log(Level.ERROR, "No answer from server.");
+            return null;
+        }
+
+        final String[] confirmation = answer.split(" ");
+        if (!SUCCESS.equals(confirmation[0]) || confirmation.length < 2) {
+            LOGGER.log(Level.ERROR, "Server cannot send the manifest: " + answer);
+            return null;
+        }
+
+        final int count = Integer.parseInt(confirmation[1]);
+        supportsBundles = confirmation.length > 2 && BUNDLE.equals(confirmation[2]);
+
+        if (!supportsBundles) {
+            LOGGER.log(Level.WARN, "Server does not support bundles, small files are requested one by one.");
+        }
+
+        List<Entry> entries = new ArrayList<>(count);
+
+        for (int i = 0; i < count; i++) {
+            final String line = connection.receive();
+            if (line == null) {
+                LOGGER.log(Level.ERROR, "Manifest is cut after " + i + " of " + count + " files.");
+                return null;
+            }
+
+            final String[] fields = line.split(" ", 3);
+            if (fields.length < 3 || !isSafePath(fields[2])) {
+                LOGGER.log(Level.WARN, "Manifest entry is skipped: " + line);
+                continue;
+            }
+
+            entries.add(new Entry(fields[2], Long.parseLong(fields[0]), Long.parseLong(fields[1])));
+        }
+
+        return entries;
+    }
+
+    /**
+     * Check that a manifest path stays inside the target directory.
+     *
+     * @param path relative path with '/' separators
+     * @return boolean
+     */
+    private static boolean isSafePath(String path) {
+        for (String part : path.split("/", -1)) {
+            if (part.isEmpty() || part.equals(".") || part.equals("..") || part.contains("\\") || part.contains(":")) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Split the files which are not up to date into requests. Small files
+     * are bundled in the manifest order, which keeps files of a directory
+     * together. Requests are ordered from the largest one, so the workers
+     * do not wait for one big file at the end.
+     *
+     * @param root local directory
+     * @param manifest manifest entries
+     * @param bundles server can send bundles
+     * @return requests
+     */
+    private static List<Task> plan(File root, List<Entry> manifest, boolean bundles) {
+        List<Task> tasks = new ArrayList<>();
+        Task bundle = null;
+
+        for (Entry entry : manifest) {
+            final File file = entry.getFile(root);
+
+            if (file.isFile() && file.length() == entry.size && file.lastModified() == entry.mtime
+                    && !DownloadJournal.exists(file)) {
+                continue;
+            }
+
+            if (!bundles || entry.size > SMALL_FILE_SIZE) {
+                Task task = new Task(false);
+                task.add(entry);
+                tasks.add(task);
+                continue;
+            }
+
+            if (bundle == null || bundle.entries.size() >= BUNDLE_FILES || bundle.getBytes() + entry.size > BUNDLE_BYTES) {
+                bundle = new Task(true);
+                tasks.add(bundle);
+            }
+            bundle.add(entry);
+        }
+
+        tasks.sort(Comparator.comparingLong(Task::getBytes).reversed());
+        return tasks;
+    }
+
+    private static void runWorkers(List<MirrorWorker> workers) {
+        ExecutorService executor = Controller.createExecutor("mirror");
+
+        try {
+            for (Future<Void> future : executor.invokeAll(workers)) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof CancellationException) {
+                        throw (CancellationException) e.getCause();
+                    }
+                    LOGGER.log(Level.ERROR, "Mirror worker failed. " + e.getCause().getMessage());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException(CANCELLED);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private void logSummary(List<MirrorWorker> workers, long failed, long nanos) {
+        long files = 0;
+        long bundles = 0;
+        long bundledFiles = 0;
+        long bytes = 0;
+
+        for (MirrorWorker worker : workers) {
+            files += worker.getFiles();
+            bundles += worker.getBundles();
+            bundledFiles += worker.getBundledFiles();
+            bytes += worker.getReceivedBytes();
+        }
+
+        Statistics.getInstance().recordTransfer(bytes, nanos);
+
+        final long speed = nanos > 0 ? (long) (bytes * 1e9 / nanos) : bytes;
+        LOGGER.log(Level.INFO, "Mirrored " + files + " files (" + bytes + " bytes) in " + (nanos / 1000000) + " ms with "
+                + workers.size() + " workers: " + bundledFiles + " in " + bundles + " bundles, "
+                + (files - bundledFiles) + " one by one, " + failed + " failed. Speed: " + speed + " bytes/s");
+    }
+
+    private int getWorkers() {
+        String value = getToken(AvailableToken.WORKERS);
+        return value == null ? DEFAULT_WORKERS : Integer.parseInt(value);
+    }
+
+    private int getPriority() {
+        String value = getToken(AvailableToken.PRIORITY);
+        return value == null ? DEFAULT_PRIORITY : Integer.parseInt(value);
+    }
+
+    /**
+     * File of the manifest.
+     */
+    static final class Entry {
+        private final String path;
+        private final long size;
+        private final long mtime;
+
+        Entry(String path, long size, long mtime) {
+            this.path = path;
+            this.size = size;
+            this.mtime = mtime;
+        }
+
+        String getPath() {
+            return path;
+        }
+
+        long getSize() {
+            return size;
+        }
+
+        long getMtime() {
+            return mtime;
+        }
+
+        File getFile(File root) {
+            return new File(root, path.replace('/', File.separatorChar));
+        }
+    }
+
+    /**
+     * One request of a worker: a bundle of small files or one large file.
+     * Files of a bundle which are already written are counted by done,
+     * so a retried bundle asks only for the rest.
+     */
+    static final class Task {
+        private final boolean bundle;
+        private final List<Entry> entries = new ArrayList<>();
+        private long bytes;
+
+        int done;
+        int attempts;
+
+        Task(boolean bundle) {
+            this.bundle = bundle;
+        }
+
+        void add(Entry entry) {
+            entries.add(entry);
+            bytes += entry.size;
+        }
+
+        boolean isBundle() {
+            return bundle;
+        }
+
+        List<Entry> getEntries() {
+            return entries;
+        }
+
+        long getBytes() {
+            return bytes;
+        }
+    }
+
+    private enum AvailableToken implements IToken {
+        PATH("path", TokenRule.TEXT, true),
+        NAME("name", TokenRule.TEXT, true),
+        WORKERS("workers", TokenRule.digits(2), false),
+        BACKGROUND("background", null, false),
+        PRIORITY("priority", TokenRule.digits(1), false),
+        HELP("help", null, false);
+
+        private String name;
+        private TokenRule rule;
+        private boolean required;
+
+        AvailableToken(String name, TokenRule rule, boolean required) {
+            this.name = name;
+            this.rule = rule;
+            this.required = required;
+        }
+
+        public static AvailableToken find(String name) throws AvailableTokenNotPresentException {
+            for (AvailableToken t : values()) {
+                if (t.getName().equals(name)) {
+                    return t;
+                }
+            }
+
+            throw new AvailableTokenNotPresentException("Token '" + name + "' is not available.");
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public TokenRule getRule() {
+            return rule;
+        }
+
+        public boolean isRequired() {
+            return required;
+        }
+    }
+}
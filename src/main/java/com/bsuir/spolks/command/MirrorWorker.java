@@ -0,0 +1,340 @@
+package com.bsuir.spolks.command;
+
+import com.bsuir.spolks.buffer.BufferPool;
+import com.bsuir.spolks.connection.Connection;
+import com.bsuir.spolks.connection.Reconnector;
+import com.bsuir.spolks.job.Job;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.function.LongConsumer;
+
+/**
+ * Worker of a mirror. It opens its own connection and takes requests from
+ * the shared queue until it is empty. A bundle is requested with one
+ * "bundle count" message followed by the paths; the server confirms it and
+ * sends every file as [long size][bytes], size -1 for a file it cannot read.
+ * A large file is downloaded by the usual handshake into its journal.
+ * A failed request is put back to the queue, and the connection is restored.
+ */
+class MirrorWorker implements Callable<Void> {
+
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    private static final String SUCCESS = "success";
+    private static final String BUNDLE = "bundle";
+    private static final String CANCELLED = "Mirror is cancelled.";
+
+    private static final int BUFF_SIZE = 65536;
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long MISSING = -1;
+
+    private final Connection template;
+    private final String serverRoot;
+    private final File root;
+    private final Queue<MirrorCommand.Task> tasks;
+    private final Job job;
+    private final LongConsumer progressListener;
+
+    private Connection connection;
+
+    private long files;
+    private long bundles;
+    private long bundledFiles;
+    private long receivedBytes;
+    private long failedFiles;
+
+    /**
+     * Constructor.
+     *
+     * @param template connection of the client, the worker connects to its server with its protocol
+     * @param serverRoot directory on server
+     * @param root local directory
+     * @param tasks shared queue of requests
+     * @param job job of the mirror, the worker stops when it is cancelled
+     * @param progressListener gets count of bytes of every received part
+     */
+    MirrorWorker(Connection template, String serverRoot, File root, Queue<MirrorCommand.Task> tasks,
+                 Job job, LongConsumer progressListener) {
+        this.template = template;
+        this.serverRoot = serverRoot.endsWith("/") ? serverRoot : serverRoot + "/";
+        this.root = root;
+        this.tasks = tasks;
+        this.job = job;
+        this.progressListener = progressListener;
+    }
+
+    /**
+     * Take and fetch requests until the queue is empty.
+     *
+     * @return null
+     * @throws IOException if the connection cannot be opened
+     */
+    @Override
+    public Void call() throws IOException {
+        connection = open();
+
+        try {
+            MirrorCommand.Task task;
+            while ((task = tasks.poll()) != null) {
+                if (job.isCancelled()) {
+                    throw new CancellationException(CANCELLED);
+                }
+
+                try {
+                    if (task.isBundle()) {
+                        receiveBundle(task);
+                    } else {
+                        receiveFile(task);
+                    }
+                } catch (IOException e) {
+                    // The rest of the answer cannot be told from the next one.
+                    connection.markBroken();
+                    retry(task, e);
+                }
+
+                if (connection.isBroken() && !reconnect()) {
+                    return null;
+                }
+            }
+        } finally {
+            if (connection != null) {
+                connection.release();
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Put a failed request back to the queue until it has failed MAX_ATTEMPTS times.
+     *
+     * @param task failed request
+     * @param e error
+     */
+    private void retry(MirrorCommand.Task task, IOException e) {
+        final String path = task.getEntries().get(task.done).getPath();
+
+        if (++task.attempts < MAX_ATTEMPTS) {
+            LOGGER.log(Level.WARN, "Mirror: " + path + " is queued again (attempt " + (task.attempts + 1) + " of "
+                    + MAX_ATTEMPTS + "). " + e.getMessage());
+            tasks.add(task);
+        } else {
+            LOGGER.log(Level.ERROR, "Mirror: " + path + ": " + e.getMessage());
+            failedFiles += task.getEntries().size() - task.done;
+        }
+    }
+
+    private boolean reconnect() {
+        final Connection failed = connection;
+        failed.release();
+        connection = Reconnector.reconnect(failed);
+        return connection != null;
+    }
+
+    private Connection open() throws IOException {
+        Connection workerConnection = new Connection(template.getServerIP());
+        workerConnection.setClientId(template.getClientId());
+
+        if (!workerConnection.connect()) {
+            throw new IOException("Cannot open connection for a mirror worker.");
+        }
+
+        if (template.isBinary() && !workerConnection.enableBinaryProtocol()) {
+            workerConnection.release();
+            throw new IOException("Cannot enable the binary protocol for a mirror worker.");
+        }
+
+        return workerConnection;
+    }
+
+    /**
+     * Request the files of the bundle which are not written yet and write them one by one.
+     *
+     * @param task bundle
+     * @throws IOException
+     */
+    private void receiveBundle(MirrorCommand.Task task) throws IOException {
+        final List<MirrorCommand.Entry> entries = task.getEntries();
+        final int count = entries.size() - task.done;
+
+        boolean sent = connection.sendMessage(BUNDLE + " " + count);
+        for (int i = task.done; sent && i < entries.size(); i++) {
+            sent = connection.sendMessage(serverRoot + entries.get(i).getPath());
+        }
+
+        final String confirmation = sent ? connection.receive() : null;
+        if (confirmation == null) {
+            throw new IOException("No answer to the bundle request.");
+        }
+        if (!confirmation.startsWith(SUCCESS)) {
+            throw new IOException("Server does not confirm the bundle request: " + confirmation);
+        }
+
+        final ByteBuffer header = ByteBuffer.allocate(Long.BYTES);
+        final ByteBuffer buffer = BufferPool.getInstance().acquire(BUFF_SIZE);
+
+        try {
+            bundles++;
+
+            while (task.done < entries.size()) {
+                if (job.isCancelled()) {
+                    throw new CancellationException(CANCELLED);
+                }
+
+                final MirrorCommand.Entry entry = entries.get(task.done);
+
+                header.clear();
+                DownloadSegment.receiveFully(connection, header);
+                final long size = header.getLong(0);
+
+                if (size == MISSING) {
+                    LOGGER.log(Level.ERROR, "Mirror: " + entry.getPath() + ": server cannot read the file.");
+                    failedFiles++;
+                } else {
+                    receiveContent(entry, size, buffer);
+                    bundledFiles++;
+                }
+
+                task.done++;
+            }
+        } finally {
+            BufferPool.getInstance().release(buffer);
+        }
+    }
+
+    /**
+     * Write the next size bytes of the bundle to the file of the entry.
+     *
+     * @param entry manifest entry
+     * @param size size of the file sent by the server
+     * @param buffer pooled buffer
+     * @throws IOException
+     */
+    private void receiveContent(MirrorCommand.Entry entry, long size, ByteBuffer buffer) throws IOException {
+        final File file = createParent(entry);
+
+        try (FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long remaining = size;
+
+            while (remaining > 0) {
+                buffer.clear().limit((int) Math.min(BUFF_SIZE, remaining));
+                DownloadSegment.receiveFully(connection, buffer);
+
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    fileChannel.write(buffer);
+                }
+
+                remaining -= buffer.limit();
+                progressListener.accept(buffer.limit());
+            }
+        }
+
+        finish(entry, file, size);
+    }
+
+    /**
+     * Download a large file with the download handshake. Ranges
+     * which are present in the journal of the file are not requested.
+     *
+     * @param task request of one file
+     * @throws IOException
+     */
+    private void receiveFile(MirrorCommand.Task task) throws IOException {
+        final MirrorCommand.Entry entry = task.getEntries().get(0);
+        final File file = createParent(entry);
+        final DownloadCommand request = createRequest(entry);
+
+        final String confirmation = connection.sendCommand(request) ? connection.receive() : null;
+        if (confirmation == null) {
+            throw new IOException("No answer to the download request.");
+        }
+        if (!confirmation.startsWith(SUCCESS)) {
+            LOGGER.log(Level.ERROR, "Mirror: " + entry.getPath() + ": " + confirmation);
+            failedFiles++;
+            return;
+        }
+
+        final long fileSize = Long.parseLong(confirmation.split(" ")[1]);
+
+        try (DownloadJournal journal = DownloadJournal.open(file, fileSize)) {
+            List<DownloadJournal.Range> ranges = journal.getMissingRanges();
+
+            if (ranges.isEmpty()) {
+                ranges.add(new DownloadJournal.Range(fileSize, 0));
+            }
+
+            ICommand command = null;
+            for (DownloadJournal.Range range : ranges) {
+                new DownloadSegment(connection, command, range, journal, job, progressListener).call();
+                command = request;
+            }
+        }
+
+        finish(entry, file, fileSize);
+    }
+
+    private DownloadCommand createRequest(MirrorCommand.Entry entry) {
+        final String path = serverRoot + entry.getPath();
+
+        DownloadCommand command = new DownloadCommand();
+        command.putToken("path", path);
+        command.putToken("name", entry.getPath());
+        command.setCmd(CommandType.DOWNLOAD.getName() + " -path='" + path + "' -name='" + entry.getPath() + "'");
+        return command;
+    }
+
+    private File createParent(MirrorCommand.Entry entry) throws IOException {
+        final File file = entry.getFile(root);
+        final File parent = file.getParentFile();
+
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Cannot create directory " + parent.getPath());
+        }
+        return file;
+    }
+
+    /**
+     * Count the written file and set its time from the manifest, so it is skipped by the next mirror.
+     */
+    private void finish(MirrorCommand.Entry entry, File file, long size) {
+        files++;
+        receivedBytes += size;
+
+        if (size == entry.getSize() && !file.setLastModified(entry.getMtime())) {
+            LOGGER.log(Level.WARN, "Mirror: cannot set time of " + file.getPath());
+        }
+    }
+
+    long getFiles() {
+        return files;
+    }
+
+    long getBundles() {
+        return bundles;
+    }
+
+    long getBundledFiles() {
+        return bundledFiles;
+    }
+
+    long getReceivedBytes() {
+        return receivedBytes;
+    }
+
+    long getFailedFiles() {
+        return failedFiles;
+    }
+}
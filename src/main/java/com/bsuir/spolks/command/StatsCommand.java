@@ -0,0 +1,174 @@
+package com.bsuir.spolks.command;
+
+import com.bsuir.spolks.buffer.BufferPool;
+import com.bsuir.spolks.connection.Connection;
+import com.bsuir.spolks.controller.Controller;
+import com.bsuir.spolks.exception.AvailableTokenNotPresentException;
+import com.bsuir.spolks.exception.WrongCommandFormatException;
+import com.bsuir.spolks.stats.ClockOffset;
+import com.bsuir.spolks.stats.LatencyHistogram;
+import com.bsuir.spolks.stats.Statistics;
+import com.bsuir.spolks.util.Printer;
+import org.apache.logging.log4j.Level;
+
+import java.util.Map;
+
+class StatsCommand extends AbstractCommand {
+
+    private static final double NANOS_IN_MILLI = 1e6;
+
+    StatsCommand() {
+        super(AvailableToken.values());
+    }
+
+    /**
+     * Execute command.
+     */
+    @Override
+    public void execute() {
+        try {
+            validateTokens();
+            checkTokenCount();
+
+            Map<String, String> toks = getTokens();
+
+            if (toks.size() > 0) {
+                String firstKey = String.valueOf(toks.keySet().toArray()[0]);
+                AvailableToken currentToken = AvailableToken.find(firstKey);
+
+                switch (currentToken) {
+                    case RESET:
+                        executeReset();
+                        break;
+                    case HELP:
+                        executeHelp();
+                        break;
+                }
+            } else {
+                executeStats();
+            }
+        } catch (WrongCommandFormatException | AvailableTokenNotPresentException e) {
+            fail();
+            LOGGER.log(Level.ERROR, e.getMessage());
+        }
+    }
+
+    /**
+     * Build command instance.
+     *
+     * @return instance
+     */
+    @Override
+    public ICommand build() {
+        return new StatsCommand();
+    }
+
+    private void checkTokenCount() throws WrongCommandFormatException {
+        if (getTokens().size() > 1) {
+            throw new WrongCommandFormatException("This command should have only one token.");
+        }
+    }
+
+    private void executeStats() {
+        Statistics statistics = Statistics.getInstance();
+
+        Printer.println("Latency, ms:");
+        Printer.println(String.format("  %-16s %8s %10s %10s %10s %10s", "metric", "count", "p50", "p90", "p99", "max"));
+
+        for (Map.Entry<String, LatencyHistogram> entry : statistics.getHistograms().entrySet()) {
+            LatencyHistogram histogram = entry.getValue();
+
+            if (histogram.getCount() > 0) {
+                Printer.println(String.format("  %-16s %8d %10.3f %10.3f %10.3f %10.3f", entry.getKey(), histogram.getCount(),
+                        histogram.getPercentile(0.5) / NANOS_IN_MILLI, histogram.getPercentile(0.9) / NANOS_IN_MILLI,
+                        histogram.getPercentile(0.99) / NANOS_IN_MILLI, histogram.getMax() / NANOS_IN_MILLI));
+            }
+        }
+
+        Printer.println("Traffic: " + statistics.getBytesIn() + " bytes in, " + statistics.getBytesOut() + " bytes out");
+
+        Connection connection = Controller.getInstance().getConnection();
+        if (connection != null) {
+            Printer.println("Current connection: " + connection.getBytesIn() + " bytes in, " + connection.getBytesOut() + " bytes out");
+        }
+
+        Printer.println("Download throughput: " + statistics.getTransferSpeed() + " bytes/s over "
+                + statistics.getTransferredBytes() + " bytes");
+
+        if (statistics.getCompressedBytes() > 0) {
+            Printer.println(String.format("Compression: %d bytes received for %d bytes, ratio %.2f",
+                    statistics.getCompressedBytes(), statistics.getDecompressedBytes(),
+                    (double) statistics.getDecompressedBytes() / statistics.getCompressedBytes()));
+        }
+
+        if (statistics.getWriteBehindWrites() > 0) {
+            Printer.println(String.format("Write-behind: %d writes of %d bytes on average, receive waited %d ms for the disk, "
+                            + "disk waited %d ms for the network", statistics.getWriteBehindWrites(),
+                    statistics.getWriteBehindBytes() / statistics.getWriteBehindWrites(),
+                    statistics.getReceiveWaitNanos() / 1000000, statistics.getDiskWaitNanos() / 1000000));
+        }
+
+        ClockOffset.Estimate clockOffset = ClockOffset.getInstance().getEstimate();
+        if (clockOffset != null) {
+            Printer.println("Clock offset: " + clockOffset);
+        }
+
+        BufferPool pool = BufferPool.getInstance();
+        Printer.println("Buffer pool: " + pool.getHits() + " hits, " + pool.getMisses() + " misses, "
+                + pool.getOutstanding() + " outstanding, " + pool.getPooledBytes() + " bytes pooled");
+    }
+
+    private void executeReset() {
+        Statistics.getInstance().reset();
+
+        Connection connection = Controller.getInstance().getConnection();
+        if (connection != null) {
+            connection.resetTraffic();
+        }
+
+        LOGGER.log(Level.INFO, "Statistics are reset.");
+    }
+
+    private void executeHelp() {
+        Printer.println("Command format:");
+        Printer.println("   stats [-reset] [-help]");
+    }
+
+    private enum AvailableToken implements IToken {
+        RESET("reset", null, false),
+        HELP("help", null, false);
+
+        private String name;
+        private TokenRule rule;
+        private boolean required;
+
+        AvailableToken(String name, TokenRule rule, boolean required) {
+            this.name = name;
+            this.rule = rule;
+            this.required = required;
+        }
+
+        public static AvailableToken find(String name) throws AvailableTokenNotPresentException {
+            for (AvailableToken t : values()) {
+                if (t.getName().equals(name)) {
+                    return t;
+                }
+            }
+
+            throw new AvailableTokenNotPresentException("Token '" + name + "' is not available.");
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public TokenRule getRule() {
+            return rule;
+        }
+
+        public boolean isRequired() {
+            return required;
+        }
+    }
+}
@@ -2,30 +2,74 @@ package com.bsuir.spolks.command;
 
 import com.bsuir.spolks.connection.Connection;
 import com.bsuir.spolks.controller.Controller;
+import com.bsuir.spolks.exception.AvailableTokenNotPresentException;
 import com.bsuir.spolks.exception.WrongCommandFormatException;
+import com.bsuir.spolks.stats.ClockOffset;
+import com.bsuir.spolks.stats.Statistics;
+import com.bsuir.spolks.util.Printer;
 import org.apache.logging.log4j.Level;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
 class TimeCommand extends AbstractCommand {
 
+    private static final int MAX_SAMPLES = 1000;
+
+    TimeCommand() {
+        super(AvailableToken.values());
+    }
+
     /**
      * Execute command.
      */
     @Override
     public void execute() {
         try {
+            validateTokens();
             checkTokenCount();
-            Connection connection = Controller.getInstance().getConnection();
+
+            Map<String, String> toks = getTokens();
+            AvailableToken currentToken = toks.isEmpty() ? null : AvailableToken.find(String.valueOf(toks.keySet().toArray()[0]));
+
+            if (currentToken == AvailableToken.HELP) {
+                executeHelp();
+                return;
+            }
+
+            Connection connection = Controller.getInstance().acquireConnection();
 
             if (connection != null) {
-                executeGettingTime(connection);
+                try {
+                    if (currentToken == AvailableToken.SAMPLES) {
+                        executeSampling(connection, Integer.parseInt(toks.get(AvailableToken.SAMPLES.getName())));
+                    } else {
+                        executeGettingTime(connection);
+                    }
+                } finally {
+                    Controller.getInstance().releaseConnection(connection);
+                }
             } else {
+                fail();
                 LOGGER.log(Level.WARN, "You're not connected to server.");
             }
-        } catch (WrongCommandFormatException e) {
+        } catch (WrongCommandFormatException | AvailableTokenNotPresentException e) {
+            fail();
             LOGGER.log(Level.ERROR, e.getMessage());
         }
     }
 
+    /**
+     * A single time request without sampling is one request and one answer.
+     *
+     * @return boolean
+     */
+    @Override
+    public boolean isPipelined() {
+        return getTokens().isEmpty();
+    }
+
     /**
      * Build command instance.
      *
@@ -37,17 +81,124 @@ class TimeCommand extends AbstractCommand {
     }
 
     private void checkTokenCount() throws WrongCommandFormatException {
-        if (getTokens().size() > 0) {
-            throw new WrongCommandFormatException("Command hasn't any tokens.");
+        if (getTokens().size() > 1) {
+            throw new WrongCommandFormatException("This command should have only one token.");
+        }
+
+        String samples = getToken(AvailableToken.SAMPLES);
+        if (samples != null && (Integer.parseInt(samples) < 1 || Integer.parseInt(samples) > MAX_SAMPLES)) {
+            throw new WrongCommandFormatException("Token 'samples' should be from 1 to " + MAX_SAMPLES + ".");
         }
     }
 
     private void executeGettingTime(Connection connection) {
-        if(connection.sendMessage(cmd)) {
+        final long startTime = System.nanoTime();
+
+        if(connection.sendCommand(this)) {
             String time = connection.receive();
+            if (time == null) {
+                fail();
+                return;
+            }
+
+            Statistics.getInstance().record(Statistics.TIME_RTT, System.nanoTime() - startTime);
             LOGGER.log(Level.INFO, "Server time: " + time);
+
+            ClockOffset.Estimate estimate = ClockOffset.getInstance().getEstimate();
+            if (estimate != null) {
+                LOGGER.log(Level.INFO, "Clock offset: " + estimate);
+            }
         } else {
+            fail();
             LOGGER.log(Level.ERROR, "Cannot get server time...");
         }
     }
+
+    /**
+     * Request the server time several times and estimate the clock offset
+     * from the requests with the lowest round-trip delay.
+     *
+     * @param connection opened connection
+     * @param count count of requests
+     */
+    private void executeSampling(Connection connection, int count) {
+        final TimeCommand probe = new TimeCommand();
+        probe.setCmd(CommandType.TIME.getName());
+
+        List<ClockOffset.Sample> samples = new ArrayList<>(count);
+
+        for (int i = 0; i < count; i++) {
+            final long startTime = System.nanoTime();
+            final long t1 = ClockOffset.now();
+
+            if (!connection.sendCommand(probe)) {
+                fail();
+                LOGGER.log(Level.ERROR, "Cannot get server time...");
+                return;
+            }
+
+            final String time = connection.receive();
+            final long t4 = t1 + (System.nanoTime() - startTime);
+
+            if (time == null) {
+                fail();
+                return;
+            }
+            Statistics.getInstance().record(Statistics.TIME_RTT, t4 - t1);
+
+            ClockOffset.Sample sample = ClockOffset.parse(time, t1, t4);
+            if (sample == null) {
+                fail();
+                LOGGER.log(Level.ERROR, "Server time '" + time + "' has unknown format.");
+                return;
+            }
+            samples.add(sample);
+        }
+
+        ClockOffset.Estimate estimate = ClockOffset.getInstance().update(samples);
+        Printer.println("Clock offset: " + estimate);
+    }
+
+    private void executeHelp() {
+        Printer.println("Command format:");
+        Printer.println("   time [-samples='N'] [-help]");
+    }
+
+    private enum AvailableToken implements IToken {
+        SAMPLES("samples", TokenRule.digits(4), false),
+        HELP("help", null, false);
+
+        private String name;
+        private TokenRule rule;
+        private boolean required;
+
+        AvailableToken(String name, TokenRule rule, boolean required) {
+            this.name = name;
+            this.rule = rule;
+            this.required = required;
+        }
+
+        public static AvailableToken find(String name) throws AvailableTokenNotPresentException {
+            for (AvailableToken t : values()) {
+                if (t.getName().equals(name)) {
+                    return t;
+                }
+            }
+
+            throw new AvailableTokenNotPresentException("Token '" + name + "' is not available.");
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public TokenRule getRule() {
+            return rule;
+        }
+
+        public boolean isRequired() {
+            return required;
+        }
+    }
 }
@@ -0,0 +1,188 @@
+package com.bsuir.spolks.command;
+
+/**
+ * Format of a token value. It is checked on a slice of the command line
+ * by char classes and lengths, so a check neither compiles a regex nor
+ * allocates a matcher. Parts are matched greedily without backtracking,
+ * which is exact for the formats below: every part ends where the next
+ * one starts with a char it cannot take.
+ */
+abstract class TokenRule {
+
+    /**
+     * Paths and names: [\w .-:\\]+, the value chars of the command line.
+     */
+    static final TokenRule TEXT = new TokenRule() {
+        @Override
+        int match(String text, int pos, int end) {
+            while (pos < end && isTextChar(text.charAt(pos))) {
+                pos++;
+            }
+            return pos;
+        }
+    };
+
+    /**
+     * Echo content: [\w .-]+.
+     */
+    static final TokenRule CONTENT = new TokenRule() {
+        @Override
+        int match(String text, int pos, int end) {
+            while (pos < end && isContentChar(text.charAt(pos))) {
+                pos++;
+            }
+            return pos;
+        }
+    };
+
+    /**
+     * IPv4 address: (\d{1,3}\.){3}\d{1,3}.
+     */
+    static final TokenRule IP = list(digits(3), '.', 4, 4);
+
+    /**
+     * Check that the whole value has the format.
+     *
+     * @param value value or null
+     * @return boolean
+     */
+    final boolean matches(String value) {
+        return value != null && matches(value, 0, value.length());
+    }
+
+    /**
+     * Check that the whole slice has the format.
+     *
+     * @param text text which contains the value
+     * @param start first char of the value
+     * @param end char after the value
+     * @return boolean
+     */
+    final boolean matches(String text, int start, int end) {
+        return start < end && match(text, start, end) == end;
+    }
+
+    /**
+     * Match the format from the position.
+     *
+     * @param text text
+     * @param pos first char to match
+     * @param end end of the slice
+     * @return char after the matched part, pos if nothing matches
+     */
+    abstract int match(String text, int pos, int end);
+
+    /**
+     * Digits: \d{1,max}.
+     *
+     * @param max largest count of digits
+     * @return rule
+     */
+    static TokenRule digits(int max) {
+        return new TokenRule() {
+            @Override
+            int match(String text, int pos, int end) {
+                final int limit = Math.min(end, pos + max);
+                while (pos < limit && text.charAt(pos) >= '0' && text.charAt(pos) <= '9') {
+                    pos++;
+                }
+                return pos;
+            }
+        };
+    }
+
+    /**
+     * One of the words: (a|b|c).
+     *
+     * @param words words
+     * @return rule
+     */
+    static TokenRule oneOf(String... words) {
+        return new TokenRule() {
+            @Override
+            int match(String text, int pos, int end) {
+                for (String word : words) {
+                    if (word.length() <= end - pos && text.regionMatches(pos, word, 0, word.length())) {
+                        return pos + word.length();
+                    }
+                }
+                return pos;
+            }
+        };
+    }
+
+    /**
+     * Key and value parted by a char: key:value.
+     *
+     * @param key rule of the key
+     * @param separator separator
+     * @param value rule of the value
+     * @return rule
+     */
+    static TokenRule pair(TokenRule key, char separator, TokenRule value) {
+        return new TokenRule() {
+            @Override
+            int match(String text, int pos, int end) {
+                final int keyEnd = key.match(text, pos, end);
+                if (keyEnd == pos || keyEnd >= end || text.charAt(keyEnd) != separator) {
+                    return pos;
+                }
+
+                final int valueEnd = value.match(text, keyEnd + 1, end);
+                return valueEnd == keyEnd + 1 ? pos : valueEnd;
+            }
+        };
+    }
+
+    /**
+     * Items parted by a char: item(,item){min-1,max-1}.
+     *
+     * @param item rule of an item
+     * @param separator separator
+     * @param min least count of items
+     * @param max largest count of items
+     * @return rule
+     */
+    static TokenRule list(TokenRule item, char separator, int min, int max) {
+        return new TokenRule() {
+            @Override
+            int match(String text, int pos, int end) {
+                int matched = pos;
+                int count = 0;
+
+                while (count < max) {
+                    final int start = count == 0 ? matched : matched + 1;
+                    if (count > 0 && (matched >= end || text.charAt(matched) != separator)) {
+                        break;
+                    }
+
+                    final int itemEnd = item.match(text, start, end);
+                    if (itemEnd == start) {
+                        break;
+                    }
+
+                    matched = itemEnd;
+                    count++;
+                }
+
+                return count < min ? pos : matched;
+            }
+        };
+    }
+
+    /**
+     * Check [\w .-:\\] class: letters, digits, '_', ' ', '.', '/', ':' and '\'.
+     */
+    private static boolean isTextChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '.' && c <= ':')
+                || c == '_' || c == ' ' || c == '\\';
+    }
+
+    /**
+     * Check [\w .-] class: letters, digits, '_', ' ', '.' and '-'.
+     */
+    private static boolean isContentChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                || c == '_' || c == ' ' || c == '.' || c == '-';
+    }
+}
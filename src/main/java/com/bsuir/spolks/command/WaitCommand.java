@@ -0,0 +1,134 @@
+package com.bsuir.spolks.command;
+
+import com.bsuir.spolks.exception.AvailableTokenNotPresentException;
+import com.bsuir.spolks.exception.WrongCommandFormatException;
+import com.bsuir.spolks.job.Job;
+import com.bsuir.spolks.job.JobScheduler;
+import com.bsuir.spolks.util.Printer;
+import org.apache.logging.log4j.Level;
+
+import java.util.Map;
+
+class WaitCommand extends AbstractCommand {
+
+    WaitCommand() {
+        super(AvailableToken.values());
+    }
+
+    /**
+     * Execute command.
+     */
+    @Override
+    public void execute() {
+        try {
+            validateTokens();
+            checkTokenCount();
+
+            Map<String, String> toks = getTokens();
+
+            if (toks.size() > 0) {
+                String firstKey = String.valueOf(toks.keySet().toArray()[0]);
+                AvailableToken currentToken = AvailableToken.find(firstKey);
+
+                switch (currentToken) {
+                    case ID:
+                        executeWait(Integer.parseInt(toks.get(AvailableToken.ID.getName())));
+                        break;
+                    case HELP:
+                        executeHelp();
+                        break;
+                }
+            } else {
+                executeWaitAll();
+            }
+        } catch (WrongCommandFormatException | AvailableTokenNotPresentException e) {
+            fail();
+            LOGGER.log(Level.ERROR, e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            fail();
+            LOGGER.log(Level.WARN, "Waiting is interrupted.");
+        }
+    }
+
+    /**
+     * Build command instance.
+     *
+     * @return instance
+     */
+    @Override
+    public ICommand build() {
+        return new WaitCommand();
+    }
+
+    private void checkTokenCount() throws WrongCommandFormatException {
+        if (getTokens().size() > 1) {
+            throw new WrongCommandFormatException("This command should have only one token.");
+        }
+    }
+
+    private void executeWait(int id) throws InterruptedException {
+        Job job = JobScheduler.getInstance().find(id);
+
+        if (job == null) {
+            fail();
+            LOGGER.log(Level.ERROR, "Job " + id + " is not found.");
+            return;
+        }
+
+        job.await();
+        LOGGER.log(Level.INFO, "Job " + id + " is finished: " + job.getState());
+
+        if (job.getState() != Job.State.DONE) {
+            fail();
+        }
+    }
+
+    private void executeWaitAll() throws InterruptedException {
+        JobScheduler.getInstance().awaitAll();
+        LOGGER.log(Level.INFO, "All jobs are finished.");
+    }
+
+    private void executeHelp() {
+        Printer.println("Command format:");
+        Printer.println("   wait [-id='job id'] [-help]");
+    }
+
+    private enum AvailableToken implements IToken {
+        ID("id", TokenRule.digits(9), false),
+        HELP("help", null, false);
+
+        private String name;
+        private TokenRule rule;
+        private boolean required;
+
+        AvailableToken(String name, TokenRule rule, boolean required) {
+            this.name = name;
+            this.rule = rule;
+            this.required = required;
+        }
+
+        public static AvailableToken find(String name) throws AvailableTokenNotPresentException {
+            for (AvailableToken t : values()) {
+                if (t.getName().equals(name)) {
+                    return t;
+                }
+            }
+
+            throw new AvailableTokenNotPresentException("Token '" + name + "' is not available.");
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public TokenRule getRule() {
+            return rule;
+        }
+
+        public boolean isRequired() {
+            return required;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.bsuir.spolks.compress;
+
+/**
+ * Codecs which can be negotiated for a download.
+ */
+public enum CompressionType {
+    DEFLATE("deflate") {
+        @Override
+        public IDecompressor createDecompressor() {
+            return new DeflateDecompressor();
+        }
+    },
+    SNAPPY("snappy") {
+        @Override
+        public IDecompressor createDecompressor() {
+            return new SnappyDecompressor();
+        }
+    };
+
+    private String name;
+
+    CompressionType(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Find codec by name.
+     *
+     * @param name codec name
+     * @return codec or null if it is unknown
+     */
+    public static CompressionType find(String name) {
+        for (CompressionType t : values()) {
+            if (t.getName().equals(name)) {
+                return t;
+            }
+        }
+
+        return null;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Create decoder for one transfer.
+     *
+     * @return decompressor
+     */
+    public abstract IDecompressor createDecompressor();
+}
@@ -0,0 +1,39 @@
+package com.bsuir.spolks.compress;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Raw deflate stream which is split into sync-flushed chunks.
+ * The dictionary is kept between chunks of one transfer.
+ */
+final class DeflateDecompressor implements IDecompressor {
+
+    private final Inflater inflater = new Inflater(true);
+
+    @Override
+    public void decompress(ByteBuffer chunk, ByteBuffer out) throws IOException {
+        inflater.setInput(chunk);
+
+        try {
+            while (!inflater.needsInput() && out.hasRemaining()) {
+                if (inflater.inflate(out) == 0 && (inflater.finished() || inflater.needsDictionary())) {
+                    break;
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Wrong deflate data. " + e.getMessage());
+        }
+
+        if (chunk.hasRemaining()) {
+            throw new IOException("Deflate chunk is bigger than its raw length.");
+        }
+    }
+
+    @Override
+    public void close() {
+        inflater.end();
+    }
+}
@@ -0,0 +1,24 @@
+package com.bsuir.spolks.compress;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Decoder of compressed chunks of one transfer.
+ */
+public interface IDecompressor {
+
+    /**
+     * Decompress one chunk.
+     *
+     * @param chunk compressed bytes, from position to limit
+     * @param out buffer to put raw bytes to, it has room for the whole chunk
+     * @throws IOException if the chunk is corrupted
+     */
+    void decompress(ByteBuffer chunk, ByteBuffer out) throws IOException;
+
+    /**
+     * Free resources of the decoder.
+     */
+    void close();
+}
@@ -0,0 +1,36 @@
+package com.bsuir.spolks.compress;
+
+import org.iq80.snappy.CorruptionException;
+import org.iq80.snappy.Snappy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Snappy, every chunk is a separate block. It decodes several
+ * times faster than deflate at a lower ratio.
+ */
+final class SnappyDecompressor implements IDecompressor {
+
+    @Override
+    public void decompress(ByteBuffer chunk, ByteBuffer out) throws IOException {
+        try {
+            final byte[] input = chunk.array();
+            final int offset = chunk.arrayOffset() + chunk.position();
+
+            if (Snappy.getUncompressedLength(input, offset) > out.remaining()) {
+                throw new IOException("Snappy chunk is bigger than its raw length.");
+            }
+
+            final int count = Snappy.uncompress(input, offset, chunk.remaining(), out.array(), out.arrayOffset() + out.position());
+            chunk.position(chunk.limit());
+            out.position(out.position() + count);
+        } catch (CorruptionException e) {
+            throw new IOException("Wrong snappy data. " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void close() {
+    }
+}
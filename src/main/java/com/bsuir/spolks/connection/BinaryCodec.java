@@ -0,0 +1,273 @@
+package com.bsuir.spolks.connection;
+
+import com.bsuir.spolks.command.CommandType;
+import com.bsuir.spolks.command.ICommand;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Binary format of control messages. Every message is
+ * [varint length][byte kind][body], where the length counts the kind and the body.
+ * <p>
+ * A TEXT body is UTF-8 text. A COMMAND body is
+ * [varint opcode][varint count of arguments] and then every argument as
+ * [varint token id][byte type][value]. Token id 0 is followed by the token
+ * name as a string. A FLAG has no value, a NUMBER is an unsigned varint and
+ * a STRING is [varint length][UTF-8 bytes].
+ */
+public final class BinaryCodec implements IMessageCodec {
+
+    public static final BinaryCodec INSTANCE = new BinaryCodec();
+
+    static final byte TEXT = 0;
+    static final byte COMMAND = 1;
+
+    static final byte FLAG = 0;
+    static final byte NUMBER = 1;
+    static final byte STRING = 2;
+
+    private static final int MAX_MESSAGE_SIZE = 16 * 1024 * 1024;
+    private static final int MAX_NUMBER_LENGTH = 18;
+
+    /**
+     * Ids of the tokens sent to the server. Index in the array is the id,
+     * so new tokens are appended to the end.
+     */
+    private static final String[] TOKENS = {
+            null, "path", "name", "content", "verify", "zerocopy", "mmap", "streams", "background", "priority", "compress",
+            "count", "size", "pipeline", "samples", "workers", "delta", "help", "ip", "mux", "binary", "id", "all",
+            "limit", "reset", "force", "sessions", "duration", "rate", "mix"
+    };
+
+    private static final Map<String, Integer> TOKEN_IDS = new HashMap<>();
+
+    static {
+        for (int i = 1; i < TOKENS.length; i++) {
+            TOKEN_IDS.put(TOKENS[i], i);
+        }
+    }
+
+    private BinaryCodec() {
+    }
+
+    @Override
+    public void writeMessage(DataOutputStream out, String message) throws IOException {
+        Frame frame = new Frame(message.length() + 16);
+        frame.write(TEXT);
+        frame.writeText(message);
+        frame.writeTo(out);
+    }
+
+    @Override
+    public void writeCommand(DataOutputStream out, ICommand command) throws IOException {
+        final String name = command.getName();
+        final CommandType type = CommandType.find(name, 0, name.length());
+
+        if (type == null) {
+            throw new IOException("Command '" + name + "' has no opcode.");
+        }
+
+        Frame frame = new Frame(64);
+        frame.write(COMMAND);
+        frame.writeVarint(type.getOpcode());
+        frame.writeVarint(command.getTokens().size());
+
+        for (Map.Entry<String, String> token : command.getTokens().entrySet()) {
+            final Integer id = TOKEN_IDS.get(token.getKey());
+
+            if (id != null) {
+                frame.writeVarint(id);
+            } else {
+                frame.writeVarint(0);
+                frame.writeString(token.getKey());
+            }
+
+            final String value = token.getValue();
+            if (value == null) {
+                frame.write(FLAG);
+            } else if (isNumber(value)) {
+                frame.write(NUMBER);
+                frame.writeVarint(Long.parseLong(value));
+            } else {
+                frame.write(STRING);
+                frame.writeString(value);
+            }
+        }
+
+        frame.writeTo(out);
+    }
+
+    @Override
+    public String readMessage(DataInputStream in) throws IOException {
+        final int length = (int) readVarint(in);
+
+        if (length < 1 || length > MAX_MESSAGE_SIZE) {
+            throw new IOException("Wrong message length: " + length);
+        }
+
+        final byte kind = in.readByte();
+        byte[] body = new byte[length - 1];
+        in.readFully(body);
+
+        if (kind != TEXT) {
+            throw new IOException("Unexpected message kind: " + kind);
+        }
+
+        return new String(body, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Read an unsigned LEB128 varint.
+     *
+     * @param in input
+     * @return value
+     * @throws IOException
+     */
+    static long readVarint(DataInputStream in) throws IOException {
+        long value = 0;
+
+        for (int shift = 0; shift < Long.SIZE; shift += 7) {
+            final byte b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+
+        throw new IOException("Varint is too long.");
+    }
+
+    /**
+     * Check if the value is sent as a number. Values with leading
+     * zeros stay strings, so they are read back the same.
+     *
+     * @param value token value
+     * @return boolean
+     */
+    private static boolean isNumber(String value) {
+        final int length = value.length();
+
+        if (length == 0 || length > MAX_NUMBER_LENGTH || (value.charAt(0) == '0' && length > 1)) {
+            return false;
+        }
+
+        for (int i = 0; i < length; i++) {
+            final char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Growable byte array which is written to the stream at once,
+     * because the socket streams are not buffered. Space for the
+     * longest length prefix is reserved before the body.
+     */
+    private static final class Frame {
+        private static final int PREFIX_SIZE = 5;
+
+        private byte[] buffer;
+        private int size = PREFIX_SIZE;
+
+        Frame(int capacity) {
+            buffer = new byte[PREFIX_SIZE + capacity];
+        }
+
+        void write(int b) {
+            ensure(1);
+            buffer[size++] = (byte) b;
+        }
+
+        void write(byte[] b) {
+            ensure(b.length);
+            System.arraycopy(b, 0, buffer, size, b.length);
+            size += b.length;
+        }
+
+        void writeVarint(long value) {
+            ensure(10);
+
+            while ((value & ~0x7FL) != 0) {
+                buffer[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[size++] = (byte) value;
+        }
+
+        void writeString(String value) {
+            if (isAscii(value)) {
+                writeVarint(value.length());
+                writeAscii(value);
+            } else {
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                writeVarint(bytes.length);
+                write(bytes);
+            }
+        }
+
+        /**
+         * Write text which lasts to the end of the frame, so it has no length.
+         */
+        void writeText(String value) {
+            if (isAscii(value)) {
+                writeAscii(value);
+            } else {
+                write(value.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        /**
+         * Put the body length before the body and write the frame.
+         */
+        void writeTo(DataOutputStream out) throws IOException {
+            int length = size - PREFIX_SIZE;
+            int prefix = 1;
+            while ((length >>> (7 * prefix)) != 0) {
+                prefix++;
+            }
+
+            int start = PREFIX_SIZE - prefix;
+            for (int i = start; i < PREFIX_SIZE - 1; i++) {
+                buffer[i] = (byte) ((length & 0x7F) | 0x80);
+                length >>>= 7;
+            }
+            buffer[PREFIX_SIZE - 1] = (byte) length;
+
+            out.write(buffer, start, size - start);
+        }
+
+        private void writeAscii(String value) {
+            final int length = value.length();
+            ensure(length);
+
+            for (int i = 0; i < length; i++) {
+                buffer[size++] = (byte) value.charAt(i);
+            }
+        }
+
+        private static boolean isAscii(String value) {
+            for (int i = 0; i < value.length(); i++) {
+                if (value.charAt(i) >= 0x80) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void ensure(int count) {
+            if (size + count > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + count));
+            }
+        }
+    }
+}
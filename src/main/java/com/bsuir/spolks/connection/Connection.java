@@ -1,13 +1,22 @@
 package com.bsuir.spolks.connection;
 
+import com.bsuir.spolks.command.ICommand;
 import com.bsuir.spolks.controller.Controller;
+import com.bsuir.spolks.stats.Statistics;
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.io.*;
+import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class Connection {
 
@@ -16,18 +25,52 @@ public class Connection {
      */
     private static final Logger LOGGER = LogManager.getLogger();
 
-    private static final int PORT = 9999;
+    /**
+     * Port of the server. The spolks.port property changes it, e.g. for the stand-in server of the tests.
+     */
+    private static final int PORT = Integer.getInteger("spolks.port", 9999);
+
+    private static final String MULTIPLEX = "multiplex";
+    private static final String BINARY = "binary";
+
+    private static final String SESSION = "session";
+    private static final int SESSION_TIMEOUT = 1000;
+
+    private static final String RTT_PROBE = "echo -content='rtt'";
+    private static final int RTT_SAMPLES = 3;
+
+    /**
+     * Servers which have accepted the session request or refused it. A server
+     * which has not answered in time is remembered as a refusing one, so later
+     * connections to it do not wait for the timeout again.
+     */
+    private static final Map<String, Boolean> SESSION_SERVERS = new ConcurrentHashMap<>();
 
     /**
      * Default serverIP of server.
      */
     private String serverIP = "192.168.1.2";
 
+    private SocketChannel channel;
     private Socket socket;
 
     private DataOutputStream os;
     private DataInputStream is;
 
+    private IMessageCodec codec = TextCodec.INSTANCE;
+    private SocketTuner tuner;
+
+    private MultiplexedTransport transport;
+    private MultiplexedStream stream;
+
+    private final AtomicLong bytesIn = new AtomicLong();
+    private final AtomicLong bytesOut = new AtomicLong();
+
+    private boolean standalone;
+    private String clientId;
+
+    private volatile boolean broken;
+
     /**
      * Default constructor.
      */
@@ -43,6 +86,33 @@ public class Connection {
         this.serverIP = serverIP;
     }
 
+    /**
+     * Mark the connection as one of many the client opens on its own, as
+     * load sessions do. Such a connection does not log its options and logs
+     * its errors only for debugging. Its throughput is not used to tune the
+     * socket of the server. Must be called before connect().
+     *
+     * @param standalone boolean
+     */
+    public void setStandalone(boolean standalone) {
+        this.standalone = standalone;
+    }
+
+    /**
+     * Set uuid of the client. The connection sends it to the server right
+     * after connecting, so the server can tell a restored connection of the
+     * client from a new client. Must be called before connect().
+     *
+     * @param clientId uuid
+     */
+    public void setClientId(String clientId) {
+        this.clientId = clientId;
+    }
+
+    public String getClientId() {
+        return clientId;
+    }
+
     /**
      * Connect to server.
      *
@@ -50,22 +120,115 @@ public class Connection {
      */
     public boolean connect() {
         try {
-            socket = new Socket(serverIP, PORT);
-            socket.setKeepAlive(true);
-            socket.setReuseAddress(true);
-            LOGGER.log(Level.INFO, "Connected to server.");
+            open();
+
+            if (clientId != null && !openSession()) {
+                // A late answer would be read as the answer to the next request, so the socket is dropped.
+                socket.close();
+                open();
+            }
 
-            this.initStream();
+            if (!standalone) {
+                LOGGER.log(Level.INFO, "Connected to server.");
+                tuner.logOptions();
+            }
             return true;
         } catch (SocketException e) {
-            LOGGER.log(Level.ERROR, e.getMessage());
+            LOGGER.log(standalone ? Level.DEBUG : Level.ERROR, e.getMessage());
             return false;
         } catch (IOException e) {
-            LOGGER.log(Level.ERROR, "Couldn't connect to server. " + e.getMessage());
+            LOGGER.log(standalone ? Level.DEBUG : Level.ERROR, "Couldn't connect to server. " + e.getMessage());
+            return false;
+        }
+    }
+
+    private void open() throws IOException {
+        channel = SocketChannel.open();
+        socket = channel.socket();
+        socket.setKeepAlive(true);
+        socket.setReuseAddress(true);
+
+        tuner = new SocketTuner(socket, serverIP);
+        tuner.configure();
+
+        channel.connect(new InetSocketAddress(serverIP, PORT));
+        this.initStream(socket.getInputStream(), socket.getOutputStream());
+    }
+
+    /**
+     * Introduce the client by its uuid. The request is sent in the text
+     * protocol; a server which refuses it or does not answer in time is
+     * remembered and is not asked again.
+     *
+     * @return false if the server has not answered in time and the connection must be opened again
+     * @throws IOException if the request cannot be sent or the answer cannot be read
+     */
+    private boolean openSession() throws IOException {
+        if (Boolean.FALSE.equals(SESSION_SERVERS.get(serverIP))) {
+            return true;
+        }
+
+        codec.writeMessage(os, SESSION + " " + clientId);
+        socket.setSoTimeout(SESSION_TIMEOUT);
+
+        try {
+            final boolean accepted = SESSION.equals(codec.readMessage(is));
+            SESSION_SERVERS.put(serverIP, accepted);
+            LOGGER.log(Level.DEBUG, "Session " + clientId + (accepted ? " is accepted." : " is refused."));
+            return true;
+        } catch (SocketTimeoutException e) {
+            SESSION_SERVERS.put(serverIP, false);
+            LOGGER.log(Level.DEBUG, "Server has not answered the session request, the connection is opened without it.");
             return false;
+        } finally {
+            socket.setSoTimeout(0);
         }
     }
 
+    /**
+     * Open a new connection to the same server with the same uuid
+     * and protocol. It is used to restore a broken connection.
+     *
+     * @return connected connection or null
+     */
+    public Connection reopen() {
+        Connection connection = new Connection(serverIP);
+        connection.standalone = standalone;
+        connection.clientId = clientId;
+
+        if (!connection.connect()) {
+            return null;
+        }
+
+        if (connection.isBroken()
+                || (isBinary() && !connection.enableBinaryProtocol())
+                || (isMultiplexed() && !connection.enableMultiplexing())) {
+            connection.release();
+            return null;
+        }
+
+        connection.tuner.addRttSample(tuner.getRttNanos());
+        return connection;
+    }
+
+    /**
+     * Mark the connection as unusable, e.g. when a transfer over it
+     * has stopped in the middle of data.
+     */
+    public void markBroken() {
+        broken = true;
+    }
+
+    /**
+     * Check if an exchange over the connection has failed,
+     * or its multiplexed transport is closed.
+     *
+     * @return boolean
+     */
+    public boolean isBroken() {
+        return broken || (transport != null && !transport.isOpen());
+    }
+
     /**
      * Send message to server.
      *
@@ -74,15 +237,44 @@ public class Connection {
      */
     public boolean sendMessage(String data) {
         try {
-            os.writeUTF(data);
+            codec.writeMessage(os, data);
             return true;
-        } catch (SocketException e) {
-            System.out.println();
-            LOGGER.log(Level.ERROR, e.getMessage());
-            System.exit(0);
-            return  false;
         } catch (IOException e) {
-            LOGGER.log(Level.ERROR, "Couldn't send message. " + e.getMessage());
+            fail("Couldn't send message. ", e);
+            return false;
+        }
+    }
+
+    /**
+     * Send command to server. The text protocol sends the typed line,
+     * the binary one sends the opcode and the typed tokens.
+     *
+     * @param command command to send
+     * @return boolean
+     */
+    public boolean sendCommand(ICommand command) {
+        try {
+            codec.writeCommand(os, command);
+            return true;
+        } catch (IOException e) {
+            fail("Couldn't send command. ", e);
+            return false;
+        }
+    }
+
+    /**
+     * Send raw bytes after a control message, e.g. the signature of a delta download.
+     *
+     * @param data bytes to send
+     * @param length count of bytes from the start of the array
+     * @return boolean
+     */
+    public boolean send(byte[] data, int length) {
+        try {
+            os.write(data, 0, length);
+            return true;
+        } catch (IOException e) {
+            fail("Couldn't send data. ", e);
             return false;
         }
     }
@@ -92,32 +284,191 @@ public class Connection {
      */
     public String receive() {
         try {
-            return is.readUTF();
-        } catch (SocketException e) {
-            System.out.println();
-            LOGGER.log(Level.ERROR, e.getMessage());
-            System.exit(0);
-            return  null;
+            return codec.readMessage(is);
         } catch (IOException e) {
-            LOGGER.log(Level.ERROR, "Error: " + e.getMessage());
+            fail("Error: ", e);
             return null;
         }
     }
 
     public int receive(byte[] buffer) {
+        return receive(buffer, buffer.length);
+    }
+
+    /**
+     * Receive no more than length bytes, so data which
+     * follows them is left for the next receive.
+     *
+     * @param buffer
+     * @param length
+     * @return count of received bytes or -1
+     */
+    public int receive(byte[] buffer, int length) {
         try {
-            return is.read(buffer);
-        } catch (SocketException e) {
-            System.out.println();
-            LOGGER.log(Level.ERROR, e.getMessage());
-            System.exit(0);
-            return  0;
+            final int count = is.read(buffer, 0, length);
+
+            if (count < 0) {
+                broken = true;
+            }
+            return count;
         } catch (IOException e) {
-            LOGGER.log(Level.ERROR, "Error: " + e.getMessage());
-            return 0;
+            fail("Error: ", e);
+            return -1;
+        }
+    }
+
+    /**
+     * Receive bytes into the remaining space of the buffer. A plain
+     * connection reads the socket channel, a stream copies its frames.
+     *
+     * @param buffer buffer, pooled direct buffers are read without a copy
+     * @return count of received bytes or -1
+     */
+    public int receive(ByteBuffer buffer) {
+        try {
+            final int count = stream != null ? stream.read(buffer) : channel.read(buffer);
+
+            if (count > 0) {
+                addBytesIn(count);
+            } else if (count < 0) {
+                broken = true;
+            }
+            return count;
+        } catch (IOException e) {
+            fail("Error: ", e);
+            return -1;
         }
     }
 
+    /**
+     * Get the blocking channel which backs the socket.
+     * Streams are not buffered, so the channel can be read
+     * directly after the last control message.
+     *
+     * @return socket channel or null if the connection is multiplexed
+     */
+    public SocketChannel getChannel() {
+        return transport == null ? channel : null;
+    }
+
+    /**
+     * Ask the server to switch the connection to multiplexed frames.
+     * After that the connection works over its own logical stream
+     * and more streams can be opened with openStream().
+     *
+     * @return boolean
+     */
+    public boolean enableMultiplexing() {
+        if (!sendMessage(MULTIPLEX) || !MULTIPLEX.equals(receive())) {
+            LOGGER.log(Level.WARN, "Server does not support multiplexing.");
+            return false;
+        }
+
+        try {
+            transport = new MultiplexedTransport(channel);
+            stream = transport.openStream();
+            initStream(stream.getInputStream(), stream.getOutputStream());
+
+            LOGGER.log(Level.INFO, "Multiplexing is enabled.");
+            return true;
+        } catch (IOException e) {
+            LOGGER.log(Level.ERROR, "Couldn't enable multiplexing. " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Measure RTT with a few echo round trips for the socket tuner.
+     * Must be called before the protocol is switched.
+     */
+    public void measureRtt() {
+        for (int i = 0; i < RTT_SAMPLES; i++) {
+            final long startTime = System.nanoTime();
+
+            if (!sendMessage(RTT_PROBE) || receive() == null) {
+                return;
+            }
+            tuner.addRttSample(System.nanoTime() - startTime);
+        }
+
+        LOGGER.log(Level.INFO, String.format("RTT: %.3f ms", tuner.getRttNanos() / 1e6));
+    }
+
+    /**
+     * Get tuner of the socket which backs the connection.
+     *
+     * @return tuner
+     */
+    public SocketTuner getTuner() {
+        return tuner;
+    }
+
+    /**
+     * Ask the server to switch the connection to the binary protocol.
+     * The request and the answer are sent in the text protocol,
+     * so a server which does not know it just refuses.
+     *
+     * @return boolean
+     */
+    public boolean enableBinaryProtocol() {
+        if (!sendMessage(BINARY) || !BINARY.equals(receive())) {
+            LOGGER.log(Level.WARN, "Server does not support the binary protocol. The text protocol is used.");
+            return false;
+        }
+
+        codec = BinaryCodec.INSTANCE;
+        LOGGER.log(standalone ? Level.DEBUG : Level.INFO, "Binary protocol is enabled.");
+        return true;
+    }
+
+    /**
+     * Check if the connection uses the binary protocol.
+     *
+     * @return boolean
+     */
+    public boolean isBinary() {
+        return codec == BinaryCodec.INSTANCE;
+    }
+
+    /**
+     * Check if the connection works over a multiplexed transport.
+     *
+     * @return boolean
+     */
+    public boolean isMultiplexed() {
+        return transport != null;
+    }
+
+    /**
+     * Open one more logical stream over the same multiplexed transport.
+     *
+     * @return connection of the new stream
+     * @throws IOException if the connection is not multiplexed or is closed
+     */
+    public Connection openStream() throws IOException {
+        if (transport == null) {
+            throw new IOException("Connection is not multiplexed.");
+        }
+
+        Connection connection = new Connection(serverIP);
+        connection.clientId = clientId;
+        connection.codec = codec;
+        connection.tuner = tuner;
+        connection.transport = transport;
+        connection.stream = transport.openStream();
+        connection.initStream(connection.stream.getInputStream(), connection.stream.getOutputStream());
+        return connection;
+    }
+
+    /**
+     * Get server ip.
+     *
+     * @return server ip
+     */
+    public String getServerIP() {
+        return serverIP;
+    }
+
     /**
      * Close connection.
      */
@@ -127,6 +478,9 @@ public class Connection {
             os.close();
             removeUUID();
 
+            if (transport != null) {
+                transport.close();
+            }
             socket.close();
             Controller.getInstance().setConnection(null);
         } catch (IOException e) {
@@ -134,10 +488,94 @@ public class Connection {
         }
     }
 
+    /**
+     * Close an auxiliary connection. Unlike close() it keeps
+     * the client uuid and the connection of the controller.
+     * For a stream of a multiplexed connection only the stream is closed.
+     */
+    public void release() {
+        try {
+            is.close();
+            os.close();
+
+            if (socket == null) {
+                stream.close();
+                return;
+            }
+
+            if (transport != null) {
+                transport.close();
+            }
+            socket.close();
+        } catch (IOException e) {
+            LOGGER.log(Level.ERROR, "Error: " + e.getMessage());
+        }
+    }
+
+
+    /**
+     * Account bytes which are received past the streams, straight from the channel.
+     *
+     * @param count count of received bytes
+     */
+    public void addBytesIn(long count) {
+        if (!standalone) {
+            tuner.received(count);
+        }
+        bytesIn.addAndGet(count);
+        Statistics.getInstance().addBytesIn(count);
+    }
+
+    private void addBytesOut(long count) {
+        bytesOut.addAndGet(count);
+        Statistics.getInstance().addBytesOut(count);
+    }
+
+    /**
+     * Get count of bytes received over this connection.
+     *
+     * @return bytes in
+     */
+    public long getBytesIn() {
+        return bytesIn.get();
+    }
+
+    /**
+     * Get count of bytes sent over this connection.
+     *
+     * @return bytes out
+     */
+    public long getBytesOut() {
+        return bytesOut.get();
+    }
+
+    /**
+     * Clear traffic counters of this connection.
+     */
+    public void resetTraffic() {
+        bytesIn.set(0);
+        bytesOut.set(0);
+    }
+
+    private void initStream(InputStream input, OutputStream output) {
+        is = new DataInputStream(new CountingInputStream(input, this::addBytesIn));
+        os = new DataOutputStream(new CountingOutputStream(output, this::addBytesOut));
+    }
+
+    /**
+     * Mark the connection as broken after a failed exchange. An interrupted
+     * read leaves the connection usable.
+     *
+     * @param message what has failed
+     * @param e error
+     */
+    private void fail(String message, IOException e) {
+        if (!(e instanceof InterruptedIOException)) {
+            broken = true;
+        }
 
-    private void initStream() throws IOException {
-        is = new DataInputStream(socket.getInputStream());
-        os = new DataOutputStream(socket.getOutputStream());
+        LOGGER.log(standalone ? Level.DEBUG : Level.ERROR, message
+                + (e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName()));
     }
 
     private void removeUUID() {
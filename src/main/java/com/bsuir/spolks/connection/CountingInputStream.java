@@ -0,0 +1,37 @@
+package com.bsuir.spolks.connection;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.function.LongConsumer;
+
+/**
+ * Input stream which reports count of every read.
+ */
+class CountingInputStream extends FilterInputStream {
+
+    private final LongConsumer counter;
+
+    CountingInputStream(InputStream in, LongConsumer counter) {
+        super(in);
+        this.counter = counter;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b != -1) {
+            counter.accept(1);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int count = in.read(b, off, len);
+        if (count > 0) {
+            counter.accept(count);
+        }
+        return count;
+    }
+}
@@ -0,0 +1,40 @@
+package com.bsuir.spolks.connection;
+
+import com.bsuir.spolks.command.ICommand;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Wire format of control messages.
+ */
+public interface IMessageCodec {
+
+    /**
+     * Write a text message.
+     *
+     * @param out output
+     * @param message message
+     * @throws IOException
+     */
+    void writeMessage(DataOutputStream out, String message) throws IOException;
+
+    /**
+     * Write a command request.
+     *
+     * @param out output
+     * @param command command with its tokens
+     * @throws IOException
+     */
+    void writeCommand(DataOutputStream out, ICommand command) throws IOException;
+
+    /**
+     * Read a text message.
+     *
+     * @param in input
+     * @return message
+     * @throws IOException
+     */
+    String readMessage(DataInputStream in) throws IOException;
+}
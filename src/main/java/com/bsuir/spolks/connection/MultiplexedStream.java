@@ -0,0 +1,243 @@
+package com.bsuir.spolks.connection;
+
+import com.bsuir.spolks.buffer.BufferPool;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * One logical stream of a multiplexed transport,
+ * seen as a pair of blocking byte streams.
+ */
+class MultiplexedStream {
+
+    private static final ByteBuffer END_OF_STREAM = ByteBuffer.allocate(0);
+
+    private final int id;
+    private final MultiplexedTransport transport;
+
+    /**
+     * Received payloads borrowed from the buffer pool.
+     * They are returned to the pool when they are read out.
+     */
+    private final BlockingQueue<ByteBuffer> inbound = new LinkedBlockingQueue<>();
+    private final Queue<ByteBuffer> outbound = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    private final StreamInput inputStream = new StreamInput();
+    private final OutputStream outputStream = new StreamOutput();
+
+    private volatile boolean closed;
+
+    MultiplexedStream(int id, MultiplexedTransport transport) {
+        this.id = id;
+        this.transport = transport;
+    }
+
+    int getId() {
+        return id;
+    }
+
+    InputStream getInputStream() {
+        return inputStream;
+    }
+
+    OutputStream getOutputStream() {
+        return outputStream;
+    }
+
+    /**
+     * Read received bytes into the buffer.
+     *
+     * @param dst buffer
+     * @return count of bytes or -1 at the end of stream
+     * @throws IOException
+     */
+    int read(ByteBuffer dst) throws IOException {
+        return inputStream.read(dst);
+    }
+
+    /**
+     * Close the stream on the client side. Payloads which are not read are released.
+     */
+    synchronized void close() {
+        if (!closed) {
+            closed = true;
+            transport.sendClose(id);
+        }
+
+        ByteBuffer payload;
+        while ((payload = inbound.poll()) != null) {
+            if (payload != END_OF_STREAM) {
+                BufferPool.getInstance().release(payload);
+            }
+        }
+        inputStream.releaseChunk();
+        inbound.add(END_OF_STREAM);
+    }
+
+    /**
+     * Called by the I/O thread when a data frame is received.
+     *
+     * @param payload frame payload borrowed from the buffer pool
+     */
+    synchronized void received(ByteBuffer payload) {
+        if (payload.hasRemaining() && !closed) {
+            inbound.add(payload);
+        } else {
+            BufferPool.getInstance().release(payload);
+        }
+    }
+
+    /**
+     * Called by the I/O thread when the server closes the stream.
+     */
+    synchronized void remoteClosed() {
+        closed = true;
+        inbound.add(END_OF_STREAM);
+    }
+
+    boolean hasFrames() {
+        return !outbound.isEmpty();
+    }
+
+    ByteBuffer pollFrame() {
+        return outbound.poll();
+    }
+
+    boolean markScheduled() {
+        return scheduled.compareAndSet(false, true);
+    }
+
+    void unmarkScheduled() {
+        scheduled.set(false);
+    }
+
+    private class StreamInput extends InputStream {
+
+        private ByteBuffer chunk;
+        private int consumed;
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+
+            if (!nextChunk()) {
+                return -1;
+            }
+
+            final int count = Math.min(len, chunk.remaining());
+            chunk.get(b, off, count);
+            consumed(count);
+
+            return count;
+        }
+
+        int read(ByteBuffer dst) throws IOException {
+            if (!dst.hasRemaining()) {
+                return 0;
+            }
+
+            if (!nextChunk()) {
+                return -1;
+            }
+
+            final int count = Math.min(dst.remaining(), chunk.remaining());
+            dst.put(chunk.array(), chunk.arrayOffset() + chunk.position(), count);
+            chunk.position(chunk.position() + count);
+            consumed(count);
+
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return chunk == null ? 0 : chunk.remaining();
+        }
+
+        void releaseChunk() {
+            if (chunk != null && chunk != END_OF_STREAM) {
+                BufferPool.getInstance().release(chunk);
+            }
+            chunk = null;
+        }
+
+        /**
+         * Make sure the current chunk has bytes, taking the next one if needed.
+         *
+         * @return false at the end of stream
+         * @throws IOException
+         */
+        private boolean nextChunk() throws IOException {
+            if (chunk != null && chunk.hasRemaining()) {
+                return true;
+            }
+
+            releaseChunk();
+
+            try {
+                chunk = inbound.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Reading of stream " + id + " is interrupted.");
+            }
+
+            if (chunk == END_OF_STREAM) {
+                inbound.add(END_OF_STREAM);
+                return false;
+            }
+            return true;
+        }
+
+        private void consumed(int count) {
+            consumed += count;
+            if (consumed >= MultiplexedTransport.WINDOW_SIZE / 2) {
+                transport.sendWindowUpdate(id, consumed);
+                consumed = 0;
+            }
+        }
+    }
+
+    private class StreamOutput extends OutputStream {
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (closed || !transport.isOpen()) {
+                throw new IOException("Stream " + id + " is closed.");
+            }
+
+            while (len > 0) {
+                final int length = Math.min(len, MultiplexedTransport.FRAME_SIZE);
+                ByteBuffer frame = MultiplexedTransport.frame(MultiplexedTransport.DATA, id, length);
+                frame.put(b, off, length).flip();
+                outbound.add(frame);
+
+                off += length;
+                len -= length;
+            }
+
+            transport.schedule(MultiplexedStream.this);
+        }
+    }
+}
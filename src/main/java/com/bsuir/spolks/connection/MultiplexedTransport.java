@@ -0,0 +1,354 @@
+package com.bsuir.spolks.connection;
+
+import com.bsuir.spolks.buffer.BufferPool;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Carries several logical streams over one non-blocking socket channel.
+ * <p>
+ * Every frame is [int length][byte type][int stream id][payload]. DATA frames
+ * carry stream bytes, WINDOW_UPDATE frames return receive credit to the server
+ * and CLOSE frames end a stream. A single I/O thread demultiplexes incoming
+ * frames and writes outgoing ones round-robin, one frame per stream in turn,
+ * so a bulk stream cannot hold back small control messages.
+ */
+public class MultiplexedTransport implements Closeable {
+
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    static final byte DATA = 0;
+    static final byte WINDOW_UPDATE = 1;
+    static final byte CLOSE = 2;
+
+    static final int HEADER_SIZE = 4 + 1 + 4;
+    static final int FRAME_SIZE = 16 * 1024;
+    static final int WINDOW_SIZE = 256 * 1024;
+
+    private static final int READ_BUFFER_SIZE = 4 * (HEADER_SIZE + FRAME_SIZE);
+
+    private final SocketChannel channel;
+    private final Selector selector;
+
+    private final Map<Integer, MultiplexedStream> streams = new ConcurrentHashMap<>();
+    private final AtomicInteger nextStreamId = new AtomicInteger(1);
+
+    /**
+     * Streams which have frames to send, in round-robin order.
+     */
+    private final Queue<MultiplexedStream> writeQueue = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Window updates and close frames, sent ahead of data.
+     */
+    private final Queue<ByteBuffer> controlQueue = new ConcurrentLinkedQueue<>();
+
+    private final ByteBuffer readBuffer = BufferPool.getInstance().acquire(READ_BUFFER_SIZE);
+    private ByteBuffer currentFrame;
+
+    private volatile boolean open = true;
+
+    /**
+     * Switch the connected channel to non-blocking mode and start the I/O thread.
+     *
+     * @param channel connected channel, its streams must not be used afterwards
+     * @throws IOException
+     */
+    MultiplexedTransport(SocketChannel channel) throws IOException {
+        this.channel = channel;
+        this.selector = Selector.open();
+
+        channel.configureBlocking(false);
+        channel.register(selector, SelectionKey.OP_READ);
+
+        Thread ioThread = new Thread(this::run, "multiplexer");
+        ioThread.setDaemon(true);
+        ioThread.start();
+    }
+
+    /**
+     * Open a new logical stream.
+     *
+     * @return stream
+     * @throws IOException
+     */
+    MultiplexedStream openStream() throws IOException {
+        if (!open) {
+            throw new IOException("Multiplexed connection is closed.");
+        }
+
+        final int id = nextStreamId.getAndAdd(2);
+        MultiplexedStream stream = new MultiplexedStream(id, this);
+        streams.put(id, stream);
+        return stream;
+    }
+
+    /**
+     * Check if the transport is still running.
+     *
+     * @return boolean
+     */
+    public boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * Close the channel and stop the I/O thread. All streams get end of data.
+     */
+    @Override
+    public void close() {
+        if (!open) {
+            return;
+        }
+
+        open = false;
+        selector.wakeup();
+
+        try {
+            channel.close();
+        } catch (IOException e) {
+            LOGGER.log(Level.ERROR, "Error: " + e.getMessage());
+        }
+
+        streams.values().forEach(MultiplexedStream::remoteClosed);
+        streams.clear();
+    }
+
+    /**
+     * Queue the stream to send its frames.
+     *
+     * @param stream stream with pending frames
+     */
+    void schedule(MultiplexedStream stream) {
+        if (stream.markScheduled()) {
+            writeQueue.add(stream);
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Give the server credit to send more bytes on the stream.
+     *
+     * @param streamId stream id
+     * @param credit count of consumed bytes
+     */
+    void sendWindowUpdate(int streamId, int credit) {
+        if (!open) {
+            return;
+        }
+
+        ByteBuffer frame = frame(WINDOW_UPDATE, streamId, 4);
+        frame.putInt(credit).flip();
+        controlQueue.add(frame);
+        selector.wakeup();
+    }
+
+    /**
+     * Tell the server the stream is closed by the client.
+     *
+     * @param streamId stream id
+     */
+    void sendClose(int streamId) {
+        streams.remove(streamId);
+
+        if (!open) {
+            return;
+        }
+
+        ByteBuffer frame = frame(CLOSE, streamId, 0);
+        frame.flip();
+        controlQueue.add(frame);
+        selector.wakeup();
+    }
+
+    /**
+     * Borrow a frame from the buffer pool and write its header.
+     * The frame is returned to the pool when it is sent.
+     *
+     * @param type frame type
+     * @param streamId stream id
+     * @param length payload length
+     * @return frame positioned at the payload
+     */
+    static ByteBuffer frame(byte type, int streamId, int length) {
+        ByteBuffer frame = BufferPool.getInstance().acquireHeap(HEADER_SIZE + length);
+        frame.putInt(length).put(type).putInt(streamId);
+        return frame;
+    }
+
+    private void run() {
+        try {
+            while (open) {
+                SelectionKey key = channel.keyFor(selector);
+                key.interestOps(hasPendingWrites() ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+
+                selector.select();
+                selector.selectedKeys().clear();
+
+                if (!open) {
+                    break;
+                }
+
+                if (key.isReadable()) {
+                    readFrames();
+                }
+                writeFrames();
+            }
+        } catch (IOException e) {
+            if (open) {
+                LOGGER.log(Level.ERROR, "Multiplexed connection failed. " + e.getMessage());
+            }
+        } catch (CancelledKeyException e) {
+            // The channel is closed by close().
+        } finally {
+            close();
+
+            try {
+                selector.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.ERROR, "Error: " + e.getMessage());
+            }
+
+            releaseBuffers();
+        }
+    }
+
+    /**
+     * Return buffers of the stopped transport to the pool.
+     */
+    private void releaseBuffers() {
+        final BufferPool pool = BufferPool.getInstance();
+
+        if (currentFrame != null) {
+            pool.release(currentFrame);
+            currentFrame = null;
+        }
+
+        ByteBuffer frame;
+        while ((frame = controlQueue.poll()) != null) {
+            pool.release(frame);
+        }
+
+        MultiplexedStream stream;
+        while ((stream = writeQueue.poll()) != null) {
+            while ((frame = stream.pollFrame()) != null) {
+                pool.release(frame);
+            }
+        }
+
+        pool.release(readBuffer);
+    }
+
+    private boolean hasPendingWrites() {
+        return currentFrame != null || !controlQueue.isEmpty() || !writeQueue.isEmpty();
+    }
+
+    private void readFrames() throws IOException {
+        if (channel.read(readBuffer) == -1) {
+            throw new IOException("Server closed the connection.");
+        }
+
+        readBuffer.flip();
+
+        while (readBuffer.remaining() >= HEADER_SIZE) {
+            final int length = readBuffer.getInt(readBuffer.position());
+
+            if (length < 0 || length > FRAME_SIZE) {
+                throw new IOException("Wrong frame length: " + length);
+            }
+            if (readBuffer.remaining() < HEADER_SIZE + length) {
+                break;
+            }
+
+            readBuffer.getInt();
+            final byte type = readBuffer.get();
+            final int streamId = readBuffer.getInt();
+            final MultiplexedStream stream = streams.get(streamId);
+
+            switch (type) {
+                case DATA:
+                    if (stream != null) {
+                        ByteBuffer payload = BufferPool.getInstance().acquireHeap(length);
+                        readBuffer.get(payload.array(), payload.arrayOffset(), length);
+                        stream.received(payload);
+                    } else {
+                        readBuffer.position(readBuffer.position() + length);
+                    }
+                    break;
+                case CLOSE:
+                    readBuffer.position(readBuffer.position() + length);
+
+                    if (stream != null) {
+                        streams.remove(streamId);
+                        stream.remoteClosed();
+                    }
+                    break;
+                default:
+                    readBuffer.position(readBuffer.position() + length);
+                    break;
+            }
+        }
+
+        readBuffer.compact();
+    }
+
+    private void writeFrames() throws IOException {
+        while (true) {
+            if (currentFrame == null) {
+                currentFrame = nextFrame();
+
+                if (currentFrame == null) {
+                    return;
+                }
+            }
+
+            channel.write(currentFrame);
+
+            if (currentFrame.hasRemaining()) {
+                return;
+            }
+            BufferPool.getInstance().release(currentFrame);
+            currentFrame = null;
+        }
+    }
+
+    private ByteBuffer nextFrame() {
+        ByteBuffer control = controlQueue.poll();
+        if (control != null) {
+            return control;
+        }
+
+        MultiplexedStream stream = writeQueue.poll();
+        if (stream == null) {
+            return null;
+        }
+
+        ByteBuffer frame = stream.pollFrame();
+        if (stream.hasFrames()) {
+            writeQueue.add(stream);
+        } else {
+            stream.unmarkScheduled();
+
+            // A frame could be added between the checks above.
+            if (stream.hasFrames()) {
+                schedule(stream);
+            }
+        }
+
+        return frame;
+    }
+}
@@ -0,0 +1,60 @@
+package com.bsuir.spolks.connection;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Restores a broken connection with exponential backoff. The delay
+ * doubles after every failed attempt up to the maximum, and a random
+ * part of it is added, so clients cut off together do not come back
+ * at the same moment.
+ */
+public final class Reconnector {
+
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    private static final long INITIAL_DELAY = TimeUnit.MILLISECONDS.toNanos(250);
+    private static final long MAX_DELAY = TimeUnit.SECONDS.toNanos(16);
+    private static final int MAX_ATTEMPTS = 12;
+
+    private Reconnector() {
+    }
+
+    /**
+     * Open a connection like the broken one, trying again with growing delays.
+     *
+     * @param broken broken connection
+     * @return new connection or null if all attempts have failed or the thread is interrupted
+     */
+    public static Connection reconnect(Connection broken) {
+        long delay = INITIAL_DELAY;
+
+        for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+            final long pause = delay + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+            LOGGER.log(Level.WARN, String.format("Connection is lost. Reconnecting in %.1f s (attempt %d of %d).",
+                    pause / 1e9, attempt, MAX_ATTEMPTS));
+
+            try {
+                TimeUnit.NANOSECONDS.sleep(pause);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+
+            Connection connection = broken.reopen();
+            if (connection != null) {
+                LOGGER.log(Level.INFO, "Connection is restored.");
+                return connection;
+            }
+
+            delay = Math.min(MAX_DELAY, delay * 2);
+        }
+
+        LOGGER.log(Level.ERROR, "Cannot restore connection after " + MAX_ATTEMPTS + " attempts.");
+        return null;
+    }
+}
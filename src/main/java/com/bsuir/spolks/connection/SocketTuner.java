@@ -0,0 +1,215 @@
+package com.bsuir.spolks.connection;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Sizes the socket receive buffer and the read size of transfers
+ * by the bandwidth-delay product of the link. RTT comes from echo
+ * round trips, throughput is measured during the first second of
+ * data. On Linux setting SO_RCVBUF turns the kernel auto-tuning of
+ * the socket off and is capped by net.core.rmem_max, so the buffer
+ * is set only if the capped size is larger than the auto-tuning can
+ * reach (net.ipv4.tcp_rmem). The result is remembered for the server,
+ * so next connections start with the tuned receive buffer.
+ */
+public class SocketTuner {
+
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    public static final int DEFAULT_READ_SIZE = 65536;
+
+    private static final int MAX_READ_SIZE = 1024 * 1024;
+    private static final int MAX_RECEIVE_BUFFER = 16 * 1024 * 1024;
+
+    private static final long TUNE_WINDOW = 1000000000L;
+    private static final long TUNE_BYTES = 32L * 1024 * 1024;
+    private static final long MIN_WINDOW_BYTES = 256 * 1024;
+    private static final long IDLE_GAP = 200000000L;
+
+    /**
+     * Largest SO_RCVBUF an application may set, 0 if unknown.
+     */
+    private static final long RMEM_MAX = readKernelValue("/proc/sys/net/core/rmem_max", 0);
+
+    /**
+     * Largest receive buffer the kernel auto-tuning grows to, 0 if unknown or turned off.
+     */
+    private static final long AUTOTUNE_MAX = readKernelValue("/proc/sys/net/ipv4/tcp_moderate_rcvbuf", 0) == 0
+            ? 0 : readKernelValue("/proc/sys/net/ipv4/tcp_rmem", 2);
+
+    /**
+     * Receive buffer and read sizes chosen for the servers.
+     */
+    private static final Map<String, Integer> RECEIVE_BUFFERS = new ConcurrentHashMap<>();
+    private static final Map<String, Integer> READ_SIZES = new ConcurrentHashMap<>();
+
+    private final Socket socket;
+    private final String serverIP;
+
+    private volatile long rttNanos;
+    private volatile int readSize = DEFAULT_READ_SIZE;
+    private volatile boolean tuned;
+
+    private long windowStart;
+    private long windowBytes;
+    private long lastReceive;
+
+    SocketTuner(Socket socket, String serverIP) {
+        this.socket = socket;
+        this.serverIP = serverIP;
+    }
+
+    /**
+     * Set options of the socket before it is connected.
+     *
+     * @throws SocketException
+     */
+    void configure() throws SocketException {
+        socket.setTcpNoDelay(true);
+
+        Integer receiveBuffer = RECEIVE_BUFFERS.get(serverIP);
+        if (receiveBuffer != null) {
+            socket.setReceiveBufferSize(receiveBuffer);
+        }
+
+        Integer knownReadSize = READ_SIZES.get(serverIP);
+        if (knownReadSize != null) {
+            readSize = knownReadSize;
+            tuned = true;
+        }
+    }
+
+    /**
+     * Log options of the connected socket.
+     */
+    void logOptions() {
+        try {
+            LOGGER.log(Level.INFO, "Socket: TCP_NODELAY " + socket.getTcpNoDelay() + ", SO_RCVBUF "
+                    + socket.getReceiveBufferSize() + " bytes, read size " + readSize + " bytes"
+                    + (tuned ? " (tuned before)." : "."));
+        } catch (SocketException e) {
+            LOGGER.log(Level.WARN, "Cannot read socket options. " + e.getMessage());
+        }
+    }
+
+    /**
+     * Add a round trip of a small message. The smallest one is kept as the RTT.
+     *
+     * @param nanos round trip time
+     */
+    public void addRttSample(long nanos) {
+        if (nanos > 0 && (rttNanos == 0 || nanos < rttNanos)) {
+            rttNanos = nanos;
+        }
+    }
+
+    /**
+     * Account received data. Once enough data is measured
+     * the socket is tuned and further calls do nothing.
+     *
+     * @param count count of received bytes
+     */
+    void received(long count) {
+        if (tuned) {
+            return;
+        }
+
+        synchronized (this) {
+            final long now = System.nanoTime();
+
+            if (windowStart == 0 || now - lastReceive > IDLE_GAP) {
+                windowStart = now;
+                windowBytes = 0;
+            } else {
+                windowBytes += count;
+            }
+            lastReceive = now;
+
+            final long elapsed = now - windowStart;
+            if (!tuned && windowBytes >= MIN_WINDOW_BYTES && (elapsed >= TUNE_WINDOW || windowBytes >= TUNE_BYTES)) {
+                tune(windowBytes * 1000000000L / elapsed);
+            }
+        }
+    }
+
+    /**
+     * Get count of bytes a transfer should read at once.
+     *
+     * @return read size
+     */
+    public int getReadSize() {
+        return readSize;
+    }
+
+    public long getRttNanos() {
+        return rttNanos;
+    }
+
+    private void tune(long throughput) {
+        tuned = true;
+
+        if (rttNanos == 0) {
+            LOGGER.log(Level.INFO, "Throughput: " + throughput + " bytes/s. RTT is unknown, socket is not tuned.");
+            return;
+        }
+
+        final long bdp = (long) (throughput * (rttNanos / 1e9));
+        final int wanted = (int) Math.min(MAX_RECEIVE_BUFFER, powerOfTwo(2 * bdp));
+        readSize = (int) Math.max(DEFAULT_READ_SIZE, Math.min(MAX_READ_SIZE, powerOfTwo(bdp / 2)));
+        READ_SIZES.put(serverIP, readSize);
+
+        try {
+            final int allowed = (int) (RMEM_MAX > 0 ? Math.min(wanted, RMEM_MAX) : wanted);
+            final long kernel = Math.max(socket.getReceiveBufferSize(), AUTOTUNE_MAX);
+
+            if (allowed > kernel) {
+                socket.setReceiveBufferSize(allowed);
+                RECEIVE_BUFFERS.put(serverIP, allowed);
+
+                LOGGER.log(Level.INFO, String.format("Tuned: RTT %.3f ms, throughput %d bytes/s, BDP %d bytes, "
+                                + "SO_RCVBUF %d bytes (asked %d, rmem_max %d), read size %d bytes.", rttNanos / 1e6,
+                        throughput, bdp, socket.getReceiveBufferSize(), wanted, RMEM_MAX, readSize));
+            } else {
+                LOGGER.log(Level.INFO, String.format("Tuned: RTT %.3f ms, throughput %d bytes/s, BDP %d bytes, "
+                                + "SO_RCVBUF is left to the kernel up to %d bytes (wanted %d, rmem_max %d), "
+                                + "read size %d bytes.", rttNanos / 1e6, throughput, bdp, kernel, wanted, RMEM_MAX,
+                        readSize));
+            }
+        } catch (SocketException e) {
+            LOGGER.log(Level.WARN, "Cannot tune socket. " + e.getMessage());
+        }
+    }
+
+    /**
+     * Read a number of a kernel setting.
+     *
+     * @param path file in /proc/sys
+     * @param index index of the number in the file
+     * @return value or 0 if the file cannot be read, e.g. not on Linux
+     */
+    private static long readKernelValue(String path, int index) {
+        try {
+            // Files in /proc have no size, so they are read by lines.
+            final String[] values = String.join(" ", Files.readAllLines(Paths.get(path), StandardCharsets.US_ASCII))
+                    .trim().split("\\s+");
+            return Long.parseLong(values[index]);
+        } catch (IOException | RuntimeException e) {
+            return 0;
+        }
+    }
+
+    private static long powerOfTwo(long value) {
+        return value <= 1 ? 1 : Long.highestOneBit(value - 1) << 1;
+    }
+}
@@ -0,0 +1,34 @@
+package com.bsuir.spolks.connection;
+
+import com.bsuir.spolks.command.ICommand;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Original format: every message is written by writeUTF
+ * and a command is sent as the line the user has typed.
+ */
+public final class TextCodec implements IMessageCodec {
+
+    public static final TextCodec INSTANCE = new TextCodec();
+
+    private TextCodec() {
+    }
+
+    @Override
+    public void writeMessage(DataOutputStream out, String message) throws IOException {
+        out.writeUTF(message);
+    }
+
+    @Override
+    public void writeCommand(DataOutputStream out, ICommand command) throws IOException {
+        out.writeUTF(command.getCmd());
+    }
+
+    @Override
+    public String readMessage(DataInputStream in) throws IOException {
+        return in.readUTF();
+    }
+}
@@ -2,15 +2,27 @@ package com.bsuir.spolks.controller;
 
 import com.bsuir.spolks.command.ICommand;
 import com.bsuir.spolks.connection.Connection;
+import com.bsuir.spolks.connection.Reconnector;
 import com.bsuir.spolks.exception.CommandNotFoundException;
 import com.bsuir.spolks.exception.WrongCommandFormatException;
+import com.bsuir.spolks.stats.Statistics;
 import com.bsuir.spolks.util.InputManager;
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongConsumer;
 
 public final class Controller {
 
@@ -34,7 +46,28 @@ public final class Controller {
      */
     private static ReentrantLock lock = new ReentrantLock();
 
-    private Connection connection;
+    /**
+     * Default count of commands which can be executed at the same time.
+     */
+    public static final int DEFAULT_CONCURRENCY = 64;
+
+    private final AtomicReference<Connection> connection = new AtomicReference<>();
+
+    /**
+     * Gives exclusive use of a connection which is not multiplexed.
+     */
+    private final ReentrantLock connectionLock = new ReentrantLock(true);
+
+    /**
+     * Lets only one thread restore the broken connection.
+     */
+    private final ReentrantLock reconnectLock = new ReentrantLock();
+
+    private final ExecutorService executor = createExecutor("command");
+
+    private int concurrency = DEFAULT_CONCURRENCY;
+    private Semaphore permits = new Semaphore(concurrency, true);
+
     private InputManager keyboard;
 
     private Controller() {
@@ -66,18 +99,35 @@ public final class Controller {
     }
 
     /**
-     * Start working controller.
+     * Set count of commands which can be executed at the same time.
+     * Must be called before work().
+     *
+     * @param concurrency count of commands
+     */
+    public void setConcurrency(int concurrency) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("Concurrency should be positive.");
+        }
+
+        this.concurrency = concurrency;
+        this.permits = new Semaphore(concurrency, true);
+    }
+
+    /**
+     * Start working controller. Every command is executed on its own
+     * thread, so the input is not blocked by a long command. Exclusive
+     * commands wait for all running commands and are executed in order.
      */
     public void work() {
         do {
             try {
-                ICommand command = keyboard.getCommand();
-                command.execute();
+                dispatch(keyboard.getCommand(), null);
             } catch (WrongCommandFormatException | CommandNotFoundException e) {
                 LOGGER.log(Level.ERROR, e.getMessage());
             }
         } while (!keyboard.enteredExit());
 
+        shutdown();
         LOGGER.log(Level.INFO, "Program is terminated.");
     }
 
@@ -87,7 +137,7 @@ public final class Controller {
      * @param c connection instance
      */
     public void setConnection(Connection c) {
-        this.connection = c;
+        connection.set(c);
     }
 
     /**
@@ -96,7 +146,216 @@ public final class Controller {
      * @return connection
      */
     public Connection getConnection() {
-        return connection;
+        return connection.get();
+    }
+
+    /**
+     * Get connection for exchange of a single command. A multiplexed
+     * connection gives a new stream, otherwise the opened connection
+     * is locked until it is released.
+     *
+     * @return connection or null if there is no opened connection
+     */
+    public Connection acquireConnection() {
+        Connection c = connection.get();
+
+        if (c != null && c.isBroken()) {
+            c = restoreMainConnection(c);
+        }
+
+        if (c == null) {
+            return null;
+        }
+
+        if (c.isMultiplexed()) {
+            try {
+                return c.openStream();
+            } catch (IOException e) {
+                LOGGER.log(Level.ERROR, "Cannot open stream. " + e.getMessage());
+                return null;
+            }
+        }
+
+        connectionLock.lock();
+
+        // The connection could be closed while waiting for the lock.
+        c = connection.get();
+        if (c == null) {
+            connectionLock.unlock();
+        }
+        return c;
+    }
+
+    /**
+     * Replace a broken connection got from acquireConnection() by a restored
+     * one. The opened connection is reconnected once, other callers with the
+     * same broken connection get the restored one. A caller must still release
+     * the connection it has acquired.
+     *
+     * @param failed broken connection
+     * @return connection for the caller or null if the connection cannot be restored
+     */
+    public Connection restoreConnection(Connection failed) {
+        if (failed.isMultiplexed()) {
+            failed.release();
+        }
+
+        Connection c = connection.get();
+        if (c == null) {
+            return null;
+        }
+
+        if (c.isBroken() || (failed == c && !c.isMultiplexed())) {
+            c.markBroken();
+            c = restoreMainConnection(c);
+        }
+
+        if (c != null && c.isMultiplexed()) {
+            try {
+                return c.openStream();
+            } catch (IOException e) {
+                LOGGER.log(Level.ERROR, "Cannot open stream. " + e.getMessage());
+                return null;
+            }
+        }
+        return c;
+    }
+
+    /**
+     * Reconnect the opened connection unless another thread has done it.
+     *
+     * @param broken broken opened connection
+     * @return restored connection or null
+     */
+    private Connection restoreMainConnection(Connection broken) {
+        reconnectLock.lock();
+
+        try {
+            final Connection current = connection.get();
+            if (current != broken) {
+                return current;
+            }
+
+            Connection restored = Reconnector.reconnect(broken);
+            broken.release();
+
+            if (connection.compareAndSet(broken, restored) && restored == null) {
+                LOGGER.log(Level.ERROR, "You've been disconnected from server.");
+            }
+            return connection.get();
+        } finally {
+            reconnectLock.unlock();
+        }
+    }
+
+    /**
+     * Release connection got from acquireConnection().
+     *
+     * @param c connection
+     */
+    public void releaseConnection(Connection c) {
+        if (c.isMultiplexed()) {
+            c.release();
+        } else if (connectionLock.isHeldByCurrentThread()) {
+            connectionLock.unlock();
+        }
+    }
+
+    /**
+     * Run the command in the order of input: an exclusive command waits for
+     * all running commands on this thread, other commands get their own thread.
+     *
+     * @param command command
+     * @param completion called with the time of the command when it is done, may be null
+     */
+    void dispatch(ICommand command, LongConsumer completion) {
+        if (command.isExclusive()) {
+            permits.acquireUninterruptibly(concurrency);
+            try {
+                executeCommand(command, completion);
+            } finally {
+                permits.release(concurrency);
+            }
+        } else {
+            permits.acquireUninterruptibly();
+            executor.execute(() -> {
+                try {
+                    executeCommand(command, completion);
+                } finally {
+                    permits.release();
+                }
+            });
+        }
+    }
+
+    /**
+     * Wait until all dispatched commands are done.
+     */
+    void awaitCommands() {
+        permits.acquireUninterruptibly(concurrency);
+        permits.release(concurrency);
+    }
+
+    /**
+     * Run commands of a script instead of the typed input.
+     *
+     * @param lines lines of the script
+     * @return count of failed commands
+     */
+    public int runScript(List<String> lines) {
+        final int failed = new ScriptRunner(this).run(lines);
+
+        shutdown();
+        LOGGER.log(Level.INFO, "Script is completed.");
+        return failed;
+    }
+
+    private void executeCommand(ICommand command, LongConsumer completion) {
+        final long startTime = System.nanoTime();
+        try {
+            command.execute();
+        } finally {
+            final long nanos = System.nanoTime() - startTime;
+            Statistics.getInstance().recordCommand(command.getName(), nanos);
+
+            if (completion != null) {
+                completion.accept(nanos);
+            }
+        }
+    }
+
+    private void shutdown() {
+        executor.shutdown();
+
+        try {
+            if (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                LOGGER.log(Level.WARN, "Some commands are not completed.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Create executor with a virtual thread per task when the runtime
+     * supports them (Java 21), otherwise with cached platform threads.
+     *
+     * @param threadName name of platform threads
+     * @return executor
+     */
+    public static ExecutorService createExecutor(String threadName) {
+        try {
+            return (ExecutorService) MethodHandles.publicLookup()
+                    .findStatic(Executors.class, "newVirtualThreadPerTaskExecutor", MethodType.methodType(ExecutorService.class))
+                    .invoke();
+        } catch (Throwable e) {
+            LOGGER.log(Level.DEBUG, "Virtual threads are not available, platform threads are used.");
+            return Executors.newCachedThreadPool(r -> {
+                Thread thread = new Thread(r, threadName);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
     }
 
     /**
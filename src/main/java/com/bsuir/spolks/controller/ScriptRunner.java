@@ -0,0 +1,246 @@
+package com.bsuir.spolks.controller;
+
+import com.bsuir.spolks.command.ICommand;
+import com.bsuir.spolks.connection.Connection;
+import com.bsuir.spolks.exception.CommandNotFoundException;
+import com.bsuir.spolks.exception.WrongCommandFormatException;
+import com.bsuir.spolks.parser.Parser;
+import com.bsuir.spolks.stats.Statistics;
+import com.bsuir.spolks.util.Printer;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Runs a script of commands without the typed input. The whole script
+ * is parsed first. Runs of pipelined commands (plain echo and time) are
+ * sent over the connection without waiting for answers, which are read
+ * in order; other commands are dispatched as typed ones and report if
+ * they have failed. Every command gets one JSON result line with its
+ * line number, status and time.
+ */
+class ScriptRunner {
+
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    /**
+     * Requests which are sent before their answers are received.
+     */
+    private static final int MAX_IN_FLIGHT = 128;
+
+    private static final String COMMENT = "#";
+
+    private static final String OK = "ok";
+    private static final String DONE = "done";
+    private static final String ERROR = "error";
+    private static final String SKIPPED = "skipped";
+
+    private final Controller controller;
+    private final AtomicInteger failed = new AtomicInteger();
+
+    ScriptRunner(Controller controller) {
+        this.controller = controller;
+    }
+
+    /**
+     * Run the script and wait for all its commands.
+     *
+     * @param lines lines of the script, empty lines and lines starting with # are skipped
+     * @return count of failed commands
+     */
+    int run(List<String> lines) {
+        final List<Entry> entries = parse(lines);
+        LOGGER.log(Level.INFO, "Script: " + entries.size() + " commands.");
+
+        int i = 0;
+        while (i < entries.size()) {
+            final Entry entry = entries.get(i);
+
+            if (controller.getKeyboard().enteredExit()) {
+                printResult(entry, SKIPPED, 0, null, null);
+                i++;
+            } else if (entry.command == null) {
+                failed.incrementAndGet();
+                printResult(entry, ERROR, 0, "message", entry.error);
+                i++;
+            } else if (entry.command.isPipelined()) {
+                int end = i;
+                while (end < entries.size() && entries.get(end).command != null && entries.get(end).command.isPipelined()) {
+                    end++;
+                }
+
+                runPipeline(entries.subList(i, end));
+                i = end;
+            } else {
+                controller.dispatch(entry.command, nanos -> printDispatched(entry, nanos));
+                i++;
+            }
+        }
+
+        controller.awaitCommands();
+        return failed.get();
+    }
+
+    private static List<Entry> parse(List<String> lines) {
+        final Parser parser = new Parser();
+        List<Entry> entries = new ArrayList<>();
+
+        for (int i = 0; i < lines.size(); i++) {
+            final String line = lines.get(i).trim();
+
+            if (line.isEmpty() || line.startsWith(COMMENT)) {
+                continue;
+            }
+
+            try {
+                entries.add(new Entry(i + 1, line, parser.parse(line), null));
+            } catch (WrongCommandFormatException | CommandNotFoundException e) {
+                entries.add(new Entry(i + 1, line, null, e.getMessage()));
+            }
+        }
+
+        return entries;
+    }
+
+    /**
+     * Send the commands one after another with up to MAX_IN_FLIGHT
+     * answers outstanding and read the answers in order. A sender thread
+     * sends while this thread receives, so neither side waits for a round trip.
+     *
+     * @param run pipelined commands
+     */
+    private void runPipeline(List<Entry> run) {
+        final Connection connection = controller.acquireConnection();
+
+        if (connection == null) {
+            for (Entry entry : run) {
+                failed.incrementAndGet();
+                printResult(entry, ERROR, 0, "message", "You're not connected to server.");
+            }
+            return;
+        }
+
+        try {
+            final int window = Math.min(run.size(), MAX_IN_FLIGHT);
+            final AtomicLongArray sendTimes = new AtomicLongArray(window);
+            final Semaphore slots = new Semaphore(window);
+            final AtomicBoolean broken = new AtomicBoolean();
+
+            Thread sender = new Thread(() -> {
+                for (int i = 0; i < run.size() && !broken.get(); i++) {
+                    slots.acquireUninterruptibly();
+                    sendTimes.set(i % window, System.nanoTime());
+
+                    if (broken.get() || !connection.sendCommand(run.get(i).command)) {
+                        broken.set(true);
+                        return;
+                    }
+                }
+            }, "script-sender");
+            sender.setDaemon(true);
+            sender.start();
+
+            for (int i = 0; i < run.size(); i++) {
+                final Entry entry = run.get(i);
+                final String reply = broken.get() ? null : connection.receive();
+
+                if (reply == null) {
+                    broken.set(true);
+                    slots.release(window);
+                    failed.incrementAndGet();
+                    printResult(entry, ERROR, 0, "message", "No answer from server.");
+                    continue;
+                }
+
+                final long nanos = System.nanoTime() - sendTimes.get(i % window);
+                slots.release();
+
+                Statistics.getInstance().recordCommand(entry.command.getName(), nanos);
+                printResult(entry, OK, nanos, "reply", reply);
+            }
+        } finally {
+            controller.releaseConnection(connection);
+        }
+    }
+
+    /**
+     * Print the outcome which a dispatched command has reported.
+     *
+     * @param entry command of the script
+     * @param nanos time of the command
+     */
+    private void printDispatched(Entry entry, long nanos) {
+        if (entry.command.isFailed()) {
+            failed.incrementAndGet();
+            printResult(entry, ERROR, nanos, null, null);
+        } else {
+            printResult(entry, DONE, nanos, null, null);
+        }
+    }
+
+    /**
+     * Print the result of a command as one JSON object.
+     *
+     * @param entry command of the script
+     * @param status ok, done, error or skipped
+     * @param nanos time of the command
+     * @param key name of the extra field or null
+     * @param value value of the extra field
+     */
+    private static void printResult(Entry entry, String status, long nanos, String key, String value) {
+        StringBuilder builder = new StringBuilder(128)
+                .append("{\"line\":").append(entry.line)
+                .append(",\"command\":").append(quote(entry.text))
+                .append(",\"status\":").append(quote(status))
+                .append(",\"ms\":").append(String.format(Locale.ROOT, "%.3f", nanos / 1e6));
+
+        if (key != null) {
+            builder.append(",\"").append(key).append("\":").append(quote(value));
+        }
+
+        Printer.println(builder.append('}').toString());
+    }
+
+    private static String quote(String text) {
+        StringBuilder builder = new StringBuilder(text.length() + 2).append('"');
+
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+
+            if (c == '"' || c == '\\') {
+                builder.append('\\').append(c);
+            } else if (c < ' ') {
+                builder.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+            } else {
+                builder.append(c);
+            }
+        }
+
+        return builder.append('"').toString();
+    }
+
+    /**
+     * Parsed line of the script.
+     */
+    private static final class Entry {
+        private final int line;
+        private final String text;
+        private final ICommand command;
+        private final String error;
+
+        Entry(int line, String text, ICommand command, String error) {
+            this.line = line;
+            this.text = text;
+            this.command = command;
+            this.error = error;
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package com.bsuir.spolks.job;
+
+import com.bsuir.spolks.progress.TransferProgress;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Transfer queued in the job scheduler.
+ */
+public final class Job implements Comparable<Job> {
+
+    public enum State {
+        QUEUED, RUNNING, DONE, FAILED, CANCELLED
+    }
+
+    private final int id;
+    private final String description;
+    private final int priority;
+    private final Task task;
+
+    private final CountDownLatch finished = new CountDownLatch(1);
+
+    private volatile State state = State.QUEUED;
+    private volatile boolean cancelled;
+    private volatile boolean failed;
+
+    private volatile TransferProgress transfer;
+
+    Job(int id, String description, int priority, Task task) {
+        this.id = id;
+        this.description = description;
+        this.priority = priority;
+        this.task = task;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * Check if the job is queued or running.
+     *
+     * @return boolean
+     */
+    public boolean isActive() {
+        return state == State.QUEUED || state == State.RUNNING;
+    }
+
+    /**
+     * Check if the job is asked to stop. A running task polls it
+     * between parts of the transfer.
+     *
+     * @return boolean
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Ask the job to stop. A queued job is never started.
+     *
+     * @return false if the job is already finished
+     */
+    public boolean cancel() {
+        if (!isActive()) {
+            return false;
+        }
+
+        cancelled = true;
+        return true;
+    }
+
+    /**
+     * Mark the job as failed when the task reports an error itself.
+     */
+    public void fail() {
+        failed = true;
+    }
+
+    /**
+     * Set progress of the transfer the job runs.
+     *
+     * @param transfer transfer progress
+     */
+    public void setTransfer(TransferProgress transfer) {
+        this.transfer = transfer;
+    }
+
+    public long getDoneBytes() {
+        final TransferProgress t = transfer;
+        return t == null ? 0 : t.getDoneBytes();
+    }
+
+    public long getTotalBytes() {
+        final TransferProgress t = transfer;
+        return t == null ? 0 : t.getTotalBytes();
+    }
+
+    /**
+     * Wait until the job is finished.
+     *
+     * @throws InterruptedException
+     */
+    public void await() throws InterruptedException {
+        finished.await();
+    }
+
+    /**
+     * Wait until the job is finished or the timeout is passed.
+     *
+     * @param timeout timeout
+     * @param unit unit of the timeout
+     * @return false if the timeout is passed
+     * @throws InterruptedException
+     */
+    public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+        return finished.await(timeout, unit);
+    }
+
+    /**
+     * Jobs with higher priority go first, jobs with equal priority go in order of submission.
+     */
+    @Override
+    public int compareTo(Job o) {
+        return priority != o.priority ? Integer.compare(o.priority, priority) : Integer.compare(id, o.id);
+    }
+
+    void run() {
+        if (cancelled) {
+            finish(State.CANCELLED);
+            return;
+        }
+
+        state = State.RUNNING;
+
+        try {
+            task.run(this);
+        } catch (RuntimeException e) {
+            failed = true;
+            throw e;
+        } finally {
+            finish(cancelled ? State.CANCELLED : failed ? State.FAILED : State.DONE);
+        }
+    }
+
+    void finish(State state) {
+        this.state = state;
+        finished.countDown();
+    }
+
+    /**
+     * Work of the job.
+     */
+    @FunctionalInterface
+    public interface Task {
+
+        /**
+         * Run the work. The task checks job.isCancelled() and stops when it is set.
+         *
+         * @param job job of the task
+         */
+        void run(Job job);
+    }
+}
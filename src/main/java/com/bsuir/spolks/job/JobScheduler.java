@@ -0,0 +1,202 @@
+package com.bsuir.spolks.job;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Queue of transfer jobs. Jobs are started in order of priority
+ * while count of running jobs is below the global limit, so queued
+ * transfers keep the connection busy without too many parallel writers.
+ */
+public final class JobScheduler {
+
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    public static final int DEFAULT_LIMIT = 4;
+
+    /**
+     * Finished jobs which are kept to be listed.
+     */
+    private static final int HISTORY_SIZE = 100;
+
+    private static final JobScheduler instance = new JobScheduler();
+
+    private final Map<Integer, Job> jobs = new ConcurrentSkipListMap<>();
+    private final PriorityQueue<Job> queue = new PriorityQueue<>();
+    private final AtomicInteger nextId = new AtomicInteger(1);
+
+    private final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "job");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private int limit = DEFAULT_LIMIT;
+    private int running;
+
+    private JobScheduler() {
+    }
+
+    /**
+     * Get instance of scheduler.
+     *
+     * @return instance
+     */
+    public static JobScheduler getInstance() {
+        return instance;
+    }
+
+    /**
+     * Queue a new job.
+     *
+     * @param description text to list the job with
+     * @param priority priority, higher goes first
+     * @param task work of the job
+     * @return job
+     */
+    public Job submit(String description, int priority, Job.Task task) {
+        Job job = new Job(nextId.getAndIncrement(), description, priority, task);
+        jobs.put(job.getId(), job);
+
+        synchronized (this) {
+            queue.add(job);
+            dispatch();
+        }
+
+        removeFinished();
+        return job;
+    }
+
+    /**
+     * Find job by id.
+     *
+     * @param id job id
+     * @return job or null
+     */
+    public Job find(int id) {
+        return jobs.get(id);
+    }
+
+    /**
+     * Get known jobs ordered by id.
+     *
+     * @return jobs
+     */
+    public Collection<Job> getJobs() {
+        return new ArrayList<>(jobs.values());
+    }
+
+    /**
+     * Get jobs which are queued or running.
+     *
+     * @return jobs
+     */
+    public List<Job> getActiveJobs() {
+        List<Job> active = new ArrayList<>();
+
+        for (Job job : jobs.values()) {
+            if (job.isActive()) {
+                active.add(job);
+            }
+        }
+
+        return active;
+    }
+
+    /**
+     * Cancel a job.
+     *
+     * @param job job
+     * @return false if the job is already finished
+     */
+    public boolean cancel(Job job) {
+        if (!job.cancel()) {
+            return false;
+        }
+
+        synchronized (this) {
+            if (queue.remove(job)) {
+                job.finish(Job.State.CANCELLED);
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Wait for all queued and running jobs.
+     *
+     * @throws InterruptedException
+     */
+    public void awaitAll() throws InterruptedException {
+        for (Job job : getActiveJobs()) {
+            job.await();
+        }
+    }
+
+    /**
+     * Set count of jobs which can run at the same time.
+     *
+     * @param limit count of jobs
+     */
+    public synchronized void setLimit(int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("Job limit should be positive.");
+        }
+
+        this.limit = limit;
+        dispatch();
+    }
+
+    public synchronized int getLimit() {
+        return limit;
+    }
+
+    private void dispatch() {
+        while (running < limit && !queue.isEmpty()) {
+            final Job job = queue.poll();
+            running++;
+
+            executor.execute(() -> {
+                try {
+                    job.run();
+                } catch (RuntimeException e) {
+                    LOGGER.log(Level.ERROR, "Job " + job.getId() + " failed. " + e.getMessage());
+                } finally {
+                    finished();
+                }
+            });
+        }
+    }
+
+    private synchronized void finished() {
+        running--;
+        dispatch();
+    }
+
+    private void removeFinished() {
+        if (jobs.size() <= HISTORY_SIZE) {
+            return;
+        }
+
+        for (Job job : jobs.values()) {
+            if (jobs.size() <= HISTORY_SIZE) {
+                break;
+            }
+            if (!job.isActive()) {
+                jobs.remove(job.getId());
+            }
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package com.bsuir.spolks.parser;
+
+import com.bsuir.spolks.command.ICommand;
+
+/**
+ * Single-pass lexer of a command line. It accepts the same grammar as
+ * the former "^([a-z]+)( -[a-z]+((?==)='[\w .-:\\]+')*)*$" regex and keeps
+ * the command name and the tokens as slices of the line. Slice buffers are
+ * reused between lines, so an instance must not be shared between threads.
+ */
+final class Lexer {
+
+    private static final int SLICE_SIZE = 4;
+    private static final int INITIAL_TOKENS = 8;
+
+    private String line;
+    private int nameEnd;
+
+    /**
+     * Bounds of every token: name start, name end, value start, value end.
+     * Value start is -1 when the token has no value.
+     */
+    private int[] slices = new int[INITIAL_TOKENS * SLICE_SIZE];
+    private int tokenCount;
+
+    /**
+     * Split the line into slices.
+     *
+     * @param line command line
+     * @return false if the line has wrong format
+     */
+    boolean lex(String line) {
+        this.line = line;
+        this.tokenCount = 0;
+
+        final int length = line.length();
+        int pos = skipName(line, 0);
+
+        if (pos == 0) {
+            return false;
+        }
+        nameEnd = pos;
+
+        while (pos < length) {
+            if (pos + 1 >= length || line.charAt(pos) != ' ' || line.charAt(pos + 1) != '-') {
+                return false;
+            }
+
+            final int tokenStart = pos + 2;
+            pos = skipName(line, tokenStart);
+
+            if (pos == tokenStart) {
+                return false;
+            }
+
+            final int tokenEnd = pos;
+            int valueStart = -1;
+            int valueEnd = -1;
+
+            // The value may be repeated, the last one wins as it did with the regex.
+            while (pos < length && line.charAt(pos) == '=') {
+                if (pos + 1 >= length || line.charAt(pos + 1) != '\'') {
+                    return false;
+                }
+
+                final int start = pos + 2;
+                pos = start;
+                while (pos < length && isValueChar(line.charAt(pos))) {
+                    pos++;
+                }
+
+                if (pos == start || pos >= length || line.charAt(pos) != '\'') {
+                    return false;
+                }
+
+                valueStart = start;
+                valueEnd = pos;
+                pos++;
+            }
+
+            addToken(tokenStart, tokenEnd, valueStart, valueEnd);
+        }
+
+        return true;
+    }
+
+    String getLine() {
+        return line;
+    }
+
+    int getNameEnd() {
+        return nameEnd;
+    }
+
+    int getTokenCount() {
+        return tokenCount;
+    }
+
+    /**
+     * Get name of the token.
+     *
+     * @param index token index
+     * @return token name
+     */
+    String getTokenName(int index) {
+        final int base = index * SLICE_SIZE;
+        return line.substring(slices[base], slices[base + 1]);
+    }
+
+    /**
+     * Get value of the token.
+     *
+     * @param index token index
+     * @return token value or null
+     */
+    String getTokenValue(int index) {
+        final int base = index * SLICE_SIZE;
+        return slices[base + 2] < 0 ? null : line.substring(slices[base + 2], slices[base + 3]);
+    }
+
+    /**
+     * Put the tokens to the command as slices of the line,
+     * so their values are not copied until they are read.
+     *
+     * @param command command
+     */
+    void putTokens(ICommand command) {
+        for (int i = 0; i < tokenCount; i++) {
+            final int base = i * SLICE_SIZE;
+            command.putToken(line, slices[base], slices[base + 1], slices[base + 2], slices[base + 3]);
+        }
+    }
+
+    private void addToken(int nameStart, int nameEnd, int valueStart, int valueEnd) {
+        final int base = tokenCount * SLICE_SIZE;
+
+        if (base + SLICE_SIZE > slices.length) {
+            int[] grown = new int[slices.length * 2];
+            System.arraycopy(slices, 0, grown, 0, slices.length);
+            slices = grown;
+        }
+
+        slices[base] = nameStart;
+        slices[base + 1] = nameEnd;
+        slices[base + 2] = valueStart;
+        slices[base + 3] = valueEnd;
+        tokenCount++;
+    }
+
+    private static int skipName(String line, int pos) {
+        while (pos < line.length() && line.charAt(pos) >= 'a' && line.charAt(pos) <= 'z') {
+            pos++;
+        }
+        return pos;
+    }
+
+    /**
+     * Check [\w .-:\\] class: letters, digits, '_', ' ', '.', '/', ':' and '\'.
+     */
+    private static boolean isValueChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '.' && c <= ':')
+                || c == '_' || c == ' ' || c == '\\';
+    }
+}
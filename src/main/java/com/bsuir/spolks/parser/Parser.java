@@ -5,13 +5,13 @@ import com.bsuir.spolks.command.ICommand;
 import com.bsuir.spolks.exception.CommandNotFoundException;
 import com.bsuir.spolks.exception.WrongCommandFormatException;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
+/**
+ * Parser of command lines. It reuses its lexer,
+ * so an instance must not be shared between threads.
+ */
 public class Parser extends AbstractParser {
 
-    private static final String CMD_COMMON_REGEX = "^([a-z]+)( -[a-z]+((?==)='[\\w .-:\\\\]+')*)*$";
-    private static final int COMMAND_GROUP_INDEX = 1;
+    private final Lexer lexer = new Lexer();
 
     /**
      * Handle parse text from cmd.
@@ -21,19 +21,22 @@ public class Parser extends AbstractParser {
      */
     @Override
     public ICommand handle(String cmd) throws WrongCommandFormatException, CommandNotFoundException {
-        Pattern pattern = Pattern.compile(CMD_COMMON_REGEX);
-        Matcher matcher = pattern.matcher(cmd);
-
-        if(!matcher.find()) {
+        if (!lexer.lex(cmd)) {
             throw new WrongCommandFormatException("Wrong command format.");
         }
 
-        final String commandName = matcher.group(COMMAND_GROUP_INDEX);
+        final CommandType type = CommandType.find(cmd, 0, lexer.getNameEnd());
 
-        if(CommandType.hasCommand(commandName)) {
-            return new TokenParser(commandName).handle(cmd);
+        if (type == null) {
+            throw new CommandNotFoundException("Wrong command: " + cmd.substring(0, lexer.getNameEnd()));
         }
 
-        throw new CommandNotFoundException("Wrong command: " + commandName);
+        ICommand command = type.getCommand();
+        command.setCmd(cmd);
+
+        lexer.putTokens(command);
+
+        command.verifyTokens();
+        return command;
     }
 }
@@ -0,0 +1,188 @@
+package com.bsuir.spolks.progress;
+
+import com.bsuir.spolks.stats.ClockOffset;
+import com.bsuir.spolks.util.Printer;
+
+import java.time.Instant;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Draws the progress line of all active transfers. A single thread
+ * redraws it at a fixed rate, so receive loops never write to the console.
+ * The line goes through {@link Printer}, so it keeps its order with log lines.
+ */
+public final class ProgressRenderer {
+
+    private static final long REFRESH_INTERVAL = 250;
+
+    private static final String[] UNITS = {"B", "KB", "MB", "GB", "TB"};
+
+    private static final DateTimeFormatter END_TIME = DateTimeFormatter.ofPattern("HH:mm:ss");
+
+    private static final ProgressRenderer instance = new ProgressRenderer();
+
+    private final List<TransferProgress> transfers = new CopyOnWriteArrayList<>();
+
+    private volatile boolean enabled = true;
+
+    private ScheduledExecutorService executor;
+    private int lineLength;
+
+    private ProgressRenderer() {
+    }
+
+    /**
+     * Get instance of renderer.
+     *
+     * @return instance
+     */
+    public static ProgressRenderer getInstance() {
+        return instance;
+    }
+
+    /**
+     * Turn drawing on or off. Transfers are still counted when it is off.
+     *
+     * @param enabled boolean
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Start showing a transfer.
+     *
+     * @param name name to show
+     * @param totalBytes size of the transfer
+     * @param initialBytes bytes which are present before the transfer
+     * @return progress to add received bytes to
+     */
+    public TransferProgress start(String name, long totalBytes, long initialBytes) {
+        TransferProgress progress = new TransferProgress(name, totalBytes, initialBytes);
+        transfers.add(progress);
+
+        synchronized (this) {
+            if (executor == null) {
+                executor = Executors.newSingleThreadScheduledExecutor(r -> {
+                    Thread thread = new Thread(r, "progress");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                executor.scheduleAtFixedRate(this::render, REFRESH_INTERVAL, REFRESH_INTERVAL, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        return progress;
+    }
+
+    /**
+     * Stop showing the transfer. The line is cleared, so the messages about
+     * the finished transfer start from the beginning of the line. Other
+     * transfers are drawn again on the next refresh.
+     *
+     * @param progress progress got from start()
+     */
+    public void finish(TransferProgress progress) {
+        transfers.remove(progress);
+        clear();
+    }
+
+    private synchronized void render() {
+        if (!enabled || transfers.isEmpty()) {
+            return;
+        }
+
+        final long now = System.nanoTime();
+        StringBuilder line = new StringBuilder();
+
+        for (TransferProgress progress : transfers) {
+            if (line.length() > 0) {
+                line.append(" | ");
+            }
+            append(line, progress, now);
+        }
+
+        final int length = line.length();
+        while (line.length() < lineLength) {
+            line.append(' ');
+        }
+        lineLength = length;
+
+        line.insert(0, '\r');
+        Printer.print(line.toString());
+    }
+
+    private synchronized void clear() {
+        if (lineLength == 0) {
+            return;
+        }
+
+        StringBuilder line = new StringBuilder("\r");
+        for (int i = 0; i < lineLength; i++) {
+            line.append(' ');
+        }
+        line.append('\r');
+
+        Printer.print(line.toString());
+        lineLength = 0;
+    }
+
+    private static void append(StringBuilder line, TransferProgress progress, long now) {
+        final long done = progress.getDoneBytes();
+        final long total = progress.getTotalBytes();
+        final double speed = progress.sampleSpeed(now);
+
+        line.append(progress.getName()).append(' ')
+                .append(total > 0 ? done * 100 / total : 100).append("% ")
+                .append(formatBytes(speed)).append("/s (avg ")
+                .append(formatBytes(progress.getAverageSpeed(now))).append("/s) ETA ");
+
+        if (speed > 0) {
+            final long seconds = (long) ((total - done) / speed);
+            line.append(String.format("%d:%02d", seconds / 60, seconds % 60));
+            appendServerEndTime(line, seconds);
+        } else {
+            line.append("--:--");
+        }
+    }
+
+    /**
+     * Append the time the transfer ends by the server clock,
+     * so it can be matched with the server logs.
+     *
+     * @param line line
+     * @param seconds seconds left
+     */
+    private static void appendServerEndTime(StringBuilder line, long seconds) {
+        if (ClockOffset.getInstance().getEstimate() == null) {
+            return;
+        }
+
+        final long end = ClockOffset.getInstance().toServerMillis(System.currentTimeMillis() + seconds * 1000);
+        line.append(" (").append(LocalTime.ofInstant(Instant.ofEpochMilli(end), ZoneId.systemDefault()).format(END_TIME))
+                .append(" server)");
+    }
+
+    /**
+     * Format count of bytes with a binary unit.
+     *
+     * @param bytes count of bytes
+     * @return text like "12.3 MB"
+     */
+    static String formatBytes(double bytes) {
+        int unit = 0;
+        while (bytes >= 1024 && unit < UNITS.length - 1) {
+            bytes /= 1024;
+            unit++;
+        }
+
+        return unit == 0 ? String.format("%.0f %s", bytes, UNITS[unit]) : String.format("%.1f %s", bytes, UNITS[unit]);
+    }
+}
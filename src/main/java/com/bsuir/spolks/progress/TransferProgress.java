@@ -0,0 +1,88 @@
+package com.bsuir.spolks.progress;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of one running transfer. Receive loops only add bytes,
+ * the renderer reads the counters from its own thread.
+ */
+public final class TransferProgress {
+
+    /**
+     * Weight of the last interval in the current speed.
+     */
+    private static final double SMOOTHING = 0.5;
+
+    private final String name;
+    private final long totalBytes;
+    private final long initialBytes;
+    private final long startTime = System.nanoTime();
+
+    private final AtomicLong doneBytes;
+
+    private long sampleBytes;
+    private long sampleTime;
+    private double currentSpeed;
+
+    TransferProgress(String name, long totalBytes, long initialBytes) {
+        this.name = name;
+        this.totalBytes = totalBytes;
+        this.initialBytes = initialBytes;
+        this.doneBytes = new AtomicLong(initialBytes);
+        this.sampleBytes = initialBytes;
+        this.sampleTime = startTime;
+    }
+
+    /**
+     * Account received bytes.
+     *
+     * @param count count of bytes
+     */
+    public void add(long count) {
+        doneBytes.addAndGet(count);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getDoneBytes() {
+        return doneBytes.get();
+    }
+
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * Get average speed since the transfer is started.
+     *
+     * @param now current time
+     * @return bytes per second
+     */
+    double getAverageSpeed(long now) {
+        final long nanos = now - startTime;
+        return nanos > 0 ? (getDoneBytes() - initialBytes) * 1e9 / nanos : 0;
+    }
+
+    /**
+     * Take a sample of the counter and get the smoothed speed of the last intervals.
+     * It is called by the renderer thread only.
+     *
+     * @param now current time
+     * @return bytes per second
+     */
+    double sampleSpeed(long now) {
+        final long bytes = getDoneBytes();
+        final long nanos = now - sampleTime;
+
+        if (nanos > 0) {
+            final double speed = (bytes - sampleBytes) * 1e9 / nanos;
+            currentSpeed = sampleTime == startTime ? speed : SMOOTHING * speed + (1 - SMOOTHING) * currentSpeed;
+            sampleBytes = bytes;
+            sampleTime = now;
+        }
+
+        return currentSpeed;
+    }
+}
@@ -0,0 +1,300 @@
+package com.bsuir.spolks.stats;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Offset of the server clock from the local one, estimated NTP-style
+ * from time requests. Every sample has the local send and receive time
+ * and the server time. The offset of a sample is the server time minus
+ * the middle of its round trip, so the samples with the lowest delay
+ * give the best estimates.
+ */
+public final class ClockOffset {
+
+    /**
+     * Part of the samples with the lowest delay which is used for the estimate.
+     */
+    private static final int BEST_DIVISOR = 4;
+
+    private static final long NANOS_PER_MILLI = 1000000L;
+    private static final long NANOS_PER_SECOND = 1000000000L;
+    private static final long HALF_DAY = 12L * 3600 * NANOS_PER_SECOND;
+
+    private static final DateTimeFormatter DATE_TO_STRING = DateTimeFormatter.ofPattern("EEE MMM dd HH:mm:ss zzz yyyy", Locale.US);
+
+    private static final ClockOffset instance = new ClockOffset();
+
+    private volatile Estimate estimate;
+
+    private ClockOffset() {
+    }
+
+    /**
+     * Get instance of clock offset.
+     *
+     * @return instance
+     */
+    public static ClockOffset getInstance() {
+        return instance;
+    }
+
+    /**
+     * Get the last estimate.
+     *
+     * @return estimate or null if the offset is not measured
+     */
+    public Estimate getEstimate() {
+        return estimate;
+    }
+
+    /**
+     * Estimate the offset from the samples and keep it for the client.
+     *
+     * @param samples samples of one server
+     * @return estimate
+     */
+    public Estimate update(List<Sample> samples) {
+        if (samples.isEmpty()) {
+            throw new IllegalArgumentException("No clock samples.");
+        }
+
+        List<Sample> sorted = new ArrayList<>(samples);
+        sorted.sort(Comparator.comparingLong(Sample::getDelay));
+        List<Sample> best = sorted.subList(0, Math.max(1, sorted.size() / BEST_DIVISOR));
+
+        long[] offsets = new long[best.size()];
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = best.get(i).getOffset();
+        }
+        Arrays.sort(offsets);
+
+        final Sample fastest = sorted.get(0);
+        final long offset = offsets[offsets.length / 2];
+        final long error = fastest.getDelay() / 2 + fastest.resolution / 2;
+
+        estimate = new Estimate(offset, error, fastest.getDelay(), fastest.resolution, samples.size(), best.size());
+        return estimate;
+    }
+
+    /**
+     * Convert a local wall-clock time to the server clock.
+     *
+     * @param localMillis local time in milliseconds since the epoch
+     * @return server time or the local time if the offset is not measured
+     */
+    public long toServerMillis(long localMillis) {
+        final Estimate e = estimate;
+        return e == null ? localMillis : localMillis + e.getOffset() / NANOS_PER_MILLI;
+    }
+
+    /**
+     * Get current local time in nanoseconds since the epoch.
+     *
+     * @return time
+     */
+    public static long now() {
+        final Instant now = Instant.now();
+        return now.getEpochSecond() * NANOS_PER_SECOND + now.getNano();
+    }
+
+    /**
+     * Parse the server time. Epoch seconds or milliseconds, ISO-8601 date
+     * and time with or without zone, time of day and Date.toString() are known.
+     *
+     * @param text server answer
+     * @param t1 local time when the request is sent, in nanoseconds since the epoch
+     * @param t4 local time when the answer is received
+     * @return sample or null if the format is unknown
+     */
+    public static Sample parse(String text, long t1, long t4) {
+        final String time = text == null ? "" : text.trim();
+
+        try {
+            if (time.matches("^\\d{13}$")) {
+                return new Sample(t1, t4, Long.parseLong(time) * NANOS_PER_MILLI, NANOS_PER_MILLI, false);
+            }
+            if (time.matches("^\\d{10}$")) {
+                return new Sample(t1, t4, Long.parseLong(time) * NANOS_PER_SECOND, NANOS_PER_SECOND, false);
+            }
+
+            final long resolution = resolutionOf(time);
+
+            if (time.matches("^\\d{2}:\\d{2}(:\\d{2}(\\.\\d+)?)?$")) {
+                LocalDateTime local = LocalDateTime.of(LocalDate.now(), LocalTime.parse(time));
+                return new Sample(t1, t4, toNanos(local.atZone(ZoneId.systemDefault()).toInstant()), resolution, true);
+            }
+
+            if (time.matches("^\\d{4}-\\d{2}-\\d{2}[T ].*")) {
+                final String iso = time.replace(' ', 'T');
+                Instant instant;
+
+                try {
+                    instant = OffsetDateTime.parse(iso).toInstant();
+                } catch (DateTimeParseException e) {
+                    instant = LocalDateTime.parse(iso).atZone(ZoneId.systemDefault()).toInstant();
+                }
+                return new Sample(t1, t4, toNanos(instant), resolution, false);
+            }
+
+            return new Sample(t1, t4, toNanos(ZonedDateTime.parse(time, DATE_TO_STRING).toInstant()), NANOS_PER_SECOND, false);
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Get the step of the server clock from the digits of the time.
+     *
+     * @param time time text
+     * @return resolution in nanoseconds
+     */
+    private static long resolutionOf(String time) {
+        final int seconds = time.indexOf(':') >= 0 ? time.indexOf(':', time.indexOf(':') + 1) : -1;
+
+        if (seconds < 0) {
+            return 60 * NANOS_PER_SECOND;
+        }
+
+        final int dot = time.indexOf('.', seconds);
+        if (dot < 0) {
+            return NANOS_PER_SECOND;
+        }
+
+        int digits = 0;
+        while (dot + 1 + digits < time.length() && Character.isDigit(time.charAt(dot + 1 + digits))) {
+            digits++;
+        }
+
+        long resolution = NANOS_PER_SECOND;
+        for (int i = 0; i < Math.min(digits, 9); i++) {
+            resolution /= 10;
+        }
+        return resolution;
+    }
+
+    private static long toNanos(Instant instant) {
+        return instant.getEpochSecond() * NANOS_PER_SECOND + instant.getNano();
+    }
+
+    /**
+     * One time request.
+     */
+    public static final class Sample {
+        private final long t1;
+        private final long t4;
+        private final long serverTime;
+        private final long resolution;
+        private final boolean timeOfDay;
+
+        Sample(long t1, long t4, long serverTime, long resolution, boolean timeOfDay) {
+            this.t1 = t1;
+            this.t4 = t4;
+            this.serverTime = serverTime;
+            this.resolution = resolution;
+            this.timeOfDay = timeOfDay;
+        }
+
+        /**
+         * Get round-trip delay of the request.
+         *
+         * @return nanoseconds
+         */
+        public long getDelay() {
+            return t4 - t1;
+        }
+
+        /**
+         * Get offset of the server clock for this sample. The server time is taken
+         * in the middle of its step, a time of day is wrapped into half a day.
+         *
+         * @return nanoseconds, positive if the server clock is ahead
+         */
+        public long getOffset() {
+            long offset = serverTime + resolution / 2 - (t1 + (t4 - t1) / 2);
+
+            if (timeOfDay) {
+                final long day = 2 * HALF_DAY;
+                offset = Math.floorMod(offset + HALF_DAY, day) - HALF_DAY;
+            }
+            return offset;
+        }
+
+        public long getResolution() {
+            return resolution;
+        }
+    }
+
+    /**
+     * Result of an estimation.
+     */
+    public static final class Estimate {
+        private final long offset;
+        private final long error;
+        private final long minDelay;
+        private final long resolution;
+        private final int samples;
+        private final int usedSamples;
+
+        Estimate(long offset, long error, long minDelay, long resolution, int samples, int usedSamples) {
+            this.offset = offset;
+            this.error = error;
+            this.minDelay = minDelay;
+            this.resolution = resolution;
+            this.samples = samples;
+            this.usedSamples = usedSamples;
+        }
+
+        /**
+         * Get offset of the server clock, positive if the server clock is ahead.
+         *
+         * @return nanoseconds
+         */
+        public long getOffset() {
+            return offset;
+        }
+
+        /**
+         * Get bound of the offset error: half of the lowest delay and half of the server clock step.
+         *
+         * @return nanoseconds
+         */
+        public long getError() {
+            return error;
+        }
+
+        public long getMinDelay() {
+            return minDelay;
+        }
+
+        public long getResolution() {
+            return resolution;
+        }
+
+        public int getSamples() {
+            return samples;
+        }
+
+        public int getUsedSamples() {
+            return usedSamples;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%+.3f ms +/- %.3f ms (%d of %d samples, min delay %.3f ms)",
+                    offset / 1e6, error / 1e6, usedSamples, samples, minDelay / 1e6);
+        }
+    }
+}
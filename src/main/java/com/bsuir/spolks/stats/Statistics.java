@@ -0,0 +1,186 @@
+package com.bsuir.spolks.stats;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latency histograms and traffic counters of the client.
+ */
+public final class Statistics {
+
+    public static final String CONNECT = "connect";
+    public static final String ECHO_RTT = "echo.rtt";
+    public static final String TIME_RTT = "time.rtt";
+    public static final String DOWNLOAD_FIRST_BYTE = "download.ttfb";
+    public static final String DOWNLOAD_TOTAL = "download.total";
+
+    private static final String COMMAND_PREFIX = "command.";
+
+    private static final Statistics instance = new Statistics();
+
+    private final Map<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+
+    private final AtomicLong bytesIn = new AtomicLong();
+    private final AtomicLong bytesOut = new AtomicLong();
+
+    private final AtomicLong transferredBytes = new AtomicLong();
+    private final AtomicLong transferNanos = new AtomicLong();
+
+    private final AtomicLong compressedBytes = new AtomicLong();
+    private final AtomicLong decompressedBytes = new AtomicLong();
+    private final AtomicLong writeBehindBytes = new AtomicLong();
+    private final AtomicLong writeBehindWrites = new AtomicLong();
+    private final AtomicLong receiveWaitNanos = new AtomicLong();
+    private final AtomicLong diskWaitNanos = new AtomicLong();
+
+    private Statistics() {
+    }
+
+    /**
+     * Get instance of statistics.
+     *
+     * @return instance
+     */
+    public static Statistics getInstance() {
+        return instance;
+    }
+
+    /**
+     * Record a duration of the metric.
+     *
+     * @param metric metric name
+     * @param nanos duration
+     */
+    public void record(String metric, long nanos) {
+        histograms.computeIfAbsent(metric, m -> new LatencyHistogram()).record(nanos);
+    }
+
+    /**
+     * Record a full execution of the command.
+     *
+     * @param commandName name of the command type
+     * @param nanos duration
+     */
+    public void recordCommand(String commandName, long nanos) {
+        record(COMMAND_PREFIX + commandName, nanos);
+    }
+
+    /**
+     * Record payload of a finished transfer.
+     *
+     * @param bytes received payload
+     * @param nanos duration of the transfer
+     */
+    public void recordTransfer(long bytes, long nanos) {
+        transferredBytes.addAndGet(bytes);
+        transferNanos.addAndGet(nanos);
+    }
+
+    /**
+     * Record a compressed transfer.
+     *
+     * @param compressed bytes received from the network
+     * @param decompressed bytes written to the file
+     */
+    public void recordCompression(long compressed, long decompressed) {
+        compressedBytes.addAndGet(compressed);
+        decompressedBytes.addAndGet(decompressed);
+    }
+
+    /**
+     * Record a download written by the write-behind stage.
+     *
+     * @param bytes written bytes
+     * @param writes count of writes
+     * @param receiveWait nanoseconds the receive loop waited for the disk
+     * @param diskWait nanoseconds the writer waited for the network
+     */
+    public void recordWriteBehind(long bytes, long writes, long receiveWait, long diskWait) {
+        writeBehindBytes.addAndGet(bytes);
+        writeBehindWrites.addAndGet(writes);
+        receiveWaitNanos.addAndGet(receiveWait);
+        diskWaitNanos.addAndGet(diskWait);
+    }
+
+    public void addBytesIn(long count) {
+        bytesIn.addAndGet(count);
+    }
+
+    public void addBytesOut(long count) {
+        bytesOut.addAndGet(count);
+    }
+
+    /**
+     * Get histograms ordered by metric name.
+     *
+     * @return copy of the metric map
+     */
+    public Map<String, LatencyHistogram> getHistograms() {
+        return new TreeMap<>(histograms);
+    }
+
+    public long getBytesIn() {
+        return bytesIn.get();
+    }
+
+    public long getBytesOut() {
+        return bytesOut.get();
+    }
+
+    /**
+     * Get average speed of all finished transfers.
+     *
+     * @return bytes per second
+     */
+    public long getTransferSpeed() {
+        final long nanos = transferNanos.get();
+        return nanos > 0 ? (long) (transferredBytes.get() * 1e9 / nanos) : 0;
+    }
+
+    public long getTransferredBytes() {
+        return transferredBytes.get();
+    }
+
+    public long getCompressedBytes() {
+        return compressedBytes.get();
+    }
+
+    public long getDecompressedBytes() {
+        return decompressedBytes.get();
+    }
+
+    public long getWriteBehindBytes() {
+        return writeBehindBytes.get();
+    }
+
+    public long getWriteBehindWrites() {
+        return writeBehindWrites.get();
+    }
+
+    public long getReceiveWaitNanos() {
+        return receiveWaitNanos.get();
+    }
+
+    public long getDiskWaitNanos() {
+        return diskWaitNanos.get();
+    }
+
+    /**
+     * Clear all histograms and counters.
+     */
+    public void reset() {
+        histograms.values().forEach(LatencyHistogram::reset);
+        bytesIn.set(0);
+        bytesOut.set(0);
+        transferredBytes.set(0);
+        transferNanos.set(0);
+        compressedBytes.set(0);
+        decompressedBytes.set(0);
+        writeBehindBytes.set(0);
+        writeBehindWrites.set(0);
+        receiveWaitNanos.set(0);
+        diskWaitNanos.set(0);
+    }
+}
@@ -10,11 +10,13 @@ import java.util.Scanner;
 public class InputManager {
 
     private Scanner scanner;
+    private Parser parser;
 
     private boolean isWantExit;
 
     public InputManager() {
         scanner = new Scanner(System.in);
+        parser = new Parser();
         isWantExit = false;
     }
 
@@ -27,7 +29,7 @@ public class InputManager {
      */
     public ICommand getCommand() throws WrongCommandFormatException, CommandNotFoundException {
         String cmd = scanner.nextLine();
-        return new Parser().parse(cmd);
+        return parser.parse(cmd);
     }
 
     public void wantExit(boolean want) {
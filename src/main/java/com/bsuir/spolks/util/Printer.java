@@ -1,13 +1,47 @@
 package com.bsuir.spolks.util;
 
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.Marker;
+import org.apache.logging.log4j.MarkerManager;
+
+/**
+ * Writes to the screen through the same log queue as the log events,
+ * so the thread of the Async appender is the only one writing to the
+ * console and the output keeps its order.
+ */
 public class Printer {
 
+    /**
+     * Level of printed lines. It is above INFO, so a full queue does not drop them.
+     */
+    private static final Level PRINT = Level.forName("PRINT", 350);
+
+    /**
+     * Markers which pick the layout of the console: text with a line break or as is.
+     */
+    private static final Marker LINE = MarkerManager.getMarker("LINE");
+    private static final Marker INLINE = MarkerManager.getMarker("INLINE");
+
+    private static final Logger LOGGER = LogManager.getLogger();
+
     /**
      * Print data to screen from new line.
      *
      * @param text
      */
     public static void println(String text) {
-        System.out.println(text);
+        LOGGER.log(PRINT, LINE, text);
+    }
+
+    /**
+     * Print data to screen without line break, e.g. to redraw the
+     * progress line. It is dropped when the queue is full.
+     *
+     * @param text
+     */
+    public static void print(String text) {
+        LOGGER.log(Level.INFO, INLINE, text);
     }
-}
\ No newline at end of file
+}
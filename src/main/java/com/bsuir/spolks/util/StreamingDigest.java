@@ -0,0 +1,136 @@
+package com.bsuir.spolks.util;
+
+import com.bsuir.spolks.buffer.BufferPool;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * SHA-256 digest which is updated with data as it is received
+ * and keeps the time spent on hashing.
+ */
+public class StreamingDigest {
+
+    private static final String ALGORITHM = "SHA-256";
+    private static final int BUFF_SIZE = 65536;
+
+    private final MessageDigest digest;
+
+    private long hashedBytes;
+    private long hashingNanos;
+
+    public StreamingDigest() {
+        try {
+            digest = MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(ALGORITHM + " is not supported.", e);
+        }
+    }
+
+    /**
+     * Hash part of the array.
+     *
+     * @param data
+     * @param offset
+     * @param length
+     */
+    public void update(byte[] data, int offset, int length) {
+        final long start = System.nanoTime();
+        digest.update(data, offset, length);
+        hashingNanos += System.nanoTime() - start;
+        hashedBytes += length;
+    }
+
+    /**
+     * Hash remaining bytes of the buffer.
+     *
+     * @param data
+     */
+    public void update(ByteBuffer data) {
+        final long start = System.nanoTime();
+        hashedBytes += data.remaining();
+        digest.update(data);
+        hashingNanos += System.nanoTime() - start;
+    }
+
+    /**
+     * Hash first bytes of the file which are present before the download.
+     *
+     * @param file
+     * @param length count of bytes to hash
+     * @throws IOException
+     */
+    public void update(File file, long length) throws IOException {
+        if (length <= 0) {
+            return;
+        }
+
+        try (FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            update(fileChannel, 0, length);
+        }
+    }
+
+    /**
+     * Hash bytes of the file which are already written. Reads are positional,
+     * so the position of the channel is not changed.
+     *
+     * @param fileChannel channel of the file
+     * @param position offset of the first byte
+     * @param length count of bytes to hash
+     * @throws IOException
+     */
+    public void update(FileChannel fileChannel, long position, long length) throws IOException {
+        if (length <= 0) {
+            return;
+        }
+
+        final ByteBuffer buffer = BufferPool.getInstance().acquire(BUFF_SIZE);
+
+        try {
+            long left = length;
+
+            while (left > 0) {
+                buffer.clear().limit((int) Math.min(BUFF_SIZE, left));
+
+                final int count = fileChannel.read(buffer, position + length - left);
+                if (count == -1) {
+                    break;
+                }
+
+                buffer.flip();
+                left -= count;
+                update(buffer);
+            }
+        } finally {
+            BufferPool.getInstance().release(buffer);
+        }
+    }
+
+    /**
+     * Complete hashing and get the digest as lowercase hex.
+     *
+     * @return hex string
+     */
+    public String toHex() {
+        StringBuilder hex = new StringBuilder();
+
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+
+        return hex.toString();
+    }
+
+    public long getHashedBytes() {
+        return hashedBytes;
+    }
+
+    public long getHashingNanos() {
+        return hashingNanos;
+    }
+}
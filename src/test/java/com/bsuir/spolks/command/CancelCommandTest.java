@@ -0,0 +1,82 @@
+package com.bsuir.spolks.command;
+
+import com.bsuir.spolks.connection.Connection;
+import com.bsuir.spolks.controller.Controller;
+import com.bsuir.spolks.job.Job;
+import com.bsuir.spolks.job.JobScheduler;
+import com.bsuir.spolks.parser.Parser;
+import com.bsuir.spolks.server.LoopbackServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CancelCommandTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private LoopbackServer server;
+    private Connection connection;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new LoopbackServer();
+        server.putFile("slow.bin", new byte[16 * 1024 * 1024]);
+        // The download would take a minute.
+        server.setSendRate(256 * 1024);
+
+        connection = new Connection(LoopbackServer.ADDRESS);
+        assertTrue(connection.connect());
+        Controller.getInstance().setConnection(connection);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        final Connection current = Controller.getInstance().getConnection();
+        Controller.getInstance().setConnection(null);
+        if (current != null) {
+            current.release();
+        }
+        connection.release();
+        server.close();
+    }
+
+    @Test
+    public void dropsTheConnectionInsteadOfReadingTheRest() throws Exception {
+        final File file = new File(folder.getRoot(), "slow.bin");
+        final Parser parser = new Parser();
+
+        parser.parse("download -path='slow.bin' -name='" + file.getPath() + "' -background").execute();
+        final List<Job> active = JobScheduler.getInstance().getActiveJobs();
+        assertEquals(1, active.size());
+
+        while (server.getRanges().isEmpty()) {
+            Thread.sleep(10);
+        }
+
+        final ICommand cancel = parser.parse("cancel -id='" + active.get(0).getId() + "'");
+        cancel.execute();
+
+        assertFalse(cancel.isFailed());
+        assertTrue("Job has not stopped.", active.get(0).await(1, TimeUnit.SECONDS));
+        assertEquals(Job.State.CANCELLED, active.get(0).getState());
+        assertTrue(DownloadJournal.exists(file));
+
+        // The next command gets a new connection.
+        final ICommand echo = parser.parse("echo -content='after'");
+        echo.execute();
+
+        assertFalse(echo.isFailed());
+        assertTrue(server.getConnectionCount() >= 2);
+    }
+}
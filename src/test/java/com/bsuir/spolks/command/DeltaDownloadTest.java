@@ -0,0 +1,43 @@
+package com.bsuir.spolks.command;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class DeltaDownloadTest {
+
+    @Test
+    public void computesAdlerStyleSums() {
+        // a = 1 + 2 + 3 = 6, b = 1 + 3 + 6 = 10.
+        assertEquals(6 | (10 << 16), DeltaDownload.weakChecksum(new byte[]{1, 2, 3}, 3));
+        assertEquals(0, DeltaDownload.weakChecksum(new byte[0], 0));
+    }
+
+    @Test
+    public void takesBytesAsUnsigned() {
+        assertEquals(255 | (255 << 16), DeltaDownload.weakChecksum(new byte[]{(byte) 0xFF}, 1));
+    }
+
+    @Test
+    public void readsOnlyTheGivenLength() {
+        assertEquals(DeltaDownload.weakChecksum(new byte[]{7, 8}, 2),
+                DeltaDownload.weakChecksum(new byte[]{7, 8, 9, 10}, 2));
+    }
+
+    @Test
+    public void matchesReferenceOnLargeBlock() {
+        final byte[] block = new byte[65536];
+        new Random(5).nextBytes(block);
+
+        long a = 0;
+        long b = 0;
+        for (byte value : block) {
+            a = (a + (value & 0xFF)) % 65536;
+            b = (b + a) % 65536;
+        }
+
+        assertEquals((int) (a | (b << 16)), DeltaDownload.weakChecksum(block, block.length));
+    }
+}
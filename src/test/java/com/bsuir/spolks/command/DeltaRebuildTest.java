@@ -0,0 +1,156 @@
+package com.bsuir.spolks.command;
+
+import com.bsuir.spolks.connection.Connection;
+import com.bsuir.spolks.controller.Controller;
+import com.bsuir.spolks.parser.Parser;
+import com.bsuir.spolks.server.LoopbackServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DeltaRebuildTest {
+
+    private static final int OLD_SIZE = 1024 * 1024 + 777;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private LoopbackServer server;
+    private Connection connection;
+    private byte[] oldData;
+    private byte[] newData;
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        final Random random = new Random(11);
+        oldData = new byte[OLD_SIZE];
+        random.nextBytes(oldData);
+
+        // The new version has a changed run, an insertion, a moved part and a new tail.
+        final byte[] inserted = new byte[5000];
+        random.nextBytes(inserted);
+        final byte[] tail = new byte[3000];
+        random.nextBytes(tail);
+
+        newData = concat(
+                slice(oldData, 0, 300000),
+                new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10},
+                slice(oldData, 300010, 600000),
+                inserted,
+                slice(oldData, 800000, OLD_SIZE),
+                slice(oldData, 600000, 800000),
+                tail);
+
+        server = new LoopbackServer();
+        server.putFile("data.bin", newData);
+
+        file = folder.newFile("data.bin");
+        Files.write(file.toPath(), oldData);
+
+        connection = new Connection(LoopbackServer.ADDRESS);
+        assertTrue(connection.connect());
+        Controller.getInstance().setConnection(connection);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Controller.getInstance().setConnection(null);
+        connection.release();
+        server.close();
+    }
+
+    @Test
+    public void rebuildsChangedFile() throws Exception {
+        final long bytesIn = connection.getBytesIn();
+
+        final ICommand command = download();
+        command.execute();
+
+        assertFalse(command.isFailed());
+        assertArrayEquals(newData, Files.readAllBytes(file.toPath()));
+        assertFalse(new File(file.getPath() + ".delta").exists());
+
+        assertTrue(server.getDeltaCopies() >= 3);
+        assertTrue(server.getDeltaLiterals() >= 3);
+        assertTrue(connection.getBytesIn() - bytesIn < newData.length / 10);
+        assertTrue(server.getRanges().isEmpty());
+    }
+
+    @Test
+    public void keepsLocalCopyWhenDigestDoesNotMatch() throws Exception {
+        server.setDeltaFault(LoopbackServer.DeltaFault.DIGEST);
+        assertKeepsLocalCopy();
+    }
+
+    @Test
+    public void rejectsCopyAfterTheSignature() throws Exception {
+        server.setDeltaFault(LoopbackServer.DeltaFault.COPY_RANGE);
+        assertKeepsLocalCopy();
+    }
+
+    @Test
+    public void rejectsLiteralLongerThanTheFile() throws Exception {
+        server.setDeltaFault(LoopbackServer.DeltaFault.LITERAL_SIZE);
+        assertKeepsLocalCopy();
+    }
+
+    @Test
+    public void downloadsWholeFileWithoutDeltaSupport() throws Exception {
+        server.setDeltas(false);
+
+        final ICommand command = download();
+        command.execute();
+
+        assertFalse(command.isFailed());
+        assertArrayEquals(newData, Files.readAllBytes(file.toPath()));
+        assertFalse(new File(file.getPath() + ".part").exists());
+        assertEquals(0, server.getDeltaCopies());
+        assertEquals(1, server.getRanges().size());
+    }
+
+    private void assertKeepsLocalCopy() throws Exception {
+        final ICommand command = download();
+        command.execute();
+
+        assertTrue(command.isFailed());
+        assertArrayEquals(oldData, Files.readAllBytes(file.toPath()));
+        assertFalse(new File(file.getPath() + ".delta").exists());
+    }
+
+    private ICommand download() throws Exception {
+        return new Parser().parse("download -path='data.bin' -name='" + file.getPath() + "' -delta");
+    }
+
+    private static byte[] slice(byte[] data, int from, int to) {
+        final byte[] part = new byte[to - from];
+        System.arraycopy(data, from, part, 0, part.length);
+        return part;
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        int length = 0;
+        for (byte[] part : parts) {
+            length += part.length;
+        }
+
+        final byte[] result = new byte[length];
+        int position = 0;
+        for (byte[] part : parts) {
+            System.arraycopy(part, 0, result, position, part.length);
+            position += part.length;
+        }
+        return result;
+    }
+}
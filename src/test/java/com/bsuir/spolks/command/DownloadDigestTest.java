@@ -0,0 +1,108 @@
+package com.bsuir.spolks.command;
+
+import com.bsuir.spolks.connection.Connection;
+import com.bsuir.spolks.controller.Controller;
+import com.bsuir.spolks.parser.Parser;
+import com.bsuir.spolks.server.LoopbackServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DownloadDigestTest {
+
+    private static final int CHUNK = 1024 * 1024;
+    private static final int FILE_SIZE = 8 * CHUNK - 4321;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private LoopbackServer server;
+    private Connection connection;
+    private byte[] data;
+
+    @Before
+    public void setUp() throws Exception {
+        data = new byte[FILE_SIZE];
+        new Random(5).nextBytes(data);
+
+        server = new LoopbackServer();
+        server.putFile("data.bin", data);
+
+        connection = new Connection(LoopbackServer.ADDRESS);
+        assertTrue(connection.connect());
+        Controller.getInstance().setConnection(connection);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Controller.getInstance().setConnection(null);
+        connection.release();
+        server.close();
+    }
+
+    @Test
+    public void verifiesResumeWithHolesByStream() throws Exception {
+        final File file = new File(folder.getRoot(), "out.bin");
+        interrupt(file, data);
+
+        final ICommand command = download(file, "");
+        command.execute();
+
+        assertFalse(command.isFailed());
+        assertArrayEquals(data, Files.readAllBytes(file.toPath()));
+        assertEquals(3, server.getRanges().size());
+    }
+
+    @Test
+    public void verifiesResumeWithHolesByMapping() throws Exception {
+        final File file = new File(folder.getRoot(), "out.bin");
+        interrupt(file, data);
+
+        final ICommand command = download(file, " -mmap");
+        command.execute();
+
+        assertFalse(command.isFailed());
+        assertArrayEquals(data, Files.readAllBytes(file.toPath()));
+    }
+
+    @Test
+    public void hashesChunksPresentBeforeResume() throws Exception {
+        final File file = new File(folder.getRoot(), "out.bin");
+        final byte[] damaged = data.clone();
+        damaged[3 * CHUNK + 7] ^= 1;
+        interrupt(file, damaged);
+
+        final ICommand command = download(file, "");
+        command.execute();
+
+        assertTrue(command.isFailed());
+    }
+
+    /**
+     * Leave a download with chunks 1, 3 and 4 present, so three runs are missing.
+     */
+    private static void interrupt(File file, byte[] content) throws Exception {
+        try (DownloadJournal journal = DownloadJournal.open(file, FILE_SIZE)) {
+            journal.getChannel().write(ByteBuffer.wrap(content, CHUNK, CHUNK), CHUNK);
+            journal.received(CHUNK, CHUNK);
+            journal.getChannel().write(ByteBuffer.wrap(content, 3 * CHUNK, 2 * CHUNK), 3 * CHUNK);
+            journal.received(3 * CHUNK, 2 * CHUNK);
+        }
+    }
+
+    private static ICommand download(File file, String options) throws Exception {
+        return new Parser().parse("download -path='data.bin' -name='" + file.getPath() + "' -verify" + options);
+    }
+}
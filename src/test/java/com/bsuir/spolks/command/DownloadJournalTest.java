@@ -0,0 +1,103 @@
+package com.bsuir.spolks.command;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DownloadJournalTest {
+
+    private static final int CHUNK_SIZE = 1024 * 1024;
+    private static final long FILE_SIZE = 5L * CHUNK_SIZE + 100;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void restoresChunksOfTheBitmap() throws Exception {
+        final File file = folder.newFile("out.bin");
+
+        try (DownloadJournal journal = DownloadJournal.open(file, FILE_SIZE)) {
+            journal.received(CHUNK_SIZE, 2L * CHUNK_SIZE);
+            journal.received(5L * CHUNK_SIZE, 100);
+        }
+        assertTrue(DownloadJournal.exists(file));
+
+        try (DownloadJournal journal = DownloadJournal.open(file, FILE_SIZE)) {
+            assertEquals(2L * CHUNK_SIZE + 100, journal.getReceivedBytes());
+
+            final List<DownloadJournal.Range> missing = journal.getMissingRanges();
+            assertEquals(2, missing.size());
+            assertEquals(0, missing.get(0).getOffset());
+            assertEquals(CHUNK_SIZE, missing.get(0).getLength());
+            assertEquals(3L * CHUNK_SIZE, missing.get(1).getOffset());
+            assertEquals(5L * CHUNK_SIZE, missing.get(1).getEnd());
+        }
+    }
+
+    @Test
+    public void trustsWholeChunksOfFileWithoutJournal() throws Exception {
+        final File file = folder.newFile("out.bin");
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(2L * CHUNK_SIZE + 10);
+        }
+
+        try (DownloadJournal journal = DownloadJournal.open(file, FILE_SIZE)) {
+            assertEquals(2L * CHUNK_SIZE, journal.getReceivedBytes());
+            assertEquals(FILE_SIZE, file.length());
+            assertEquals(2L * CHUNK_SIZE, journal.getMissingRanges().get(0).getOffset());
+        }
+    }
+
+    @Test
+    public void trustsNothingOfTornJournal() throws Exception {
+        final File file = folder.newFile("out.bin");
+
+        try (DownloadJournal journal = DownloadJournal.open(file, FILE_SIZE)) {
+            journal.received(0, 3L * CHUNK_SIZE);
+        }
+
+        final File journalFile = new File(file.getPath() + ".journal");
+        try (RandomAccessFile raf = new RandomAccessFile(journalFile, "rw")) {
+            raf.setLength(raf.length() - 1);
+        }
+
+        try (DownloadJournal journal = DownloadJournal.open(file, FILE_SIZE)) {
+            assertEquals(0, journal.getReceivedBytes());
+            assertEquals(FILE_SIZE, journal.getMissingRanges().get(0).getLength());
+        }
+    }
+
+    @Test
+    public void trustsNothingOfJournalForAnotherSize() throws Exception {
+        final File file = folder.newFile("out.bin");
+
+        try (DownloadJournal journal = DownloadJournal.open(file, FILE_SIZE)) {
+            journal.received(0, 3L * CHUNK_SIZE);
+        }
+
+        try (DownloadJournal journal = DownloadJournal.open(file, FILE_SIZE + CHUNK_SIZE)) {
+            assertEquals(0, journal.getReceivedBytes());
+            assertEquals(FILE_SIZE + CHUNK_SIZE, file.length());
+        }
+    }
+
+    @Test
+    public void deletesJournalOfCompletedDownload() throws Exception {
+        final File file = folder.newFile("out.bin");
+
+        try (DownloadJournal journal = DownloadJournal.open(file, FILE_SIZE)) {
+            journal.received(0, FILE_SIZE);
+            assertTrue(journal.isCompleted());
+        }
+
+        assertFalse(DownloadJournal.exists(file));
+    }
+}
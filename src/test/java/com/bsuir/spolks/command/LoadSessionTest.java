@@ -0,0 +1,36 @@
+package com.bsuir.spolks.command;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class LoadSessionTest {
+
+    @Test
+    public void picksOperationByCumulativeWeight() {
+        // echo:8 time:2 download:1
+        final int[] weights = {8, 10, 11};
+
+        assertEquals(LoadSession.Operation.ECHO, LoadSession.pick(weights, 0));
+        assertEquals(LoadSession.Operation.ECHO, LoadSession.pick(weights, 7));
+        assertEquals(LoadSession.Operation.TIME, LoadSession.pick(weights, 8));
+        assertEquals(LoadSession.Operation.TIME, LoadSession.pick(weights, 9));
+        assertEquals(LoadSession.Operation.DOWNLOAD, LoadSession.pick(weights, 10));
+    }
+
+    @Test
+    public void skipsOperationsOutOfTheMix() {
+        // time:3 download:1
+        final int[] weights = {0, 3, 4};
+
+        assertEquals(LoadSession.Operation.TIME, LoadSession.pick(weights, 0));
+        assertEquals(LoadSession.Operation.TIME, LoadSession.pick(weights, 2));
+        assertEquals(LoadSession.Operation.DOWNLOAD, LoadSession.pick(weights, 3));
+    }
+
+    @Test
+    public void findsOperationByName() {
+        assertEquals(LoadSession.Operation.DOWNLOAD, LoadSession.Operation.find("download"));
+        assertEquals(null, LoadSession.Operation.find("upload"));
+    }
+}
@@ -0,0 +1,74 @@
+package com.bsuir.spolks.command;
+
+import com.bsuir.spolks.parser.Parser;
+import com.bsuir.spolks.server.LoopbackServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LoadgenCommandTest {
+
+    private static final int SESSIONS = 4;
+
+    private LoopbackServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new LoopbackServer();
+        server.putFile("data.bin", new byte[64 * 1024]);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    @Test
+    public void runsEveryOperationOfTheMix() throws Exception {
+        final LoadgenCommand command = loadgen("-mix='echo:7 time:2 download:1' -path='data.bin'");
+        command.execute();
+
+        assertFalse(command.isFailed());
+        assertTrue(server.getConnectionCount() >= SESSIONS);
+
+        final LoadReport report = command.getReport();
+        assertEquals(0, report.getConnectErrors());
+        for (LoadSession.Operation operation : LoadSession.Operation.values()) {
+            assertTrue(operation.getName(), report.getCount(operation) > 0);
+            assertEquals(operation.getName(), 0, report.getErrors(operation));
+        }
+    }
+
+    @Test
+    public void keepsTheTargetRate() throws Exception {
+        final LoadgenCommand command = loadgen("-rate='100'");
+        command.execute();
+
+        assertFalse(command.isFailed());
+        final long count = command.getReport().getCount(null);
+        assertTrue("Count is " + count, count >= 80 && count <= 100);
+    }
+
+    @Test
+    public void failsWithoutServer() throws Exception {
+        server.close();
+        server = null;
+
+        final LoadgenCommand command = loadgen("-mix='echo:1'");
+        command.execute();
+
+        assertTrue(command.isFailed());
+        assertTrue(command.getReport().getConnectErrors() >= SESSIONS);
+    }
+
+    private static LoadgenCommand loadgen(String tokens) throws Exception {
+        return (LoadgenCommand) new Parser().parse("loadgen -ip='" + LoopbackServer.ADDRESS + "' -sessions='"
+                + SESSIONS + "' -duration='1' " + tokens);
+    }
+}
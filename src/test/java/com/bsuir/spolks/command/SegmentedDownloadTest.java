@@ -0,0 +1,103 @@
+package com.bsuir.spolks.command;
+
+import com.bsuir.spolks.connection.Connection;
+import com.bsuir.spolks.controller.Controller;
+import com.bsuir.spolks.parser.Parser;
+import com.bsuir.spolks.server.LoopbackServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SegmentedDownloadTest {
+
+    private static final int FILE_SIZE = 8 * 1024 * 1024 - 12345;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private LoopbackServer server;
+    private Connection connection;
+    private byte[] data;
+
+    @Before
+    public void setUp() throws Exception {
+        data = new byte[FILE_SIZE];
+        new Random(3).nextBytes(data);
+
+        server = new LoopbackServer();
+        server.putFile("data.bin", data);
+
+        connection = new Connection(LoopbackServer.ADDRESS);
+        assertTrue(connection.connect());
+        Controller.getInstance().setConnection(connection);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Controller.getInstance().setConnection(null);
+        connection.release();
+        server.close();
+    }
+
+    @Test
+    public void downloadsRangesOverSeveralConnections() throws Exception {
+        final File file = new File(folder.getRoot(), "out.bin");
+
+        final ICommand command = download(file, 4);
+        command.execute();
+
+        assertFalse(command.isFailed());
+        assertArrayEquals(data, Files.readAllBytes(file.toPath()));
+        assertFalse(DownloadJournal.exists(file));
+        assertEquals(4, server.getConnectionCount());
+        assertEquals(4, server.getRanges().size());
+    }
+
+    @Test
+    public void downloadsOverFewerConnectionsWhenTheyAreRefused() throws Exception {
+        final File file = new File(folder.getRoot(), "out.bin");
+        server.setMaxConnections(2);
+
+        final ICommand command = download(file, 4);
+        command.execute();
+
+        assertFalse(command.isFailed());
+        assertArrayEquals(data, Files.readAllBytes(file.toPath()));
+        assertFalse(DownloadJournal.exists(file));
+    }
+
+    @Test
+    public void keepsPresentChunksOfAnUnfinishedDownload() throws Exception {
+        final File file = new File(folder.getRoot(), "out.bin");
+        final int present = 3 * 1024 * 1024;
+
+        // A download which has stopped after the first three chunks.
+        try (DownloadJournal journal = DownloadJournal.open(file, FILE_SIZE)) {
+            journal.getChannel().write(ByteBuffer.wrap(data, 0, present), 0);
+            journal.received(0, present);
+        }
+
+        final ICommand command = download(file, 2);
+        command.execute();
+
+        assertFalse(command.isFailed());
+        assertArrayEquals(data, Files.readAllBytes(file.toPath()));
+        assertTrue(server.getRanges().stream().allMatch(r -> Long.parseLong(r.split(" ")[0]) >= present));
+    }
+
+    private static ICommand download(File file, int streams) throws Exception {
+        return new Parser().parse("download -path='data.bin' -name='" + file.getPath() + "' -streams='" + streams + "'");
+    }
+}
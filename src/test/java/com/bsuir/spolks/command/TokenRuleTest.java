@@ -0,0 +1,64 @@
+package com.bsuir.spolks.command;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TokenRuleTest {
+
+    private static final String MIX_REGEX = "^(echo|time|download):\\d{1,3}( (echo|time|download):\\d{1,3})*$";
+
+    private static final TokenRule MIX = TokenRule.list(
+            TokenRule.pair(TokenRule.oneOf("echo", "time", "download"), ':', TokenRule.digits(3)), ' ', 1,
+            Integer.MAX_VALUE);
+
+    @Test
+    public void acceptsWhatTheRegexesAccept() {
+        final Random random = new Random(42);
+        final String[] parts = {"1", "12", "123", "1234", ".", ":", " ", "-", "a", "Z", "_", "/", "\\", "echo", "time",
+                "download", "deflate", "snappy", "x"};
+
+        for (int i = 0; i < 20000; i++) {
+            StringBuilder value = new StringBuilder();
+            final int count = 1 + random.nextInt(7);
+            for (int j = 0; j < count; j++) {
+                value.append(parts[random.nextInt(parts.length)]);
+            }
+
+            check("^[\\w .-:\\\\]+$", TokenRule.TEXT, value.toString());
+            check("^[\\w .-]+$", TokenRule.CONTENT, value.toString());
+            check("^(\\d{1,3}\\.){3}\\d{1,3}$", TokenRule.IP, value.toString());
+            check("^\\d{1,3}$", TokenRule.digits(3), value.toString());
+            check("^(deflate|snappy)$", TokenRule.oneOf("deflate", "snappy"), value.toString());
+            check(MIX_REGEX, MIX, value.toString());
+        }
+    }
+
+    @Test
+    public void checksFormats() {
+        assertTrue(TokenRule.IP.matches("192.168.0.1"));
+        assertFalse(TokenRule.IP.matches("192.168.0"));
+        assertFalse(TokenRule.IP.matches("192.168.0.1.2"));
+        assertFalse(TokenRule.IP.matches("1920.168.0.1"));
+        assertTrue(MIX.matches("echo:80 download:20"));
+        assertFalse(MIX.matches("echo:80 "));
+        assertFalse(TokenRule.digits(2).matches(""));
+        assertFalse(TokenRule.digits(2).matches(null));
+    }
+
+    @Test
+    public void checksSlices() {
+        final String line = "download -streams='12'";
+
+        assertTrue(TokenRule.digits(2).matches(line, 19, 21));
+        assertFalse(TokenRule.digits(1).matches(line, 19, 21));
+    }
+
+    private static void check(String regex, TokenRule rule, String value) {
+        assertEquals(regex + " on '" + value + "'", value.matches(regex), rule.matches(value));
+    }
+}
@@ -0,0 +1,145 @@
+package com.bsuir.spolks.connection;
+
+import com.bsuir.spolks.command.CommandType;
+import com.bsuir.spolks.parser.Parser;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BinaryCodecTest {
+
+    private final BinaryCodec codec = BinaryCodec.INSTANCE;
+
+    @Test
+    public void readsMessagesAcrossLengthPrefixSizes() throws Exception {
+        // Bodies of 1, 127, 128, 16383, 16384 and 2^21 + 1 bytes take 1, 1, 2, 2, 3 and 4 prefix bytes.
+        for (int length : new int[]{0, 126, 127, 16382, 16383, 2 * 1024 * 1024}) {
+            final char[] chars = new char[length];
+            Arrays.fill(chars, 'x');
+            final String message = new String(chars);
+
+            assertEquals(message, codec.readMessage(input(write(message))));
+        }
+    }
+
+    @Test
+    public void writesLengthAsVarint() throws Exception {
+        final char[] chars = new char[299];
+        Arrays.fill(chars, 'x');
+        final byte[] frame = write(new String(chars));
+
+        assertEquals(2 + 300, frame.length);
+        assertEquals((byte) 0xAC, frame[0]);
+        assertEquals((byte) 0x02, frame[1]);
+        assertEquals(BinaryCodec.TEXT, frame[2]);
+    }
+
+    @Test
+    public void keepsNonAsciiText() throws Exception {
+        final String message = "Файл не найден";
+        assertEquals(message, codec.readMessage(input(write(message))));
+    }
+
+    @Test
+    public void readsVarint() throws Exception {
+        assertEquals(0, BinaryCodec.readVarint(input(new byte[]{0})));
+        assertEquals(127, BinaryCodec.readVarint(input(new byte[]{0x7F})));
+        assertEquals(300, BinaryCodec.readVarint(input(new byte[]{(byte) 0xAC, 0x02})));
+        assertEquals(Long.MAX_VALUE, BinaryCodec.readVarint(input(new byte[]{
+                -1, -1, -1, -1, -1, -1, -1, -1, 0x7F})));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsTooLongVarint() throws Exception {
+        final byte[] bytes = new byte[11];
+        Arrays.fill(bytes, (byte) 0x80);
+        BinaryCodec.readVarint(input(bytes));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsEmptyFrame() throws Exception {
+        codec.readMessage(input(new byte[]{0}));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsCommandFrame() throws Exception {
+        codec.readMessage(input(new byte[]{1, BinaryCodec.COMMAND}));
+    }
+
+    @Test
+    public void encodesCommandTokens() throws Exception {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        codec.writeCommand(new DataOutputStream(bytes),
+                new Parser().parse("download -path='007' -streams='300' -verify"));
+
+        final DataInputStream in = input(bytes.toByteArray());
+        assertEquals(bytes.size() - 1, BinaryCodec.readVarint(in));
+        assertEquals(BinaryCodec.COMMAND, in.readByte());
+        assertEquals(CommandType.find("download", 0, 8).getOpcode(), BinaryCodec.readVarint(in));
+        assertEquals(3, BinaryCodec.readVarint(in));
+
+        boolean[] seen = new boolean[3];
+        for (int i = 0; i < 3; i++) {
+            final long id = BinaryCodec.readVarint(in);
+            final byte type = in.readByte();
+
+            if (id == 1) {
+                // A leading zero keeps the value a string.
+                assertEquals(BinaryCodec.STRING, type);
+                assertEquals(3, BinaryCodec.readVarint(in));
+                byte[] value = new byte[3];
+                in.readFully(value);
+                assertArrayEquals("007".getBytes(), value);
+                seen[0] = true;
+            } else if (id == 7) {
+                assertEquals(BinaryCodec.NUMBER, type);
+                assertEquals(300, BinaryCodec.readVarint(in));
+                seen[1] = true;
+            } else if (id == 4) {
+                assertEquals(BinaryCodec.FLAG, type);
+                seen[2] = true;
+            }
+        }
+        assertArrayEquals(new boolean[]{true, true, true}, seen);
+        assertEquals(-1, in.read());
+    }
+
+    @Test
+    public void sendsKnownTokensById() throws Exception {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        codec.writeCommand(new DataOutputStream(bytes), new Parser().parse("echo -count='5' -pipeline='2'"));
+
+        final DataInputStream in = input(bytes.toByteArray());
+        BinaryCodec.readVarint(in);
+        in.readByte();
+        BinaryCodec.readVarint(in);
+        assertEquals(2, BinaryCodec.readVarint(in));
+
+        for (int i = 0; i < 2; i++) {
+            final long id = BinaryCodec.readVarint(in);
+            assertTrue("Token id " + id, id == 11 || id == 13);
+            assertEquals(BinaryCodec.NUMBER, in.readByte());
+            BinaryCodec.readVarint(in);
+        }
+        assertEquals(-1, in.read());
+    }
+
+    private byte[] write(String message) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        codec.writeMessage(new DataOutputStream(bytes), message);
+        return bytes.toByteArray();
+    }
+
+    private static DataInputStream input(byte[] bytes) {
+        return new DataInputStream(new ByteArrayInputStream(bytes));
+    }
+}
@@ -0,0 +1,93 @@
+package com.bsuir.spolks.connection;
+
+import com.bsuir.spolks.command.ICommand;
+import com.bsuir.spolks.controller.Controller;
+import com.bsuir.spolks.parser.Parser;
+import com.bsuir.spolks.server.LoopbackServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MultiplexedTransportTest {
+
+    private static final int FILE_SIZE = 8 * 1024 * 1024;
+
+    /**
+     * The bulk transfer takes about a second.
+     */
+    private static final long SEND_RATE = 8 * 1024 * 1024;
+
+    private static final int ECHOES = 20;
+    private static final long MAX_ECHO_NANOS = 200 * 1000000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private LoopbackServer server;
+    private Connection connection;
+    private byte[] data;
+
+    @Before
+    public void setUp() throws Exception {
+        data = new byte[FILE_SIZE];
+        new Random(9).nextBytes(data);
+
+        server = new LoopbackServer();
+        server.putFile("bulk.bin", data);
+        server.setSendRate(SEND_RATE);
+
+        connection = new Connection(LoopbackServer.ADDRESS);
+        assertTrue(connection.connect());
+        assertTrue(connection.enableMultiplexing());
+        Controller.getInstance().setConnection(connection);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Controller.getInstance().setConnection(null);
+        connection.release();
+        server.close();
+    }
+
+    @Test
+    public void smallRequestsStayFastDuringBulkTransfer() throws Exception {
+        final File file = new File(folder.getRoot(), "bulk.bin");
+        final Parser parser = new Parser();
+
+        final ICommand download = parser.parse("download -path='bulk.bin' -name='" + file.getPath() + "'");
+        final Thread bulk = new Thread(download::execute);
+        bulk.start();
+
+        while (server.getRanges().isEmpty()) {
+            Thread.sleep(10);
+        }
+
+        long slowest = 0;
+        for (int i = 0; i < ECHOES; i++) {
+            final ICommand echo = parser.parse("echo -content='ping " + i + "'");
+            final long startTime = System.nanoTime();
+
+            echo.execute();
+
+            slowest = Math.max(slowest, System.nanoTime() - startTime);
+            assertFalse(echo.isFailed());
+        }
+
+        assertTrue("Bulk transfer has ended before the echoes.", bulk.isAlive());
+        bulk.join();
+
+        assertFalse(download.isFailed());
+        assertArrayEquals(data, Files.readAllBytes(file.toPath()));
+        assertTrue("Slowest echo took " + slowest / 1000000 + " ms.", slowest < MAX_ECHO_NANOS);
+    }
+}
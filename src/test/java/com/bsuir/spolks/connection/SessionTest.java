@@ -0,0 +1,54 @@
+package com.bsuir.spolks.connection;
+
+import com.bsuir.spolks.server.LoopbackServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SessionTest {
+
+    /**
+     * Other tests connect by the address, so this server is known only by its name.
+     */
+    private static final String SERVER = "localhost";
+
+    private LoopbackServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new LoopbackServer();
+        server.setSessions(false);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.close();
+    }
+
+    @Test
+    public void remembersServerWhichDoesNotAnswer() throws Exception {
+        final Connection first = connect();
+        first.release();
+
+        final long startTime = System.nanoTime();
+        final Connection second = connect();
+        final long millis = (System.nanoTime() - startTime) / 1000000;
+        second.release();
+
+        // The first connect has opened the socket again after the timeout, the second one has not.
+        Thread.sleep(100);
+        assertEquals(3, server.getConnectionCount());
+        assertTrue("Second connect took " + millis + " ms.", millis < 500);
+    }
+
+    private static Connection connect() {
+        final Connection connection = new Connection(SERVER);
+        connection.setStandalone(true);
+        connection.setClientId("6f1c2a9e-0000-4000-8000-000000000001");
+        assertTrue(connection.connect());
+        return connection;
+    }
+}
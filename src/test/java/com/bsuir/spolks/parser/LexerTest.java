@@ -0,0 +1,78 @@
+package com.bsuir.spolks.parser;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LexerTest {
+
+    private final Lexer lexer = new Lexer();
+
+    @Test
+    public void splitsNameAndTokens() {
+        final String line = "download -path='C:\\data/file.bin' -verify -streams='4'";
+
+        assertTrue(lexer.lex(line));
+        assertEquals("download", line.substring(0, lexer.getNameEnd()));
+        assertEquals(3, lexer.getTokenCount());
+
+        assertEquals("path", lexer.getTokenName(0));
+        assertEquals("C:\\data/file.bin", lexer.getTokenValue(0));
+        assertEquals("verify", lexer.getTokenName(1));
+        assertNull(lexer.getTokenValue(1));
+        assertEquals("streams", lexer.getTokenName(2));
+        assertEquals("4", lexer.getTokenValue(2));
+    }
+
+    @Test
+    public void acceptsCommandWithoutTokens() {
+        assertTrue(lexer.lex("time"));
+        assertEquals(4, lexer.getNameEnd());
+        assertEquals(0, lexer.getTokenCount());
+    }
+
+    @Test
+    public void keepsLastOfRepeatedValues() {
+        assertTrue(lexer.lex("echo -content='first'='second'"));
+        assertEquals(1, lexer.getTokenCount());
+        assertEquals("second", lexer.getTokenValue(0));
+    }
+
+    @Test
+    public void growsSlicesForManyTokens() {
+        final StringBuilder line = new StringBuilder("jobs");
+        for (int i = 0; i < 20; i++) {
+            line.append(" -t='").append(i).append('\'');
+        }
+
+        assertTrue(lexer.lex(line.toString()));
+        assertEquals(20, lexer.getTokenCount());
+        assertEquals("19", lexer.getTokenValue(19));
+    }
+
+    @Test
+    public void doesNotKeepTokensOfPreviousLine() {
+        assertTrue(lexer.lex("echo -content='a' -verify"));
+        assertTrue(lexer.lex("time"));
+        assertEquals(0, lexer.getTokenCount());
+    }
+
+    @Test
+    public void rejectsWrongFormat() {
+        assertFalse(lexer.lex(""));
+        assertFalse(lexer.lex("Echo"));
+        assertFalse(lexer.lex("echo "));
+        assertFalse(lexer.lex("echo content='a'"));
+        assertFalse(lexer.lex("echo  -content='a'"));
+        assertFalse(lexer.lex("echo -"));
+        assertFalse(lexer.lex("echo -content="));
+        assertFalse(lexer.lex("echo -content=''"));
+        assertFalse(lexer.lex("echo -content='a"));
+        assertFalse(lexer.lex("echo -content=a"));
+        assertFalse(lexer.lex("echo -content='a?'"));
+        assertFalse(lexer.lex("echo -content='a'x"));
+    }
+}
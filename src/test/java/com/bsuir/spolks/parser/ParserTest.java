@@ -0,0 +1,51 @@
+package com.bsuir.spolks.parser;
+
+import com.bsuir.spolks.command.ICommand;
+import com.bsuir.spolks.exception.WrongCommandFormatException;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ParserTest {
+
+    private final Parser parser = new Parser();
+
+    @Test
+    public void putsTokensAsSlices() throws Exception {
+        ICommand command = parser.parse("download -path='C:\\data/file.bin' -verify -streams='4'");
+        command.validateTokens();
+
+        assertEquals(3, command.getTokens().size());
+        assertEquals("C:\\data/file.bin", command.getTokens().get("path"));
+        assertTrue(command.getTokens().containsKey("verify"));
+        assertNull(command.getTokens().get("verify"));
+        assertEquals("4", command.getTokens().get("streams"));
+    }
+
+    @Test(expected = WrongCommandFormatException.class)
+    public void rejectsUnknownToken() throws Exception {
+        parser.parse("download -path='a' -speed='4'");
+    }
+
+    @Test
+    public void rejectsWrongValues() throws Exception {
+        assertInvalid("download -path='a' -streams='123'");
+        assertInvalid("download -path='a' -verify='yes'");
+        assertInvalid("download -path='a' -compress");
+        assertInvalid("connect -ip='1.2.3'");
+    }
+
+    private void assertInvalid(String line) throws Exception {
+        ICommand command = parser.parse(line);
+
+        try {
+            command.validateTokens();
+            fail(line);
+        } catch (WrongCommandFormatException e) {
+            // expected
+        }
+    }
+}
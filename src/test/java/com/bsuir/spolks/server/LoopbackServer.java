@@ -0,0 +1,697 @@
+package com.bsuir.spolks.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Stand-in server for the tests. It listens on the loopback address at the
+ * port of the client and speaks the text protocol: session, echo, time,
+ * download with ranges, -verify and -delta, and multiplex. Files are kept in memory.
+ */
+public final class LoopbackServer implements Closeable {
+
+    public static final String ADDRESS = "127.0.0.1";
+    public static final int PORT = Integer.getInteger("spolks.port", 9999);
+
+    private static final Pattern PATH = Pattern.compile("-path='([^']*)'");
+
+    private static final int BUFF_SIZE = 65536;
+    private static final int PACE_SIZE = 16 * 1024;
+    private static final long CLOSE_TIMEOUT = 5;
+
+    private static final int STRONG_SIZE = 16;
+    private static final int MAX_LITERAL_SIZE = 1024 * 1024;
+    private static final byte END = 0;
+    private static final byte LITERAL = 1;
+    private static final byte COPY = 2;
+
+    private static final byte DATA = 0;
+    private static final byte WINDOW_UPDATE = 1;
+    private static final byte CLOSE = 2;
+    private static final int FRAME_SIZE = 16 * 1024;
+    private static final int WINDOW_SIZE = 256 * 1024;
+
+    private final ServerSocket serverSocket;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    private final Map<String, byte[]> files = new ConcurrentHashMap<>();
+    private final List<Socket> sockets = new CopyOnWriteArrayList<>();
+    private final List<String> ranges = new CopyOnWriteArrayList<>();
+    private final AtomicInteger connections = new AtomicInteger();
+
+    private volatile int maxConnections = Integer.MAX_VALUE;
+    private volatile long echoDelay;
+    private volatile long sendRate;
+    private volatile boolean sessions = true;
+    private volatile boolean deltas = true;
+    private volatile DeltaFault deltaFault = DeltaFault.NONE;
+    private final AtomicInteger deltaCopies = new AtomicInteger();
+    private final AtomicInteger deltaLiterals = new AtomicInteger();
+
+    /**
+     * Wrong answers to a delta request, to check how the client rejects them.
+     */
+    public enum DeltaFault {
+        NONE,
+        /** The digest after END is of other data. */
+        DIGEST,
+        /** The first instruction copies a block after the end of the signature. */
+        COPY_RANGE,
+        /** The first instruction is a literal longer than the new version. */
+        LITERAL_SIZE
+    }
+
+    /**
+     * Start listening.
+     *
+     * @throws IOException if the port is taken
+     */
+    public LoopbackServer() throws IOException {
+        serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(new InetSocketAddress(ADDRESS, PORT));
+        executor.execute(this::accept);
+    }
+
+    /**
+     * Serve the data as the file at the path.
+     *
+     * @param path path in the download command
+     * @param data content
+     */
+    public void putFile(String path, byte[] data) {
+        files.put(path, data);
+    }
+
+    /**
+     * Close every connection after the given count right after accepting it.
+     *
+     * @param maxConnections count of connections which are served
+     */
+    public void setMaxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+    }
+
+    /**
+     * Delay the answer to every echo.
+     *
+     * @param millis delay
+     */
+    public void setEchoDelay(long millis) {
+        this.echoDelay = millis;
+    }
+
+    /**
+     * Send the data of every download at most at the given rate.
+     *
+     * @param bytesPerSecond rate or 0 for no limit
+     */
+    public void setSendRate(long bytesPerSecond) {
+        this.sendRate = bytesPerSecond;
+    }
+
+    /**
+     * Leave session requests without an answer, like a server which does not know them.
+     *
+     * @param sessions false to ignore them
+     */
+    public void setSessions(boolean sessions) {
+        this.sessions = sessions;
+    }
+
+    /**
+     * Answer -delta downloads with the whole file, like a server which does not know deltas.
+     *
+     * @param deltas false to send whole files
+     */
+    public void setDeltas(boolean deltas) {
+        this.deltas = deltas;
+    }
+
+    /**
+     * Break the answers to delta requests.
+     *
+     * @param deltaFault fault
+     */
+    public void setDeltaFault(DeltaFault deltaFault) {
+        this.deltaFault = deltaFault;
+    }
+
+    /**
+     * Get count of COPY instructions sent.
+     *
+     * @return count
+     */
+    public int getDeltaCopies() {
+        return deltaCopies.get();
+    }
+
+    /**
+     * Get count of LITERAL instructions sent.
+     *
+     * @return count
+     */
+    public int getDeltaLiterals() {
+        return deltaLiterals.get();
+    }
+
+    /**
+     * Get count of accepted connections.
+     *
+     * @return count
+     */
+    public int getConnectionCount() {
+        return connections.get();
+    }
+
+    /**
+     * Get the offset messages of all downloads, "offset" or "offset length".
+     *
+     * @return messages in the order they are received
+     */
+    public List<String> getRanges() {
+        return ranges;
+    }
+
+    /**
+     * Close the connections and wait for the threads, so the port is free
+     * for the next server. A thread in accept() holds the listening socket
+     * open until it has returned.
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+        executor.shutdownNow();
+
+        try {
+            executor.awaitTermination(CLOSE_TIMEOUT, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            try {
+                final Socket socket = serverSocket.accept();
+
+                if (connections.incrementAndGet() > maxConnections) {
+                    socket.close();
+                    continue;
+                }
+
+                sockets.add(socket);
+                executor.execute(() -> serve(socket));
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (Socket s = socket) {
+            s.setTcpNoDelay(true);
+            final DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream(), BUFF_SIZE));
+
+            if (handle(in, out)) {
+                new Multiplexer(in, out).run();
+            }
+        } catch (IOException e) {
+            // The client has closed the connection or the server is closed.
+        } finally {
+            sockets.remove(socket);
+        }
+    }
+
+    /**
+     * Answer the requests of one connection or stream.
+     *
+     * @return true if the client has switched the connection to multiplexing
+     * @throws IOException
+     */
+    private boolean handle(DataInputStream in, DataOutputStream out) throws IOException {
+        while (true) {
+            final String message;
+            try {
+                message = in.readUTF();
+            } catch (EOFException e) {
+                return false;
+            }
+
+            if (message.startsWith("session ")) {
+                if (sessions) {
+                    reply(out, "session");
+                }
+            } else if (message.equals("multiplex")) {
+                reply(out, "multiplex");
+                return true;
+            } else if (message.startsWith("echo")) {
+                sleep(echoDelay);
+                reply(out, message);
+            } else if (message.startsWith("time")) {
+                reply(out, String.valueOf(System.currentTimeMillis()));
+            } else if (message.startsWith("download")) {
+                download(in, out, message);
+            } else if (message.startsWith("disconnect")) {
+                return false;
+            }
+        }
+    }
+
+    private void download(DataInputStream in, DataOutputStream out, String command) throws IOException {
+        final Matcher matcher = PATH.matcher(command);
+        final byte[] data = matcher.find() ? files.get(matcher.group(1)) : null;
+
+        if (data == null) {
+            reply(out, "File is not found.");
+            return;
+        }
+
+        final boolean delta = deltas && command.contains("-delta");
+        reply(out, "success " + data.length + (delta ? " delta" : ""));
+
+        final String range = in.readUTF();
+        if (delta && range.startsWith("delta ")) {
+            sendDelta(in, out, data, range);
+            return;
+        }
+        ranges.add(range);
+
+        final String[] parts = range.split(" ");
+        final int offset = Integer.parseInt(parts[0]);
+        final int length = parts.length > 1 ? Integer.parseInt(parts[1]) : data.length - offset;
+
+        reply(out, "progress");
+        send(out, data, offset, length);
+
+        if (command.contains("-verify")) {
+            out.writeUTF(sha256(data));
+        }
+        out.flush();
+    }
+
+    /**
+     * Read the signature "delta blockSize blockCount" and [int weak][MD5] of every
+     * block, then send instructions which build the data from the blocks.
+     */
+    private void sendDelta(DataInputStream in, DataOutputStream out, byte[] data, String request) throws IOException {
+        final String[] parts = request.split(" ");
+        final int blockSize = Integer.parseInt(parts[1]);
+        final int blockCount = Integer.parseInt(parts[2]);
+
+        final Map<Integer, List<Integer>> blocks = new HashMap<>();
+        final byte[][] strong = new byte[blockCount][STRONG_SIZE];
+
+        for (int i = 0; i < blockCount; i++) {
+            blocks.computeIfAbsent(in.readInt(), k -> new ArrayList<>()).add(i);
+            in.readFully(strong[i]);
+        }
+        // Only the last block may be shorter, so a window at the end of the data is matched against it alone.
+        final int lastBlock = blockCount - 1;
+
+        reply(out, "progress");
+
+        final DeltaFault fault = deltaFault;
+        if (fault == DeltaFault.COPY_RANGE) {
+            instruction(out, COPY, blockCount, 1);
+        } else if (fault == DeltaFault.LITERAL_SIZE) {
+            instruction(out, LITERAL, data.length + 1, 0);
+        }
+
+        int literalStart = 0;
+        int copyFirst = -1;
+        int copyCount = 0;
+        int pos = 0;
+        int a = 0;
+        int b = 0;
+        boolean rolled = false;
+
+        while (pos < data.length) {
+            final int length = Math.min(blockSize, data.length - pos);
+
+            if (!rolled) {
+                a = 0;
+                b = 0;
+                for (int i = pos; i < pos + length; i++) {
+                    a += data[i] & 0xFF;
+                    b += a;
+                }
+                rolled = true;
+            }
+
+            final int match = findBlock(blocks, strong, data, pos, length, (a & 0xFFFF) | (b << 16),
+                    length == blockSize ? -1 : lastBlock);
+
+            if (match >= 0) {
+                if (literalStart < pos) {
+                    flushCopy(out, copyFirst, copyCount);
+                    copyCount = 0;
+                    sendLiteral(out, data, literalStart, pos - literalStart);
+                }
+                if (copyCount > 0 && copyFirst + copyCount == match) {
+                    copyCount++;
+                } else {
+                    flushCopy(out, copyFirst, copyCount);
+                    copyFirst = match;
+                    copyCount = 1;
+                }
+
+                pos += length;
+                literalStart = pos;
+                rolled = false;
+            } else {
+                // Roll the window one byte on.
+                final int out0 = data[pos] & 0xFF;
+                pos++;
+                if (pos + length - 1 < data.length && length == blockSize) {
+                    a += (data[pos + length - 1] & 0xFF) - out0;
+                    b += a - length * out0;
+                } else {
+                    rolled = false;
+                }
+            }
+        }
+
+        flushCopy(out, copyFirst, copyCount);
+        if (literalStart < data.length) {
+            sendLiteral(out, data, literalStart, data.length - literalStart);
+        }
+
+        instruction(out, END, 0, 0);
+        out.writeUTF(sha256(fault == DeltaFault.DIGEST ? new byte[1] : data));
+        out.flush();
+    }
+
+    /**
+     * Find the block of the signature with the checksums of data[pos, pos + length).
+     *
+     * @param onlyBlock block the data must be, -1 for any block of full size
+     * @return block index or -1
+     */
+    private static int findBlock(Map<Integer, List<Integer>> blocks, byte[][] strong, byte[] data, int pos, int length,
+                                 int weak, int onlyBlock) {
+        final List<Integer> candidates = blocks.get(weak);
+        if (candidates == null) {
+            return -1;
+        }
+
+        byte[] digest = null;
+        for (int block : candidates) {
+            if (onlyBlock >= 0 && block != onlyBlock) {
+                continue;
+            }
+            if (digest == null) {
+                digest = md5(data, pos, length);
+            }
+            if (Arrays.equals(digest, strong[block])) {
+                return block;
+            }
+        }
+
+        return -1;
+    }
+
+    private void flushCopy(DataOutputStream out, int first, int count) throws IOException {
+        if (count > 0) {
+            instruction(out, COPY, first, count);
+            deltaCopies.incrementAndGet();
+        }
+    }
+
+    private void sendLiteral(DataOutputStream out, byte[] data, int offset, int length) throws IOException {
+        for (int sent = 0; sent < length; ) {
+            final int part = Math.min(MAX_LITERAL_SIZE, length - sent);
+            instruction(out, LITERAL, part, 0);
+            out.write(data, offset + sent, part);
+            deltaLiterals.incrementAndGet();
+            sent += part;
+        }
+    }
+
+    private static void instruction(DataOutputStream out, byte type, int first, int second) throws IOException {
+        out.writeByte(type);
+        out.writeInt(first);
+        out.writeInt(second);
+    }
+
+    private void send(DataOutputStream out, byte[] data, int offset, int length) throws IOException {
+        final long rate = sendRate;
+
+        if (rate <= 0) {
+            out.write(data, offset, length);
+            return;
+        }
+
+        final long startTime = System.nanoTime();
+        for (int sent = 0; sent < length; ) {
+            final int part = Math.min(PACE_SIZE, length - sent);
+            out.write(data, offset + sent, part);
+            out.flush();
+            sent += part;
+
+            sleep((startTime + sent * 1000000000L / rate - System.nanoTime()) / 1000000);
+        }
+    }
+
+    private static void reply(DataOutputStream out, String message) throws IOException {
+        out.writeUTF(message);
+        out.flush();
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static byte[] md5(byte[] data, int offset, int length) {
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("MD5");
+            digest.update(data, offset, length);
+            return digest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String sha256(byte[] data) {
+        try {
+            StringBuilder builder = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("SHA-256").digest(data)) {
+                builder.append(String.format("%02x", b));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Server side of a multiplexed connection: frames are
+     * [int length][byte type][int stream id][payload], and every
+     * stream is answered by its own thread like a connection.
+     */
+    private final class Multiplexer {
+        private final DataInputStream in;
+        private final DataOutputStream out;
+        private final ReentrantLock writeLock = new ReentrantLock(true);
+        private final Map<Integer, Pipe> pipes = new HashMap<>();
+
+        Multiplexer(DataInputStream in, DataOutputStream out) {
+            this.in = in;
+            this.out = out;
+        }
+
+        void run() throws IOException {
+            try {
+                while (true) {
+                    final int length = in.readInt();
+                    final byte type = in.readByte();
+                    final int id = in.readInt();
+                    final byte[] payload = new byte[length];
+                    in.readFully(payload);
+
+                    Pipe pipe = pipes.get(id);
+                    if (pipe == null) {
+                        pipe = new Pipe(id);
+                        pipes.put(id, pipe);
+                        executor.execute(pipe::serve);
+                    }
+
+                    if (type == DATA) {
+                        pipe.input.feed(payload);
+                    } else if (type == WINDOW_UPDATE) {
+                        pipe.output.addCredit(ByteBuffer.wrap(payload).getInt());
+                    } else if (type == CLOSE) {
+                        pipe.input.feed(new byte[0]);
+                    }
+                }
+            } finally {
+                for (Pipe pipe : pipes.values()) {
+                    pipe.input.feed(new byte[0]);
+                }
+            }
+        }
+
+        void send(byte type, int id, byte[] data, int offset, int length) throws IOException {
+            writeLock.lock();
+            try {
+                out.writeInt(length);
+                out.writeByte(type);
+                out.writeInt(id);
+                out.write(data, offset, length);
+                out.flush();
+            } finally {
+                writeLock.unlock();
+            }
+        }
+
+        /**
+         * One stream of the connection.
+         */
+        private final class Pipe {
+            private final int id;
+            private final PipeInput input = new PipeInput();
+            private final PipeOutput output = new PipeOutput(this);
+
+            Pipe(int id) {
+                this.id = id;
+            }
+
+            void serve() {
+                try {
+                    handle(new DataInputStream(input), new DataOutputStream(new BufferedOutputStream(output, FRAME_SIZE)));
+                    send(CLOSE, id, new byte[0], 0, 0);
+                } catch (IOException e) {
+                    // The connection is closed.
+                }
+            }
+        }
+
+        private final class PipeOutput extends OutputStream {
+            private final Pipe pipe;
+            private int credit = WINDOW_SIZE;
+
+            PipeOutput(Pipe pipe) {
+                this.pipe = pipe;
+            }
+
+            synchronized void addCredit(int count) {
+                credit += count;
+                notifyAll();
+            }
+
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                while (len > 0) {
+                    final int part = Math.min(FRAME_SIZE, len);
+
+                    synchronized (this) {
+                        while (credit < part) {
+                            try {
+                                wait();
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                                throw new IOException("Stream is interrupted.");
+                            }
+                        }
+                        credit -= part;
+                    }
+
+                    send(DATA, pipe.id, b, off, part);
+                    off += part;
+                    len -= part;
+                }
+            }
+        }
+    }
+
+    /**
+     * Bytes of DATA frames; an empty array is the end of the stream.
+     */
+    private static final class PipeInput extends InputStream {
+        private final BlockingQueue<byte[]> frames = new LinkedBlockingQueue<>();
+        private byte[] current = new byte[0];
+        private int position;
+        private boolean closed;
+
+        void feed(byte[] frame) {
+            frames.add(frame);
+        }
+
+        @Override
+        public int read() throws IOException {
+            final byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            while (!closed && position == current.length) {
+                try {
+                    current = frames.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Stream is interrupted.");
+                }
+                position = 0;
+                closed = current.length == 0;
+            }
+
+            if (closed) {
+                return -1;
+            }
+
+            final int count = Math.min(len, current.length - position);
+            System.arraycopy(current, position, b, off, count);
+            position += count;
+            return count;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.bsuir.spolks.stats;
+
+import org.junit.Test;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Date;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ClockOffsetTest {
+
+    private static final long NANOS_PER_MILLI = 1000000L;
+    private static final long NANOS_PER_SECOND = 1000000000L;
+
+    /**
+     * 2021-01-01T00:00:00Z.
+     */
+    private static final long EPOCH_SECONDS = 1609459200L;
+    private static final long T1 = EPOCH_SECONDS * NANOS_PER_SECOND;
+    private static final long T4 = T1 + 20 * NANOS_PER_MILLI;
+
+    @Test
+    public void parsesEpochMillis() {
+        final ClockOffset.Sample sample = ClockOffset.parse(String.valueOf(EPOCH_SECONDS * 1000 + 110), T1, T4);
+
+        assertEquals(20 * NANOS_PER_MILLI, sample.getDelay());
+        assertEquals(NANOS_PER_MILLI, sample.getResolution());
+        // Server time 110 ms plus half of its step against the local midpoint at 10 ms.
+        assertEquals(100 * NANOS_PER_MILLI + NANOS_PER_MILLI / 2, sample.getOffset());
+    }
+
+    @Test
+    public void parsesEpochSeconds() {
+        final ClockOffset.Sample sample = ClockOffset.parse(String.valueOf(EPOCH_SECONDS - 2), T1, T4);
+
+        assertEquals(NANOS_PER_SECOND, sample.getResolution());
+        assertEquals(-2 * NANOS_PER_SECOND + NANOS_PER_SECOND / 2 - 10 * NANOS_PER_MILLI, sample.getOffset());
+    }
+
+    @Test
+    public void parsesIsoWithZone() {
+        final ClockOffset.Sample sample = ClockOffset.parse("2021-01-01T00:00:01.250Z", T1, T4);
+
+        assertEquals(NANOS_PER_MILLI, sample.getResolution());
+        assertEquals(1240 * NANOS_PER_MILLI + NANOS_PER_MILLI / 2, sample.getOffset());
+    }
+
+    @Test
+    public void parsesIsoInLocalZone() {
+        final LocalDateTime local = LocalDateTime.of(2021, 1, 1, 3, 0, 5);
+        final long serverTime = local.atZone(ZoneId.systemDefault()).toEpochSecond() * NANOS_PER_SECOND;
+
+        final ClockOffset.Sample sample = ClockOffset.parse("2021-01-01 03:00:05", T1, T4);
+
+        assertEquals(NANOS_PER_SECOND, sample.getResolution());
+        assertEquals(serverTime + NANOS_PER_SECOND / 2 - T1 - 10 * NANOS_PER_MILLI, sample.getOffset());
+    }
+
+    @Test
+    public void parsesDateToString() {
+        final String text = new Date(EPOCH_SECONDS * 1000 + 3000).toString();
+
+        final ClockOffset.Sample sample = ClockOffset.parse(text, T1, T4);
+
+        assertNotNull(sample);
+        assertEquals(3 * NANOS_PER_SECOND + NANOS_PER_SECOND / 2 - 10 * NANOS_PER_MILLI, sample.getOffset());
+    }
+
+    @Test
+    public void wrapsTimeOfDayIntoHalfDay() {
+        final long now = ClockOffset.now();
+        final String time = LocalDateTime.now().plusSeconds(30).format(DateTimeFormatter.ofPattern("HH:mm:ss.SSS", Locale.ROOT));
+
+        final ClockOffset.Sample sample = ClockOffset.parse(time, now, now);
+
+        assertEquals(NANOS_PER_MILLI, sample.getResolution());
+        // Around midnight the date of the time of day is wrong, the wrap still gives the offset.
+        assertTrue(Math.abs(sample.getOffset() - 30 * NANOS_PER_SECOND) < NANOS_PER_SECOND);
+    }
+
+    @Test
+    public void takesMinutesAsResolutionOfShortTime() {
+        assertEquals(60 * NANOS_PER_SECOND, ClockOffset.parse("12:30", T1, T4).getResolution());
+    }
+
+    @Test
+    public void rejectsUnknownFormat() {
+        assertNull(ClockOffset.parse("now", T1, T4));
+        assertNull(ClockOffset.parse("", T1, T4));
+        assertNull(ClockOffset.parse(null, T1, T4));
+        assertNull(ClockOffset.parse("12345", T1, T4));
+    }
+}